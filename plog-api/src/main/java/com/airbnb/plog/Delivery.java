@@ -0,0 +1,24 @@
+package com.airbnb.plog;
+
+/**
+ * Delivery of a message from a reliable TCP connection, acknowledged to its sender once complete.
+ * <p>
+ * The message is complete once all handlers have returned, unless some have held its delivery:
+ * handlers handing messages over asynchronously (to Kafka...) call {@link #hold()} before returning,
+ * then complete or fail what it returned once the hand-off is confirmed.
+ * Handlers replacing messages must carry their delivery over.
+ */
+public interface Delivery {
+    /**
+     * @return the hold, to complete or fail exactly once
+     * @throws IllegalStateException if the delivery is already complete
+     */
+    Delivery hold();
+
+    void complete();
+
+    /**
+     * The message is not acknowledged, and its sender will retry it.
+     */
+    void fail(Throwable cause);
+}
@@ -4,4 +4,15 @@ import io.netty.buffer.ByteBufHolder;
 
 public interface Message extends ByteBufHolder, Tagged {
     byte[] asBytes();
+
+    /**
+     * @return null unless the sender waits for acknowledgement
+     */
+    Delivery getDelivery();
+
+    /**
+     * @return the compression the content is still in, as in bytes 22-23 of v0 multipart headers:
+     * 0 unless forwarded compressed (see {@code defrag.decompress})
+     */
+    int getCompression();
 }
@@ -17,13 +17,25 @@ import java.util.Collections;
 @EqualsAndHashCode(callSuper = false)
 public final class MessageImpl extends DefaultByteBufHolder implements Message {
     private final Collection<String> tags;
+    private final Delivery delivery;
+    private final int compression;
 
     @Getter(AccessLevel.NONE)
     private byte[] memoizedBytes;
 
     public MessageImpl(ByteBuf data, Collection<String> tags) {
+        this(data, tags, null);
+    }
+
+    public MessageImpl(ByteBuf data, Collection<String> tags, Delivery delivery) {
+        this(data, tags, delivery, 0);
+    }
+
+    public MessageImpl(ByteBuf data, Collection<String> tags, Delivery delivery, int compression) {
         super(data);
         this.tags = tags;
+        this.delivery = delivery;
+        this.compression = compression;
     }
 
     public static Message fromBytes(ByteBufAllocator alloc, byte[] bytes, Collection<String> tags) {
@@ -0,0 +1,63 @@
+package com.airbnb.plog;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable tags, also indexed by key for tags of the form {@code key:value} (e.g. {@code kt:topic}),
+ * so that handlers look them up without scanning nor creating Strings.
+ * <p>
+ * Listeners share one instance between all messages carrying the same tags.
+ */
+public final class TagSet extends AbstractList<String> {
+    public static final TagSet EMPTY = new TagSet(ImmutableList.<String>of());
+
+    private final ImmutableList<String> tags;
+    private final ImmutableMap<String, String> values;
+
+    private TagSet(ImmutableList<String> tags) {
+        this.tags = tags;
+
+        final Map<String, String> values = new HashMap<String, String>();
+        for (String tag : tags) {
+            final int separator = tag.indexOf(':');
+            if (separator >= 0) {
+                // the last one wins, as when scanning tags in order
+                values.put(tag.substring(0, separator), tag.substring(separator + 1));
+            }
+        }
+        this.values = ImmutableMap.copyOf(values);
+    }
+
+    public static TagSet copyOf(Collection<String> tags) {
+        if (tags instanceof TagSet) {
+            return (TagSet) tags;
+        }
+        if (tags.isEmpty()) {
+            return EMPTY;
+        }
+        return new TagSet(ImmutableList.copyOf(tags));
+    }
+
+    /**
+     * @return the value of the last tag {@code key:value}, or null if there is none
+     */
+    public String getValue(String key) {
+        return values.get(key);
+    }
+
+    @Override
+    public String get(int index) {
+        return tags.get(index);
+    }
+
+    @Override
+    public int size() {
+        return tags.size();
+    }
+}
@@ -3,6 +3,13 @@ package com.airbnb.plog.handlers;
 import com.eclipsesource.json.JsonObject;
 import io.netty.channel.ChannelHandler;
 
+/**
+ * Handlers are provided once per listener, and shared by all its pipelines
+ * (TCP connections, worker threads, SO_REUSEPORT sockets...) if annotated with
+ * {@link ChannelHandler.Sharable}: they must then be thread-safe.
+ * <p>
+ * Handlers that are not get provided again for every pipeline, which can be costly.
+ */
 public interface Handler extends ChannelHandler {
     public JsonObject getStats();
 
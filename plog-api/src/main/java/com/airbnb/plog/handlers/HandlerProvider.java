@@ -2,6 +2,11 @@ package com.airbnb.plog.handlers;
 
 import com.typesafe.config.Config;
 
+/**
+ * Instantiated once per listener.
+ *
+ * @see Handler for how often handlers get provided
+ */
 public interface HandlerProvider {
     public Handler getHandler(Config config) throws Exception;
 }
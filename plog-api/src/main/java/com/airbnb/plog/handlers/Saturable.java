@@ -0,0 +1,15 @@
+package com.airbnb.plog.handlers;
+
+/**
+ * Handlers that can fall behind what they send messages to (a producer buffer, a queue...)
+ * report how full they are. Listeners that can push back on their senders, like TCP listeners,
+ * stop reading while any of their handlers is saturated.
+ * <p>
+ * Polled periodically from another thread than the pipelines', it must be cheap and thread-safe.
+ */
+public interface Saturable {
+    /**
+     * @return from 0 (idle) to 1 (full, messages are about to be blocked on or dropped)
+     */
+    public double getSaturation();
+}
@@ -30,6 +30,23 @@ public class MultipartMessage {
                               int count,
                               int index,
                               byte[] payload) {
+    return encode(messageId, length, checksum, chunkSize, count, index, 0, payload);
+  }
+
+  /**
+   * Encode the payload as a chunk in a multi-part UDP message, compressed as a whole.
+   *
+   * @param compression ID of the `PayloadCompression` of the message
+   * @return the encoded bytes ready for UDP transmission.
+   */
+  public static byte[] encode(int messageId,
+                              int length,
+                              byte[] checksum,
+                              int chunkSize,
+                              int count,
+                              int index,
+                              int compression,
+                              byte[] payload) {
     // ByteBuffer by default is big-endian.
     ByteBuffer byteBuffer = ByteBuffer.allocate(NUM_HEADER_BYTES + payload.length);
     // Some temporary byte buffer used.
@@ -55,8 +72,10 @@ public class MultipartMessage {
     byteBuffer.put(fourBytes.putInt(0, length).array(), 0, 4);
     // Bytes 16-19: MurmurHash3 hash of the total message payload.
     byteBuffer.put(checksum, 0, 4);
-    // Bytes 20-23: null bytes.
-    byteBuffer.put(new byte[4], 0, 4);
+    // Bytes 20-21: null bytes, no tags.
+    byteBuffer.put(new byte[2], 0, 2);
+    // Bytes 22-23: compression of the message.
+    byteBuffer.put(twoBytes.putShort(0, (short)compression).array(), 0, 2);
     // Bytes (24+taglength)-: Bytes. Payload. Will only read the payload length.
     byteBuffer.put(payload, 0, payload.length);
     return byteBuffer.array();
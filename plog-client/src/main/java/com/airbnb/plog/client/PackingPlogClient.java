@@ -0,0 +1,195 @@
+package com.airbnb.plog.client;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ## Packing Plog client for Java
+ * Packs many small messages into each UDP packet
+ * ([packet type 02](https://github.com/airbnb/plog#packet-type-02-packed-messages)),
+ * saving a packet, a syscall and a trip through the Plog decoder per message. Example:
+ *
+ * ```java
+ * PackingPlogClient plogClient = new PackingPlogClient("127.0.0.1", 23456);
+ * plogClient.send("My hovercraft is full of eels.");
+ * plogClient.flush();
+ * ```
+ *
+ * A packet is sent when the next message would not fit, or `maxDelayMillis` after its first message.
+ * Messages that could not fit in a packet on their own are rejected: send them with `PlogClient`.
+ *
+ * You can configure the client at initialization by passing these options:
+ *
+ * + host - The host of the Plog process (e.g., 'localhost')
+ * + port - The port on which Plog is listening (e.g., 23456)
+ * + maxPacketSize - The maximum size of packets (e.g., 64,000)
+ * + maxDelayMillis - How long a message can wait for others (e.g., 10)
+ */
+@Slf4j
+public class PackingPlogClient implements Closeable {
+
+  public static final int DEFAULT_MAX_PACKET_SIZE = 64000;
+
+  public static final long DEFAULT_MAX_DELAY_MILLIS = 10;
+
+  public static final byte TYPE_PACKED_MESSAGES = 2;
+
+  private static final int PACKET_HEADER_SIZE = 2;
+
+  private static final int RECORD_HEADER_SIZE = 4;
+
+  private final InetAddress address;
+
+  private final int port;
+
+  private final long maxDelayMillis;
+
+  private final ByteBuffer packet;
+
+  private final ScheduledExecutorService timer;
+
+  private DatagramSocket socket;
+
+  // counts packets, so that timers only flush the packet they were set for
+  private long packetNumber = 0;
+
+  public PackingPlogClient(String host, int port) {
+    this(host, port, DEFAULT_MAX_PACKET_SIZE, DEFAULT_MAX_DELAY_MILLIS);
+  }
+
+  public PackingPlogClient(String host, int port, int maxPacketSize, long maxDelayMillis) {
+    Preconditions.checkNotNull(host, "host cannot be null!");
+    Preconditions.checkArgument(port > 1024 && port < 65536, "Must provide a valid port number!");
+    Preconditions.checkArgument(maxPacketSize > PACKET_HEADER_SIZE + RECORD_HEADER_SIZE && maxPacketSize <= 65507,
+        "Maximum UDP data length is 65507 bytes!");
+    Preconditions.checkArgument(maxDelayMillis > 0, "maxDelayMillis must be positive!");
+
+    openSocket();
+    try {
+      address = InetAddress.getByName(host);
+    } catch (UnknownHostException e) {
+      log.error("Unknown address {}", host, e);
+      throw Throwables.propagate(e);
+    }
+    this.port = port;
+    this.maxDelayMillis = maxDelayMillis;
+    this.packet = ByteBuffer.allocate(maxPacketSize);
+    this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        final Thread thread = new Thread(r, "plog-packing-" + host + ":" + port);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Queue the message for the next packet to Plog server.
+   */
+  public void send(String message) {
+    // ISO-8859-1 is ASCII-8bit, as in PlogClient.
+    send(message.getBytes(Charset.forName("ISO-8859-1")), Collections.<String>emptyList());
+  }
+
+  /**
+   * Queue the message, with tags, for the next packet to Plog server.
+   *
+   * @throws IllegalArgumentException if the message and its tags cannot fit in a packet
+   */
+  public synchronized void send(byte[] message, Collection<String> tags) {
+    final byte[] tagBytes = tags.isEmpty() ? new byte[0] : Joiner.on('\0').join(tags).getBytes(Charsets.UTF_8);
+    final int recordSize = RECORD_HEADER_SIZE + tagBytes.length + message.length;
+    Preconditions.checkArgument(PACKET_HEADER_SIZE + recordSize <= packet.capacity(),
+        "Message of %s bytes cannot fit in a packet!", recordSize);
+    Preconditions.checkState(socket != null, "Client closed!");
+
+    if (recordSize > packet.remaining()) {
+      flush();
+    }
+    if (packet.position() == 0) {
+      startPacket();
+    }
+    packet.putShort((short) message.length)
+        .putShort((short) tagBytes.length)
+        .put(tagBytes)
+        .put(message);
+  }
+
+  /**
+   * Send queued messages right away.
+   */
+  public synchronized void flush() {
+    if (packet.position() == 0) {
+      return;
+    }
+    final DatagramPacket datagram = new DatagramPacket(packet.array(), packet.position(), address, port);
+    packet.clear();
+    packetNumber++;
+    try {
+      log.trace("Sending {} bytes to UDP port {}", datagram.getLength(), port);
+      socket.send(datagram);
+    } catch (IOException e) {
+      log.error("Error sending packet!", e);
+      socket.close();
+      openSocket();
+    }
+  }
+
+  private void startPacket() {
+    packet.put(MultipartMessage.PROTOCOL_VERSION).put(TYPE_PACKED_MESSAGES);
+    final long started = packetNumber;
+    timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        flushPacket(started);
+      }
+    }, maxDelayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private synchronized void flushPacket(long number) {
+    if (packetNumber == number && socket != null) {
+      flush();
+    }
+  }
+
+  private void openSocket() {
+    try {
+      socket = new DatagramSocket();
+    } catch (SocketException e) {
+      log.error("Cannot open socket", e);
+      throw Throwables.propagate(e);
+    }
+  }
+
+  /**
+   * Send queued messages, then close.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (socket == null) return;
+    flush();
+    timer.shutdownNow();
+    socket.close();
+    socket = null;
+  }
+}
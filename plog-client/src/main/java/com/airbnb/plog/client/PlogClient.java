@@ -15,10 +15,14 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.airbnb.plog.common.PayloadCompression;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.hash.Hashing;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
 
 /**
  * ## Plog client for Java
@@ -33,6 +37,8 @@ import com.google.common.hash.Hashing;
  * + host - The host of the Plog process (e.g., 'localhost')
  * + port - The port on which Plog is listening (e.g., 23456)
  * + chunkSize - The maximum payload size for multipart datagrams (e.g., 64,000)
+ * + compression - How to compress messages, which are sent as is if that does not make them smaller
+ *   (e.g., `PayloadCompression.SNAPPY`, none by default)
  */
 @Slf4j
 public class PlogClient implements Closeable {
@@ -47,6 +53,8 @@ public class PlogClient implements Closeable {
 
   private final int chunkSize;
 
+  private final PayloadCompression compression;
+
   private DatagramSocket socket;
 
   public PlogClient(String host, int port) {
@@ -54,7 +62,12 @@ public class PlogClient implements Closeable {
   }
 
   public PlogClient(String host, int port, int chunkSize) {
+    this(host, port, chunkSize, PayloadCompression.NONE);
+  }
+
+  public PlogClient(String host, int port, int chunkSize, PayloadCompression compression) {
     Preconditions.checkNotNull(host, "host cannot be null!");
+    Preconditions.checkNotNull(compression, "compression cannot be null!");
     Preconditions.checkArgument(port > 1024 && port < 65536, "Must provide a valid port number!");
     Preconditions.checkArgument(chunkSize < 65483, "Maximum Plog UDP data length is 65483 bytes!");
 
@@ -67,6 +80,7 @@ public class PlogClient implements Closeable {
     }
     this.port = port;
     this.chunkSize = chunkSize;
+    this.compression = compression;
     this.lastMessageId = new AtomicInteger(1);
   }
 
@@ -76,6 +90,14 @@ public class PlogClient implements Closeable {
   public void send(String message) {
     // ISO-8859-1 is ASCII-8bit. It's equivalent to ruby's BINARY encoding.
     byte[] messageBytes = message.getBytes(Charset.forName("ISO-8859-1"));
+    PayloadCompression messageCompression = PayloadCompression.NONE;
+    if (compression != PayloadCompression.NONE) {
+      byte[] compressed = compress(messageBytes, compression);
+      if (compressed.length < messageBytes.length) {
+        messageBytes = compressed;
+        messageCompression = compression;
+      }
+    }
     int messageId = lastMessageId.getAndIncrement();
     lastMessageId.compareAndSet(Integer.MAX_VALUE, 1);
     int messageLength = messageBytes.length;
@@ -91,6 +113,7 @@ public class PlogClient implements Closeable {
           chunkSize,
           count,
           i,
+          messageCompression.getId(),
           chunks.get(i)));
     }
   }
@@ -112,6 +135,18 @@ public class PlogClient implements Closeable {
     return checksum;
   }
 
+  @VisibleForTesting
+  static byte[] compress(byte[] messageBytes, PayloadCompression compression) {
+    ByteBuf compressed = compression.compress(UnpooledByteBufAllocator.DEFAULT, Unpooled.wrappedBuffer(messageBytes));
+    try {
+      byte[] bytes = new byte[compressed.readableBytes()];
+      compressed.getBytes(compressed.readerIndex(), bytes);
+      return bytes;
+    } finally {
+      compressed.release();
+    }
+  }
+
   @VisibleForTesting
   static List<byte[]> chunkMessage(byte[] messageBytes, int size) {
     final List<byte[]> chunks = new ArrayList<byte[]>();
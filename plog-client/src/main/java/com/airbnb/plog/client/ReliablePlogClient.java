@@ -0,0 +1,228 @@
+package com.airbnb.plog.client;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ## Reliable Plog client for Java
+ * Sends messages over TCP to a Plog listener with `framing = reliable`, and keeps them
+ * until Plog acknowledges their delivery (to Kafka, for instance). Example:
+ *
+ * ```java
+ * ReliablePlogClient plogClient = new ReliablePlogClient("127.0.0.1", 23456);
+ * plogClient.send("My hovercraft is full of eels.");
+ * plogClient.flush(10, TimeUnit.SECONDS);
+ * ```
+ *
+ * Delivery is at least once: when the connection breaks, messages without acknowledgement
+ * are sent again on the next connection, and may be duplicated.
+ *
+ * You can configure the client at initialization by passing these options:
+ *
+ * + host - The host of the Plog process (e.g., 'localhost')
+ * + port - The port on which Plog is listening (e.g., 23456)
+ * + maxInFlight - How many messages can wait for acknowledgement before `send` blocks (e.g., 10,000)
+ */
+@Slf4j
+public class ReliablePlogClient implements Closeable {
+
+  public static final int DEFAULT_MAX_IN_FLIGHT = 10000;
+
+  private final String host;
+
+  private final int port;
+
+  private final int maxInFlight;
+
+  // frames waiting for acknowledgement, in sequence order
+  private final ArrayDeque<Frame> inFlight = new ArrayDeque<Frame>();
+
+  private long nextSequence = 1;
+
+  private Socket socket;
+
+  private DataOutputStream out;
+
+  private boolean closed = false;
+
+  public ReliablePlogClient(String host, int port) {
+    this(host, port, DEFAULT_MAX_IN_FLIGHT);
+  }
+
+  public ReliablePlogClient(String host, int port, int maxInFlight) {
+    Preconditions.checkNotNull(host, "host cannot be null!");
+    Preconditions.checkArgument(port > 1024 && port < 65536, "Must provide a valid port number!");
+    Preconditions.checkArgument(maxInFlight > 0, "maxInFlight must be positive!");
+    this.host = host;
+    this.port = port;
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Send the message to Plog server, blocking while too many messages wait for acknowledgement.
+   */
+  public void send(String message) throws IOException, InterruptedException {
+    send(message.getBytes(Charsets.UTF_8), Collections.<String>emptyList());
+  }
+
+  /**
+   * Send the message to Plog server, with tags,
+   * blocking while too many messages wait for acknowledgement.
+   */
+  public synchronized void send(byte[] message, Collection<String> tags)
+      throws IOException, InterruptedException {
+    final byte[] tagBytes = Joiner.on('\0').join(tags).getBytes(Charsets.UTF_8);
+    Preconditions.checkArgument(tagBytes.length <= 0xffff, "Tags too long!");
+    while (inFlight.size() >= maxInFlight && !closed) {
+      if (out == null) {
+        connect();
+      }
+      wait();
+    }
+    Preconditions.checkState(!closed, "Client closed!");
+
+    final Frame frame = new Frame(nextSequence++, message, tagBytes);
+    inFlight.add(frame);
+    if (out == null) {
+      // the new connection sends all frames in flight
+      connect();
+    } else {
+      try {
+        out.write(frame.bytes);
+        out.flush();
+      } catch (IOException e) {
+        log.warn("Plog: connection to {}:{} lost, resending {} messages", host, port, inFlight.size(), e);
+        disconnect(socket);
+        connect();
+      }
+    }
+  }
+
+  /**
+   * Wait for all messages sent so far to be acknowledged, reconnecting as needed.
+   *
+   * @return false if some were still waiting after the timeout
+   */
+  public synchronized boolean flush(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (!inFlight.isEmpty()) {
+      if (out == null) {
+        connect();
+      }
+      final long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return false;
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+    }
+    return true;
+  }
+
+  /**
+   * @return number of messages waiting for acknowledgement
+   */
+  public synchronized int getInFlight() {
+    return inFlight.size();
+  }
+
+  private void connect() throws IOException {
+    final Socket newSocket = new Socket(host, port);
+    newSocket.setTcpNoDelay(true);
+    final DataOutputStream newOut = new DataOutputStream(new BufferedOutputStream(newSocket.getOutputStream()));
+    try {
+      for (Frame frame : inFlight) {
+        newOut.write(frame.bytes);
+      }
+      newOut.flush();
+    } catch (IOException e) {
+      newSocket.close();
+      throw e;
+    }
+
+    socket = newSocket;
+    out = newOut;
+    final Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        readAcknowledgements(newSocket);
+      }
+    }, "plog-acks-" + host + ":" + port);
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  private synchronized void disconnect(Socket brokenSocket) {
+    if (socket != brokenSocket) {
+      return;
+    }
+    try {
+      socket.close();
+    } catch (IOException e) {
+      log.debug("Plog: could not close socket", e);
+    }
+    socket = null;
+    out = null;
+    // waiting senders reconnect
+    notifyAll();
+  }
+
+  private void readAcknowledgements(Socket from) {
+    try {
+      final DataInputStream in = new DataInputStream(from.getInputStream());
+      while (true) {
+        final long acknowledged = in.readLong();
+        synchronized (this) {
+          while (!inFlight.isEmpty() && inFlight.peek().sequence <= acknowledged) {
+            inFlight.poll();
+          }
+          notifyAll();
+        }
+      }
+    } catch (EOFException e) {
+      log.debug("Plog: connection closed by {}:{}", host, port);
+    } catch (IOException e) {
+      log.debug("Plog: connection to {}:{} lost", host, port, e);
+    }
+    disconnect(from);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    notifyAll();
+    if (socket != null) {
+      disconnect(socket);
+    }
+  }
+
+  private static final class Frame {
+    private final long sequence;
+    private final byte[] bytes;
+
+    private Frame(long sequence, byte[] message, byte[] tags) {
+      this.sequence = sequence;
+      this.bytes = ByteBuffer.allocate(4 + 8 + 2 + tags.length + message.length)
+          .putInt(8 + 2 + tags.length + message.length)
+          .putLong(sequence)
+          .putShort((short) tags.length)
+          .put(tags)
+          .put(message)
+          .array();
+    }
+  }
+}
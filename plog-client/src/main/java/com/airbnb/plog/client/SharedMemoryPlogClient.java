@@ -0,0 +1,106 @@
+package com.airbnb.plog.client;
+
+import com.airbnb.plog.common.SharedMemoryRing;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * ## Shared memory Plog client for Java
+ * Appends messages to one of the rings of a Plog shared memory listener on the same host,
+ * without any system call. Example:
+ *
+ * ```java
+ * SharedMemoryPlogClient plogClient = new SharedMemoryPlogClient(new File("/dev/shm/plog"));
+ * plogClient.send("My hovercraft is full of eels.");
+ * ```
+ *
+ * The client locks the first ring nobody else writes to, until closed.
+ * Plog replaces its rings when it restarts, clients should then be reopened.
+ */
+@Slf4j
+public class SharedMemoryPlogClient implements Closeable {
+
+  private final RandomAccessFile file;
+
+  private final FileLock lock;
+
+  private final SharedMemoryRing ring;
+
+  public SharedMemoryPlogClient(File directory) throws IOException {
+    Preconditions.checkNotNull(directory, "directory cannot be null!");
+    final File[] candidates = directory.listFiles();
+    Preconditions.checkArgument(candidates != null, "%s is not a directory!", directory);
+    Arrays.sort(candidates);
+
+    RandomAccessFile lockedFile = null;
+    FileLock lockedRing = null;
+    for (File candidate : candidates) {
+      if (!candidate.getName().startsWith("ring-")) {
+        continue;
+      }
+
+      final RandomAccessFile raf = new RandomAccessFile(candidate, "rw");
+      lockedRing = tryLock(raf.getChannel());
+      if (lockedRing != null) {
+        log.debug("Plog: writing to {}", candidate);
+        lockedFile = raf;
+        break;
+      }
+      raf.close();
+    }
+
+    if (lockedFile == null) {
+      throw new IOException("No ring available in " + directory);
+    }
+    this.file = lockedFile;
+    this.lock = lockedRing;
+    this.ring = SharedMemoryRing.open(lockedFile.getChannel());
+  }
+
+  private static FileLock tryLock(FileChannel channel) throws IOException {
+    try {
+      return channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      // another client of this process
+      return null;
+    }
+  }
+
+  /**
+   * Send the message to Plog server.
+   *
+   * @return false if the ring was full, and the message dropped
+   */
+  public boolean send(String message) {
+    return send(message.getBytes(Charsets.UTF_8), Collections.<String>emptyList());
+  }
+
+  /**
+   * Send the message to Plog server, with tags.
+   *
+   * @return false if the ring was full, and the message dropped
+   */
+  public synchronized boolean send(byte[] message, Collection<String> tags) {
+    final byte[] tagBytes = Joiner.on('\0').join(tags).getBytes(Charsets.UTF_8);
+    return ring.offer(message, tagBytes);
+  }
+
+  @Override
+  public void close() throws IOException {
+    lock.release();
+    file.close();
+  }
+}
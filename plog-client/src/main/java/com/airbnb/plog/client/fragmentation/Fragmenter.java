@@ -2,30 +2,58 @@ package com.airbnb.plog.client.fragmentation;
 
 import com.airbnb.plog.Message;
 import com.airbnb.plog.common.Murmur3;
+import com.airbnb.plog.common.PayloadCompression;
 import com.google.common.base.Charsets;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import lombok.extern.slf4j.Slf4j;
 
-import java.nio.ByteOrder;
 import java.util.Collection;
 
 @Slf4j
 public final class Fragmenter {
     public static final byte[] UDP_V0_FRAGMENT_PREFIX = new byte[]{0, 1};
+    public static final byte[] UDP_V0_PARITY_PREFIX = new byte[]{0, 3};
     private static final int HEADER_SIZE = 24;
     private final int maxFragmentSizeExcludingHeader;
+    private final PayloadCompression compression;
+    private final int parityGroupSize;
 
     public Fragmenter(int maxFragmentSize) {
+        this(maxFragmentSize, PayloadCompression.NONE);
+    }
+
+    /**
+     * @param compression applied to payloads hashed by the fragmenter, when it makes them smaller
+     */
+    public Fragmenter(int maxFragmentSize, PayloadCompression compression) {
+        this(maxFragmentSize, compression, 0);
+    }
+
+    /**
+     * @param parityGroupSize number of fragments covered by each XOR parity fragment,
+     *                        sent after those of messages of 2 fragments or more (0 for none).
+     *                        The server rebuilds one lost fragment per group.
+     */
+    public Fragmenter(int maxFragmentSize, PayloadCompression compression, int parityGroupSize) {
+        this.compression = compression;
         maxFragmentSizeExcludingHeader = maxFragmentSize - HEADER_SIZE;
         if (maxFragmentSizeExcludingHeader < 1) {
             throw new IllegalArgumentException("Fragment size < " + (HEADER_SIZE + 1));
         }
+        if (parityGroupSize < 0 || parityGroupSize > 0xffff) {
+            throw new IllegalArgumentException("Invalid parity group size " + parityGroupSize);
+        }
+        this.parityGroupSize = parityGroupSize;
     }
 
-    private static void writeHeader(int messageIndex, int fragmentLength, int tagsBufferLength, int messageLength, int hash, int fragmentCount, int fragmentIdx, ByteBuf fragment) {
-        fragment.writeBytes(UDP_V0_FRAGMENT_PREFIX);
+    private static void writeHeader(int messageIndex, int fragmentLength, int tagsBufferLength, int messageLength, int hash, int compression, int fragmentCount, int fragmentIdx, ByteBuf fragment) {
+        writeHeader(UDP_V0_FRAGMENT_PREFIX, messageIndex, fragmentLength, tagsBufferLength, messageLength, hash, compression, fragmentCount, fragmentIdx, fragment);
+    }
+
+    private static void writeHeader(byte[] prefix, int messageIndex, int fragmentLength, int tagsBufferLength, int messageLength, int hash, int compression, int fragmentCount, int fragmentIdx, ByteBuf fragment) {
+        fragment.writeBytes(prefix);
         fragment.writeShort(fragmentCount);
         fragment.writeShort(fragmentIdx);
         fragment.writeShort(fragmentLength);
@@ -33,16 +61,27 @@ public final class Fragmenter {
         fragment.writeInt(messageLength);
         fragment.writeInt(hash);
         fragment.writeShort(tagsBufferLength);
-        fragment.writeZero(2);
+        fragment.writeShort(compression);
     }
 
     public ByteBuf[] fragment(ByteBufAllocator alloc, byte[] payload, Collection<String> tags, int messageIndex) {
-        final ByteBuf buf = Unpooled.wrappedBuffer(payload);
-        final int hash = Murmur3.hash32(buf, 0, payload.length);
-        return fragment(alloc, buf, tags, messageIndex, payload.length, hash);
+        return fragment(alloc, Unpooled.wrappedBuffer(payload), tags, messageIndex);
     }
 
     public ByteBuf[] fragment(ByteBufAllocator alloc, ByteBuf payload, Collection<String> tags, int messageIndex) {
+        if (compression != PayloadCompression.NONE) {
+            final ByteBuf compressed = compression.compress(alloc, payload);
+            try {
+                if (compressed.readableBytes() < payload.readableBytes()) {
+                    final int length = compressed.readableBytes();
+                    final int hash = Murmur3.hash32(compressed, compressed.readerIndex(), length);
+                    return fragment(alloc, compressed, tags, messageIndex, length, hash, compression);
+                }
+            } finally {
+                compressed.release();
+            }
+        }
+
         final int length = payload.readableBytes();
         final int hash = Murmur3.hash32(payload, 0, length);
         return fragment(alloc, payload, tags, messageIndex, length, hash);
@@ -52,7 +91,14 @@ public final class Fragmenter {
         return fragment(alloc, msg.content(), msg.getTags(), messageIndex);
     }
 
+    /**
+     * @param hash of the payload, sent uncompressed
+     */
     public ByteBuf[] fragment(ByteBufAllocator alloc, ByteBuf payload, Collection<String> tags, int messageIndex, int length, int hash) {
+        return fragment(alloc, payload, tags, messageIndex, length, hash, PayloadCompression.NONE);
+    }
+
+    private ByteBuf[] fragment(ByteBufAllocator alloc, ByteBuf payload, Collection<String> tags, int messageIndex, int length, int hash, PayloadCompression payloadCompression) {
         final byte[][] tagBytes;
 
         int tagsBufferLength = 0;
@@ -86,23 +132,25 @@ public final class Fragmenter {
                 ((long) length + tagsBufferLength + maxFragmentSizeExcludingHeader - 1)
                         / maxFragmentSizeExcludingHeader);
 
-        final ByteBuf[] fragments = new ByteBuf[fragmentCount];
+        final int parityCount = (parityGroupSize == 0 || fragmentCount == 1) ? 0 :
+                (fragmentCount + parityGroupSize - 1) / parityGroupSize;
+        final ByteBuf[] fragments = new ByteBuf[fragmentCount + parityCount];
 
         // All packets but the last are easy
         int contentIdx, fragmentIdx;
         for (contentIdx = 0, fragmentIdx = 0; fragmentIdx < fragmentCount - 1;
              fragmentIdx++, contentIdx += maxFragmentSizeExcludingHeader) {
             final ByteBuf fragment = alloc.buffer(HEADER_SIZE + maxFragmentSizeExcludingHeader,
-                    HEADER_SIZE + maxFragmentSizeExcludingHeader).order(ByteOrder.BIG_ENDIAN);
-            writeHeader(messageIndex, maxFragmentSizeExcludingHeader, 0, length, hash, fragmentCount, fragmentIdx, fragment);
+                    HEADER_SIZE + maxFragmentSizeExcludingHeader);
+            writeHeader(messageIndex, maxFragmentSizeExcludingHeader, 0, length, hash, payloadCompression.getId(), fragmentCount, fragmentIdx, fragment);
             fragment.writeBytes(payload, contentIdx, maxFragmentSizeExcludingHeader);
             fragments[fragmentIdx] = fragment;
         }
 
         final int lastPayloadLength = length - (maxFragmentSizeExcludingHeader * (fragmentCount - 1));
         final ByteBuf finalFragment = alloc.buffer(HEADER_SIZE + tagsBufferLength + lastPayloadLength,
-                HEADER_SIZE + tagsBufferLength + lastPayloadLength).order(ByteOrder.BIG_ENDIAN);
-        writeHeader(messageIndex, maxFragmentSizeExcludingHeader, tagsBufferLength, length, hash, fragmentCount, fragmentIdx, finalFragment);
+                HEADER_SIZE + tagsBufferLength + lastPayloadLength);
+        writeHeader(messageIndex, maxFragmentSizeExcludingHeader, tagsBufferLength, length, hash, payloadCompression.getId(), fragmentCount, fragmentIdx, finalFragment);
 
         if (tagsCount > 0) {
             finalFragment.setShort(20, tagsBufferLength); // tags buffer length
@@ -115,6 +163,33 @@ public final class Fragmenter {
         finalFragment.writeBytes(payload, contentIdx, lastPayloadLength);
         fragments[fragmentCount - 1] = finalFragment;
 
+        for (int group = 0; group < parityCount; group++) {
+            final int first = group * parityGroupSize;
+            final int last = Math.min(first + parityGroupSize, fragmentCount);
+            final ByteBuf parity = alloc.buffer(HEADER_SIZE + maxFragmentSizeExcludingHeader,
+                    HEADER_SIZE + maxFragmentSizeExcludingHeader);
+            writeHeader(UDP_V0_PARITY_PREFIX, messageIndex, parityGroupSize, tagsBufferLength, length, hash, payloadCompression.getId(), fragmentCount, group, parity);
+            parity.writeZero(maxFragmentSizeExcludingHeader);
+            for (int idx = first; idx < last; idx++) {
+                xorBody(fragments[idx], parity);
+            }
+            fragments[fragmentCount + group] = parity;
+        }
+
         return fragments;
     }
+
+    /**
+     * XORs the body of a fragment (tags and payload, after its header) into that of the parity fragment.
+     */
+    private static void xorBody(ByteBuf fragment, ByteBuf parity) {
+        final int length = fragment.writerIndex() - HEADER_SIZE;
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            parity.setLong(HEADER_SIZE + i, parity.getLong(HEADER_SIZE + i) ^ fragment.getLong(HEADER_SIZE + i));
+        }
+        for (; i < length; i++) {
+            parity.setByte(HEADER_SIZE + i, parity.getByte(HEADER_SIZE + i) ^ fragment.getByte(HEADER_SIZE + i));
+        }
+    }
 }
@@ -0,0 +1,78 @@
+package com.airbnb.plog.client
+
+import com.airbnb.plog.handlers.MessageQueueProvider
+import com.airbnb.plog.server.listeners.UDPListener
+import com.typesafe.config.ConfigFactory
+import groovy.json.JsonSlurper
+
+class PackingPlogClientTest extends GroovyTestCase {
+    private static final int PORT = 23460
+    private static final refConfig = ConfigFactory.defaultReference().getConfig('plog.server')
+
+    private static UDPListener startListener() {
+        final config = ConfigFactory.parseMap([port    : PORT,
+                                               handlers: [[provider: 'com.airbnb.plog.handlers.MessageQueueProvider']]])
+                .withFallback(refConfig.getConfig('udp.defaults'))
+                .withFallback(refConfig.getConfig('defaults'))
+        final listener = new UDPListener(config)
+        listener.startAsync().awaitRunning()
+        listener
+    }
+
+    private static Map<String, List<String>> receive(int count) {
+        final received = [:]
+        final deadline = System.currentTimeMillis() + 5000
+        while (received.size() < count && System.currentTimeMillis() < deadline) {
+            final message = MessageQueueProvider.queue.poll()
+            if (message == null) {
+                Thread.sleep(10)
+                continue
+            }
+            received[new String(message.asBytes())] = message.tags as List
+            message.release()
+        }
+        received
+    }
+
+    void testPacksUntilFull() {
+        final listener = startListener()
+        // room for the packet header and two 10-byte messages without tags
+        final client = new PackingPlogClient('127.0.0.1', PORT, 2 + 2 * 14, 60000)
+
+        for (i in 0..<5)
+            client.send("message_$i")
+        // the fifth waits for a flush
+        assert receive(4).keySet() == (0..<4).collect { "message_$it" } as Set
+        client.flush()
+        assert receive(1).keySet() == ['message_4'] as Set
+
+        final stats = new JsonSlurper().parseText(listener.stats.toJSON())
+        assert stats['v0_packed_messages'] == 5
+        assert stats['v0_messages_per_packed'][0..1] == [1, 2]
+        assert stats['v0_invalid_packed'] == 0
+
+        client.close()
+        listener.stopAsync().awaitTerminated()
+    }
+
+    void testFlushesAfterDelay() {
+        final listener = startListener()
+        final client = new PackingPlogClient('127.0.0.1', PORT, PackingPlogClient.DEFAULT_MAX_PACKET_SIZE, 20)
+
+        client.send('hello')
+        client.send('world'.bytes, ['kt:topic', 'pk:key'])
+        assert receive(2) == [hello: [], world: ['kt:topic', 'pk:key']]
+
+        client.close()
+        listener.stopAsync().awaitTerminated()
+    }
+
+    void testRejectsMessagesOverPacket() {
+        final client = new PackingPlogClient('127.0.0.1', PORT, 100, 10)
+        shouldFail(IllegalArgumentException) {
+            client.send(new byte[95], [])
+        }
+        client.send(new byte[94], [])
+        client.close()
+    }
+}
@@ -0,0 +1,65 @@
+package com.airbnb.plog.client
+
+import com.airbnb.plog.handlers.MessageQueueProvider
+import com.airbnb.plog.server.listeners.TCPListener
+import com.typesafe.config.ConfigFactory
+import groovy.json.JsonSlurper
+
+import java.util.concurrent.TimeUnit
+
+class ReliablePlogClientTest extends GroovyTestCase {
+    private static final int PORT = 23458
+    private static final refConfig = ConfigFactory.defaultReference().getConfig('plog.server')
+
+    private static TCPListener startListener() {
+        final config = ConfigFactory.parseMap([port    : PORT,
+                                               framing : 'reliable',
+                                               reliable: [ack_frames: 2],
+                                               handlers: [[provider: 'com.airbnb.plog.handlers.MessageQueueProvider']]])
+                .withFallback(refConfig.getConfig('tcp.defaults'))
+                .withFallback(refConfig.getConfig('defaults'))
+        final listener = new TCPListener(config)
+        listener.startAsync().awaitRunning()
+        listener
+    }
+
+    private static Map<String, List<String>> drainQueue() {
+        final received = [:]
+        def message
+        while ((message = MessageQueueProvider.queue.poll()) != null) {
+            received[new String(message.asBytes())] = message.tags as List
+            message.release()
+        }
+        received
+    }
+
+    void testSendThroughListener() {
+        final listener = startListener()
+        final client = new ReliablePlogClient('127.0.0.1', PORT, 2)
+
+        client.send('hello')
+        client.send('world'.bytes, ['kt:topic'])
+        client.send('!')
+        assert client.flush(5, TimeUnit.SECONDS)
+        assert client.inFlight == 0
+        assert drainQueue() == [hello: [], world: ['kt:topic'], '!': []]
+        assert new JsonSlurper().parseText(listener.stats.toJSON())['reliable_acknowledged_frames'] == 3
+
+        client.close()
+        listener.stopAsync().awaitTerminated()
+    }
+
+    void testResendsAfterReconnection() {
+        final client = new ReliablePlogClient('127.0.0.1', PORT)
+        shouldFail(IOException) { client.send('lost?') }
+        assert client.inFlight == 1
+
+        final listener = startListener()
+        client.send('found')
+        assert client.flush(5, TimeUnit.SECONDS)
+        assert drainQueue().keySet() == ['lost?', 'found'] as Set
+
+        client.close()
+        listener.stopAsync().awaitTerminated()
+    }
+}
@@ -0,0 +1,48 @@
+package com.airbnb.plog.client
+
+import com.airbnb.plog.handlers.MessageQueueProvider
+import com.airbnb.plog.server.listeners.SharedMemoryListener
+import com.google.common.io.Files
+import com.typesafe.config.ConfigFactory
+
+class SharedMemoryPlogClientTest extends GroovyTestCase {
+    private static final refConfig = ConfigFactory.defaultReference().getConfig('plog.server')
+
+    void testSendThroughListener() {
+        final directory = Files.createTempDir()
+        final config = ConfigFactory.parseMap([directory: directory.path,
+                                               rings    : 2,
+                                               capacity : '64K',
+                                               handlers : [[provider: 'com.airbnb.plog.handlers.MessageQueueProvider']]])
+                .withFallback(refConfig.getConfig('shm.defaults'))
+                .withFallback(refConfig.getConfig('defaults'))
+        final listener = new SharedMemoryListener(config)
+        listener.startAsync().awaitRunning()
+
+        final first = new SharedMemoryPlogClient(directory)
+        final second = new SharedMemoryPlogClient(directory)
+        shouldFail(IOException) { new SharedMemoryPlogClient(directory) }
+
+        assert first.send('hello')
+        assert second.send('world'.bytes, ['kt:topic'])
+
+        final received = [:]
+        final start = System.currentTimeMillis()
+        while (received.size() < 2 && System.currentTimeMillis() - start < 5000) {
+            final message = MessageQueueProvider.queue.poll()
+            if (message == null) {
+                Thread.sleep(10)
+            } else {
+                received[new String(message.asBytes())] = message.tags
+                message.release()
+            }
+        }
+        assert received == [hello: [], world: ['kt:topic']]
+
+        first.close()
+        second.close()
+        listener.stopAsync().awaitTerminated()
+        assert directory.listFiles().length == 0
+        directory.delete()
+    }
+}
@@ -1,10 +1,14 @@
 package com.airbnb.plog.client.fragmentation
 
 import com.airbnb.plog.Message
+import com.airbnb.plog.common.PayloadCompression
 import com.airbnb.plog.server.fragmentation.Defragmenter
+import com.airbnb.plog.server.pipeline.ByteBufs
 import com.airbnb.plog.server.pipeline.ProtocolDecoder
 import com.airbnb.plog.server.stats.SimpleStatisticsReporter
 import com.typesafe.config.ConfigFactory
+import com.typesafe.config.ConfigValueFactory
+import groovy.json.JsonSlurper
 import io.netty.buffer.ByteBufAllocator
 import io.netty.channel.embedded.EmbeddedChannel
 import io.netty.channel.socket.DatagramPacket
@@ -54,4 +58,112 @@ class FragmenterTest extends GroovyTestCase {
             }
         }
     }
+
+    @Test
+    public void testCompressed() throws Exception {
+        final payload = (('a'..'z').join() * 1000).bytes
+        for (compression in [PayloadCompression.SNAPPY, PayloadCompression.LZ4]) {
+            final fragments = new Fragmenter(1000, compression).fragment(ByteBufAllocator.DEFAULT, payload, ['foo'], 0)
+            assert fragments.length < 3
+
+            for (fragment in fragments) {
+                serverChannel.writeInbound(new DatagramPacket(fragment, socket, socket))
+            }
+
+            final msg = (Message) serverChannel.readInbound()
+            assert msg.asBytes() == payload
+            assert msg.tags == ['foo']
+            msg.release()
+        }
+    }
+
+    @Test
+    public void testForwardsCompressedWithCompression() throws Exception {
+        final config = defragConfig.withValue('decompress', ConfigValueFactory.fromAnyRef(false))
+        final channel = new EmbeddedChannel(new ProtocolDecoder(statsReporter, new Defragmenter(statsReporter, config)))
+        final fragmenter = new Fragmenter(1000, PayloadCompression.LZ4)
+
+        final compressible = (('a'..'z').join() * 1000).bytes
+        for (fragment in fragmenter.fragment(ByteBufAllocator.DEFAULT, compressible, null, 0))
+            channel.writeInbound(new DatagramPacket(fragment, socket, socket))
+        final compressed = (Message) channel.readInbound()
+        assert compressed.compression == PayloadCompression.LZ4.id
+        final decompressed = PayloadCompression.LZ4.decompress(ByteBufAllocator.DEFAULT, compressed.content(), compressible.length)
+        assert ByteBufs.toByteArray(decompressed) == compressible
+        decompressed.release()
+        compressed.release()
+
+        final incompressible = new byte[100]
+        new Random(42).nextBytes(incompressible)
+        channel.writeInbound(new DatagramPacket(fragmenter.fragment(ByteBufAllocator.DEFAULT, incompressible, null, 1)[0], socket, socket))
+        final plain = (Message) channel.readInbound()
+        assert plain.compression == PayloadCompression.NONE.id
+        assert plain.asBytes() == incompressible
+        plain.release()
+    }
+
+    @Test
+    public void testIncompressibleSentAsIs() throws Exception {
+        final payload = new byte[100]
+        new Random(42).nextBytes(payload)
+        final fragments = new Fragmenter(1000, PayloadCompression.SNAPPY).fragment(ByteBufAllocator.DEFAULT, payload, null, 0)
+        assert fragments[0].getShort(22) == 0
+        serverChannel.writeInbound(new DatagramPacket(fragments[0], socket, socket))
+        final msg = (Message) serverChannel.readInbound()
+        assert msg.asBytes() == payload
+        msg.release()
+    }
+
+    @Test
+    public void testRecoversFromParity() throws Exception {
+        checkRecoversFromParity(false)
+    }
+
+    @Test
+    public void testRecoversFromParityWithoutCopies() throws Exception {
+        checkRecoversFromParity(true)
+    }
+
+    private void checkRecoversFromParity(boolean zeroCopy) {
+        final stats = new SimpleStatisticsReporter()
+        final config = defragConfig.withValue('zero_copy', ConfigValueFactory.fromAnyRef(zeroCopy))
+        final channel = new EmbeddedChannel(new ProtocolDecoder(stats, new Defragmenter(stats, config)))
+        final payload = BYTES[0..204].toArray() as byte[]
+        final tags = ['kt:foo', 'pk:bar']
+        // 20-byte bodies: 11 fragments, the last with tags and 5 bytes of payload,
+        // then 4 parity fragments for groups of 3
+        final fragmenter = new Fragmenter(44, PayloadCompression.NONE, 3)
+
+        int messageIndex = 0
+        for (lost in [[], [0], [5], [9], [10], [0, 3, 10]]) {
+            final fragments = fragmenter.fragment(ByteBufAllocator.DEFAULT, payload, tags, messageIndex++)
+            assert fragments.length == 15
+            fragments.eachWithIndex { fragment, idx ->
+                if (idx in lost)
+                    fragment.release()
+                else
+                    channel.writeInbound(new DatagramPacket(fragment, socket, socket))
+            }
+
+            final msg = (Message) channel.readInbound()
+            assert msg.asBytes() == payload
+            assert msg.tags == tags
+            msg.release()
+        }
+        final json = new JsonSlurper().parseText(stats.toJSON())
+        assert json['v0_parity_fragments'] == 6 * 4
+        assert json['v0_recovered_fragments'] == 1 + 1 + 1 + 1 + 3
+        assert json['v0_invalid_parity'] == 0
+
+        // 2 lost in the same group
+        final fragments = fragmenter.fragment(ByteBufAllocator.DEFAULT, payload, tags, messageIndex)
+        fragments.eachWithIndex { fragment, idx ->
+            if (idx in [3, 4])
+                fragment.release()
+            else
+                channel.writeInbound(new DatagramPacket(fragment, socket, socket))
+        }
+        assert channel.readInbound() == null
+        channel.finishAndReleaseAll()
+    }
 }
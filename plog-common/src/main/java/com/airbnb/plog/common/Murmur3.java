@@ -1,10 +1,9 @@
 package com.airbnb.plog.common;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import lombok.extern.slf4j.Slf4j;
 
-import java.nio.ByteOrder;
-
 @Slf4j
 public final class Murmur3 {
     private static final int C1 = 0xcc9e2d51;
@@ -18,9 +17,10 @@ public final class Murmur3 {
         return hash32(data, offset, length, 0);
     }
 
-    @SuppressWarnings("OverlyLongMethod")
     public static int hash32(ByteBuf data, final int offset, final int length, final int seed) {
-        final ByteBuf ordered = data.order(ByteOrder.LITTLE_ENDIAN);
+        if (data instanceof CompositeByteBuf) {
+            return hash32((CompositeByteBuf) data, offset, length, seed);
+        }
 
         int h = seed;
 
@@ -28,39 +28,66 @@ public final class Murmur3 {
         final int end4 = offset + (len4 << 2);
 
         for (int i = offset; i < end4; i += 4) {
-            int k = ordered.getInt(i);
-
-            k *= C1;
-            k = k << 15 | k >>> 17;
-            k *= C2;
-
-            h ^= k;
-            h = h << 13 | h >>> 19;
-            h = h * 5 + 0xe6546b64;
+            // little-endian reads, without the swapped view order() allocates
+            h = mixBlock(h, data.getIntLE(i));
         }
 
         int k = 0;
         switch (length & 3) {
             case 3:
-                k = (ordered.getByte(end4 + 2) & 0xff) << 16;
+                k = (data.getByte(end4 + 2) & 0xff) << 16;
             case 2:
-                k |= (ordered.getByte(end4 + 1) & 0xff) << 8;
+                k |= (data.getByte(end4 + 1) & 0xff) << 8;
             case 1:
-                k |= ordered.getByte(end4) & 0xff;
+                k |= data.getByte(end4) & 0xff;
+                h = mixTail(h, k);
+        }
+
+        return finish(h, length);
+    }
 
-                k *= C1;
-                k = (k << 15) | (k >>> 17);
-                k *= C2;
-                h ^= k;
+    /**
+     * Reads each component in place rather than looking up the component of every block.
+     */
+    private static int hash32(CompositeByteBuf data, final int offset, final int length, final int seed) {
+        final Murmur3Hasher hasher = new Murmur3Hasher(seed);
+        if (length == 0) {
+            return hasher.hash();
         }
 
+        int remaining = length;
+        int cIndex = data.toComponentIndex(offset);
+        int from = offset - data.toByteIndex(cIndex);
+        while (remaining > 0) {
+            final ByteBuf component = data.internalComponent(cIndex++);
+            final int componentLength = Math.min(component.capacity() - from, remaining);
+            hasher.update(component, from, componentLength);
+            remaining -= componentLength;
+            from = 0;
+        }
+        return hasher.hash();
+    }
+
+    static int mixBlock(int h, int k) {
+        h = mixTail(h, k);
+        h = h << 13 | h >>> 19;
+        return h * 5 + 0xe6546b64;
+    }
+
+    static int mixTail(int h, int k) {
+        k *= C1;
+        k = k << 15 | k >>> 17;
+        k *= C2;
+        return h ^ k;
+    }
+
+    static int finish(int h, int length) {
         h ^= length;
         h ^= h >>> 16;
         h *= 0x85ebca6b;
         h ^= h >>> 13;
         h *= 0xc2b2ae35;
         h ^= h >>> 16;
-
         return h;
     }
 }
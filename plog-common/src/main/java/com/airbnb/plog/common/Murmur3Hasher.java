@@ -0,0 +1,65 @@
+package com.airbnb.plog.common;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Streaming state of {@link Murmur3#hash32}: data can be fed in any number of pieces,
+ * of any length, and hashes as if it were contiguous.
+ * Not thread-safe.
+ */
+public final class Murmur3Hasher {
+    private int h;
+    // little-endian bytes of a block started in previous pieces
+    private int carry = 0;
+    private int carried = 0;
+    private int length = 0;
+
+    public Murmur3Hasher() {
+        this(0);
+    }
+
+    public Murmur3Hasher(int seed) {
+        this.h = seed;
+    }
+
+    /**
+     * Feeds the readable bytes of {@code data}, which is left untouched.
+     */
+    public Murmur3Hasher update(ByteBuf data) {
+        return update(data, data.readerIndex(), data.readableBytes());
+    }
+
+    public Murmur3Hasher update(ByteBuf data, int offset, int length) {
+        this.length += length;
+        int from = offset;
+        final int until = offset + length;
+
+        while (carried > 0 && from < until) {
+            carry |= (data.getByte(from++) & 0xff) << (carried++ << 3);
+            if (carried == 4) {
+                h = Murmur3.mixBlock(h, carry);
+                carry = 0;
+                carried = 0;
+            }
+        }
+        for (; from + 4 <= until; from += 4) {
+            h = Murmur3.mixBlock(h, data.getIntLE(from));
+        }
+        while (from < until) {
+            carry |= (data.getByte(from++) & 0xff) << (carried++ << 3);
+        }
+        return this;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the hash of everything fed so far, which can still be fed more
+     */
+    public int hash() {
+        final int tail = carried > 0 ? Murmur3.mixTail(h, carry) : h;
+        return Murmur3.finish(tail, length);
+    }
+}
@@ -0,0 +1,138 @@
+package com.airbnb.plog.common;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.compression.CompressionException;
+import io.netty.handler.codec.compression.DecompressionException;
+import lombok.Getter;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+
+/**
+ * Compression of v0 multipart message payloads, identified by bytes 22-23 of their header.
+ * Checksums and lengths in headers are those of the compressed payload.
+ */
+public enum PayloadCompression {
+    NONE(0) {
+        @Override
+        public ByteBuf compress(ByteBufAllocator alloc, ByteBuf payload) {
+            return payload.retainedSlice();
+        }
+
+        @Override
+        public ByteBuf decompress(ByteBufAllocator alloc, ByteBuf payload, int maxLength) {
+            return payload.retainedSlice();
+        }
+    },
+    /**
+     * Raw Snappy format (no framing), which starts with the varint-encoded decompressed length.
+     */
+    SNAPPY(1) {
+        @Override
+        public ByteBuf compress(ByteBufAllocator alloc, ByteBuf payload) {
+            try {
+                final byte[] compressed = Snappy.compress(toByteArray(payload));
+                return alloc.buffer(compressed.length, compressed.length).writeBytes(compressed);
+            } catch (IOException e) {
+                throw new CompressionException(e);
+            }
+        }
+
+        @Override
+        public ByteBuf decompress(ByteBufAllocator alloc, ByteBuf payload, int maxLength) {
+            final byte[] compressed = toByteArray(payload);
+            try {
+                final int length = Snappy.uncompressedLength(compressed);
+                if (length < 0 || length > maxLength) {
+                    throw new DecompressionException("Decompressed length " + length + " over " + maxLength);
+                }
+                final byte[] decompressed = new byte[length];
+                // native Snappy validates its input
+                Snappy.uncompress(compressed, 0, compressed.length, decompressed, 0);
+                return alloc.buffer(length, length).writeBytes(decompressed);
+            } catch (IOException e) {
+                throw new DecompressionException(e);
+            }
+        }
+    },
+    /**
+     * Big-endian 32-bit decompressed length, then an LZ4 block.
+     */
+    LZ4(2) {
+        @Override
+        public ByteBuf compress(ByteBufAllocator alloc, ByteBuf payload) {
+            final int length = payload.readableBytes();
+            final byte[] block = LZ4_FACTORY.fastCompressor().compress(toByteArray(payload));
+            return alloc.buffer(4 + block.length, 4 + block.length)
+                    .writeInt(length)
+                    .writeBytes(block);
+        }
+
+        @Override
+        public ByteBuf decompress(ByteBufAllocator alloc, ByteBuf payload, int maxLength) {
+            if (payload.readableBytes() < 4) {
+                throw new DecompressionException("LZ4 payload too short");
+            }
+            final int length = payload.getInt(payload.readerIndex());
+            if (length < 0 || length > maxLength) {
+                throw new DecompressionException("Decompressed length " + length + " over " + maxLength);
+            }
+            final byte[] block = new byte[payload.readableBytes() - 4];
+            payload.getBytes(payload.readerIndex() + 4, block);
+            final byte[] decompressed = new byte[length];
+            try {
+                // the safe decompressor never reads nor writes out of bounds on corrupted input
+                final int decompressedLength = LZ4_FACTORY.safeDecompressor()
+                        .decompress(block, 0, block.length, decompressed, 0, length);
+                if (decompressedLength != length) {
+                    throw new DecompressionException("Decompressed " + decompressedLength +
+                            " bytes instead of " + length);
+                }
+            } catch (LZ4Exception e) {
+                throw new DecompressionException(e);
+            }
+            return alloc.buffer(length, length).writeBytes(decompressed);
+        }
+    };
+
+    private static final LZ4Factory LZ4_FACTORY = LZ4Factory.fastestInstance();
+
+    @Getter
+    private final int id;
+
+    PayloadCompression(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @throws IllegalArgumentException for unknown IDs
+     */
+    public static PayloadCompression fromId(int id) {
+        for (PayloadCompression compression : values()) {
+            if (compression.id == id) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression " + id);
+    }
+
+    private static byte[] toByteArray(ByteBuf payload) {
+        final byte[] bytes = new byte[payload.readableBytes()];
+        payload.getBytes(payload.readerIndex(), bytes);
+        return bytes;
+    }
+
+    /**
+     * @return a new buffer with the readable bytes of {@code payload} compressed, which is left untouched
+     */
+    public abstract ByteBuf compress(ByteBufAllocator alloc, ByteBuf payload);
+
+    /**
+     * @return a new buffer with the readable bytes of {@code payload} decompressed, which is left untouched
+     * @throws DecompressionException if the payload is corrupted or would decompress over {@code maxLength} bytes
+     */
+    public abstract ByteBuf decompress(ByteBufAllocator alloc, ByteBuf payload, int maxLength);
+}
@@ -0,0 +1,225 @@
+package com.airbnb.plog.common;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.internal.PlatformDependent;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Ring of framed messages in a memory-mapped file, for processes of a same host
+ * to hand messages over without system calls (put it under /dev/shm).
+ * <p>
+ * One producer and one consumer at a time: writers are expected to lock the file.
+ * <p>
+ * Layout: a 4KiB header, then the data area (a power of 2 in bytes).
+ * The consumer position, the producer position and the overrun count sit on their own cache lines;
+ * they are published with ordered writes and read with volatile reads, so that records
+ * are fully written before they are visible, and fully read before their space is reused.
+ * Positions are ints that wrap around, only their differences matter.
+ * <p>
+ * Records are 8-byte aligned: int record length, unsigned short tags length,
+ * tags ({@code \0}-separated UTF-8 strings), payload.
+ * A record length of -1 pads the end of the data area, the next record starts at its beginning.
+ */
+@Slf4j
+public final class SharedMemoryRing {
+    static final int HEADER_SIZE = 4096;
+    private static final int MAGIC = 0x706c6f67; // "plog"
+    private static final int VERSION = 1;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int HEAD_OFFSET = 64;
+    private static final int TAIL_OFFSET = 128;
+    private static final int OVERRUNS_OFFSET = 192;
+
+    private static final int RECORD_HEADER_SIZE = 6;
+    private static final int ALIGNMENT = 8;
+    private static final int PADDING = -1;
+
+    private final long address;
+    private final ByteBuf data;
+    @Getter
+    private final int capacity;
+    private final int mask;
+
+    // only meaningful on the consumer side and the producer side respectively
+    private int head;
+    private int tail;
+
+    private SharedMemoryRing(MappedByteBuffer buffer) {
+        if (!PlatformDependent.hasUnsafe()) {
+            throw new IllegalStateException("Shared memory rings require sun.misc.Unsafe");
+        }
+
+        this.address = PlatformDependent.directBufferAddress(buffer);
+        if (PlatformDependent.getIntVolatile(address + MAGIC_OFFSET) != MAGIC ||
+                buffer.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IllegalArgumentException("Not a plog ring (version " + VERSION + ")");
+        }
+
+        this.capacity = buffer.getInt(CAPACITY_OFFSET);
+        if (Integer.bitCount(capacity) != 1 || HEADER_SIZE + (long) capacity > buffer.capacity()) {
+            throw new IllegalArgumentException("Invalid ring capacity " + capacity);
+        }
+        this.mask = capacity - 1;
+
+        buffer.position(HEADER_SIZE);
+        this.data = Unpooled.wrappedBuffer((ByteBuffer) buffer.slice().limit(capacity));
+        this.head = PlatformDependent.getIntVolatile(address + HEAD_OFFSET);
+        this.tail = PlatformDependent.getIntVolatile(address + TAIL_OFFSET);
+    }
+
+    /**
+     * Replaces the file with an empty ring. Writers still mapping the previous file write into the void,
+     * and should reopen.
+     *
+     * @param capacity in bytes, rounded up to a power of 2
+     */
+    public static SharedMemoryRing create(File file, int capacity) throws IOException {
+        if (capacity < HEADER_SIZE || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid ring capacity " + capacity);
+        }
+        final int roundedCapacity = Integer.highestOneBit(capacity) == capacity ?
+                capacity : Integer.highestOneBit(capacity) << 1;
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not replace " + file);
+        }
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(HEADER_SIZE + roundedCapacity);
+            final MappedByteBuffer buffer = map(raf.getChannel());
+            buffer.putInt(VERSION_OFFSET, VERSION);
+            buffer.putInt(CAPACITY_OFFSET, roundedCapacity);
+            // last, so nobody picks up a half-initialized ring
+            PlatformDependent.putIntOrdered(PlatformDependent.directBufferAddress(buffer) + MAGIC_OFFSET, MAGIC);
+            return new SharedMemoryRing(buffer);
+        } finally {
+            // the mapping outlives the file descriptor
+            raf.close();
+        }
+    }
+
+    /**
+     * Maps an existing ring. The channel must stay open as long as it holds the writer's lock.
+     */
+    public static SharedMemoryRing open(FileChannel channel) throws IOException {
+        return new SharedMemoryRing(map(channel));
+    }
+
+    private static MappedByteBuffer map(FileChannel channel) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+    }
+
+    private static int align(int length) {
+        return (length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    /**
+     * @return the largest record that can always be offered
+     */
+    public int getMaxRecordSize() {
+        return capacity / 2 - RECORD_HEADER_SIZE;
+    }
+
+    /**
+     * Producer side.
+     *
+     * @return false if the ring was too full, counted as an overrun
+     */
+    public boolean offer(byte[] payload, byte[] tags) {
+        final int length = RECORD_HEADER_SIZE + tags.length + payload.length;
+        if (tags.length > 0xffff || length - RECORD_HEADER_SIZE > getMaxRecordSize()) {
+            throw new IllegalArgumentException("Record too large: " + length + " bytes");
+        }
+
+        final int needed = align(length);
+        final int offset = tail & mask;
+        final int toEnd = capacity - offset;
+        final int padding = needed > toEnd ? toEnd : 0;
+
+        final int head = PlatformDependent.getIntVolatile(address + HEAD_OFFSET);
+        if (tail - head + padding + needed > capacity) {
+            final long overrunsAddress = address + OVERRUNS_OFFSET;
+            PlatformDependent.putIntOrdered(overrunsAddress, PlatformDependent.getIntVolatile(overrunsAddress) + 1);
+            return false;
+        }
+
+        int at = offset;
+        if (padding > 0) {
+            data.setInt(offset, PADDING);
+            at = 0;
+        }
+        data.setInt(at, length);
+        data.setShort(at + 4, tags.length);
+        data.setBytes(at + RECORD_HEADER_SIZE, tags);
+        data.setBytes(at + RECORD_HEADER_SIZE + tags.length, payload);
+
+        tail += padding + needed;
+        PlatformDependent.putIntOrdered(address + TAIL_OFFSET, tail);
+        return true;
+    }
+
+    /**
+     * Consumer side. Records are only valid during the callback, and must be copied to be kept.
+     *
+     * @return number of records read
+     */
+    public int drain(RecordHandler handler, int maxRecords) {
+        final int tail = PlatformDependent.getIntVolatile(address + TAIL_OFFSET);
+        int records = 0;
+
+        while (head != tail && records < maxRecords) {
+            final int offset = head & mask;
+            final int length = data.getInt(offset);
+            if (length == PADDING) {
+                head += capacity - offset;
+                continue;
+            }
+
+            final int tagsLength = data.getUnsignedShort(offset + 4);
+            if (length < RECORD_HEADER_SIZE + tagsLength || align(length) > tail - head) {
+                log.warn("Corrupted record of {} bytes, discarding {} bytes", length, tail - head);
+                head = tail;
+                break;
+            }
+
+            handler.handle(data.slice(offset + RECORD_HEADER_SIZE, tagsLength),
+                    data.slice(offset + RECORD_HEADER_SIZE + tagsLength, length - RECORD_HEADER_SIZE - tagsLength));
+            head += align(length);
+            records++;
+        }
+
+        PlatformDependent.putIntOrdered(address + HEAD_OFFSET, head);
+        return records;
+    }
+
+    /**
+     * @return bytes currently used by records
+     */
+    public int getUsedBytes() {
+        return PlatformDependent.getIntVolatile(address + TAIL_OFFSET) -
+                PlatformDependent.getIntVolatile(address + HEAD_OFFSET);
+    }
+
+    /**
+     * @return records producers could not fit, since the ring was created
+     */
+    public int getOverruns() {
+        return PlatformDependent.getIntVolatile(address + OVERRUNS_OFFSET);
+    }
+
+    public interface RecordHandler {
+        void handle(ByteBuf tags, ByteBuf payload);
+    }
+}
@@ -52,6 +52,50 @@ class Murmur3Test extends GroovyTestCase {
         ] as byte[])
     }
 
+    void testComposites() {
+        final rand = new Random(0)
+        for (i in 0..10_000) {
+            final target = new byte[rand.nextInt(100)]
+            rand.nextBytes(target)
+
+            // split anywhere, including in the middle of blocks and into empty components
+            final composite = Unpooled.compositeBuffer()
+            int at = 0
+            while (at < target.length) {
+                final length = Math.min(rand.nextInt(10), target.length - at)
+                composite.addComponent(true, Unpooled.wrappedBuffer(target, at, length))
+                at += length
+            }
+
+            final from = rand.nextInt(target.length + 1)
+            final to = from + rand.nextInt(target.length - from + 1)
+            final model = Arrays.copyOfRange(target, from, to)
+            assert Murmur3.hash32(composite, from, to - from) == Hashing.murmur3_32().hashBytes(model).asInt()
+            assert Murmur3.hash32(composite) == Hashing.murmur3_32().hashBytes(target).asInt()
+        }
+    }
+
+    void testStreaming() {
+        final rand = new Random(0)
+        for (i in 0..10_000) {
+            final target = new byte[rand.nextInt(100)]
+            rand.nextBytes(target)
+
+            final hasher = new Murmur3Hasher()
+            int at = 0
+            while (at < target.length) {
+                final length = Math.min(rand.nextInt(10), target.length - at)
+                hasher.update(Unpooled.wrappedBuffer(target), at, length)
+                at += length
+                // hashing leaves the state alone
+                assert hasher.hash() == Hashing.murmur3_32().hashBytes(target, 0, at).asInt()
+            }
+            assert hasher.length == target.length
+            assert hasher.hash() == Hashing.murmur3_32().hashBytes(target).asInt()
+        }
+        assert new Murmur3Hasher(10).hash() == Hashing.murmur3_32(10).hashBytes(new byte[0]).asInt()
+    }
+
     void testZeroes() {
         compareForBytes([0, 0, 0, 0] as byte[])
     }
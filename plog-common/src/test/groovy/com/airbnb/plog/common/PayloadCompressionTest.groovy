@@ -0,0 +1,55 @@
+package com.airbnb.plog.common
+
+import io.netty.buffer.ByteBufAllocator
+import io.netty.buffer.Unpooled
+import io.netty.handler.codec.compression.DecompressionException
+
+class PayloadCompressionTest extends GroovyTestCase {
+    // over the 64KiB Snappy blocks
+    private static final PAYLOAD = ('{"event":"click","user":42}' * 10000).bytes
+
+    private static byte[] bytes(buf) {
+        final result = new byte[buf.readableBytes()]
+        buf.getBytes(buf.readerIndex(), result)
+        buf.release()
+        result
+    }
+
+    void testRoundTrips() {
+        for (compression in PayloadCompression.values()) {
+            final compressed = compression.compress(ByteBufAllocator.DEFAULT, Unpooled.wrappedBuffer(PAYLOAD))
+            if (compression != PayloadCompression.NONE)
+                assert compressed.readableBytes() < PAYLOAD.length / 10
+            final decompressed = compression.decompress(ByteBufAllocator.DEFAULT, compressed, PAYLOAD.length)
+            compressed.release()
+            assert bytes(decompressed) == PAYLOAD
+        }
+    }
+
+    void testIds() {
+        for (compression in PayloadCompression.values())
+            assert PayloadCompression.fromId(compression.id) == compression
+        shouldFail(IllegalArgumentException) { PayloadCompression.fromId(3) }
+    }
+
+    void testRejectsOverMaxLength() {
+        for (compression in [PayloadCompression.SNAPPY, PayloadCompression.LZ4]) {
+            final compressed = compression.compress(ByteBufAllocator.DEFAULT, Unpooled.wrappedBuffer(PAYLOAD))
+            shouldFail(DecompressionException) {
+                compression.decompress(ByteBufAllocator.DEFAULT, compressed, PAYLOAD.length - 1)
+            }
+            compressed.release()
+        }
+    }
+
+    void testRejectsCorrupted() {
+        for (compression in [PayloadCompression.SNAPPY, PayloadCompression.LZ4]) {
+            final compressed = compression.compress(ByteBufAllocator.DEFAULT, Unpooled.wrappedBuffer(PAYLOAD))
+            final truncated = compressed.slice(0, compressed.readableBytes() - 10)
+            shouldFail(DecompressionException) {
+                compression.decompress(ByteBufAllocator.DEFAULT, truncated, PAYLOAD.length)
+            }
+            compressed.release()
+        }
+    }
+}
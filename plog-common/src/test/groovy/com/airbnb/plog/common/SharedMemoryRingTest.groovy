@@ -0,0 +1,86 @@
+package com.airbnb.plog.common
+
+import com.google.common.base.Charsets
+import io.netty.buffer.ByteBuf
+
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+
+class SharedMemoryRingTest extends GroovyTestCase {
+    private File file
+
+    void setUp() {
+        file = File.createTempFile('plog', 'ring')
+    }
+
+    void tearDown() {
+        file.delete()
+    }
+
+    private static List<List<String>> drain(SharedMemoryRing ring, int max = Integer.MAX_VALUE) {
+        final records = []
+        ring.drain(new SharedMemoryRing.RecordHandler() {
+            @Override
+            void handle(ByteBuf tags, ByteBuf payload) {
+                records << [tags.toString(Charsets.UTF_8), payload.toString(Charsets.UTF_8)]
+            }
+        }, max)
+        records
+    }
+
+    private SharedMemoryRing writer() {
+        SharedMemoryRing.open(FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE))
+    }
+
+    void testCapacityRoundedUp() {
+        assert SharedMemoryRing.create(file, 5000).capacity == 8192
+    }
+
+    void testRejectsOtherFiles() {
+        file.bytes = new byte[2 * SharedMemoryRing.HEADER_SIZE]
+        shouldFail(IllegalArgumentException) { writer() }
+    }
+
+    void testRoundTrip() {
+        final reader = SharedMemoryRing.create(file, 4096)
+        final writer = writer()
+        assert writer.offer('hello'.bytes, 'a\0b'.bytes)
+        assert writer.offer('world'.bytes, new byte[0])
+        assert reader.usedBytes == 32
+
+        assert drain(reader, 1) == [['a\0b', 'hello']]
+        assert drain(reader) == [['', 'world']]
+        assert drain(reader) == []
+        assert reader.usedBytes == 0
+    }
+
+    void testWrapsAround() {
+        final reader = SharedMemoryRing.create(file, 4096)
+        final writer = writer()
+        final payload = 'x' * 1000
+        100.times {
+            assert writer.offer(payload.bytes, new byte[0])
+            assert drain(reader) == [['', payload]]
+        }
+    }
+
+    void testOverruns() {
+        final reader = SharedMemoryRing.create(file, 4096)
+        final writer = writer()
+        final payload = new byte[writer.maxRecordSize]
+        assert writer.offer(payload, new byte[0])
+        assert writer.offer(new byte[1000], new byte[0])
+        assert !writer.offer(payload, new byte[0])
+        assert reader.overruns == 1
+
+        drain(reader)
+        assert writer.offer(payload, new byte[0])
+    }
+
+    void testRejectsLargeRecords() {
+        final writer = SharedMemoryRing.create(file, 4096)
+        shouldFail(IllegalArgumentException) {
+            writer.offer(new byte[writer.maxRecordSize + 1], new byte[0])
+        }
+    }
+}
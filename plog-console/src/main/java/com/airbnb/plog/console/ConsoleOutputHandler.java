@@ -3,6 +3,7 @@ package com.airbnb.plog.console;
 import com.airbnb.plog.Message;
 import com.airbnb.plog.handlers.Handler;
 import com.eclipsesource.json.JsonObject;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import lombok.RequiredArgsConstructor;
@@ -10,6 +11,7 @@ import lombok.RequiredArgsConstructor;
 import java.io.PrintStream;
 import java.util.concurrent.atomic.AtomicLong;
 
+@ChannelHandler.Sharable
 @RequiredArgsConstructor
 public final class ConsoleOutputHandler extends SimpleChannelInboundHandler<Message> implements Handler {
     private final PrintStream target;
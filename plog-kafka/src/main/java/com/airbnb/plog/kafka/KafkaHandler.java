@@ -1,14 +1,20 @@
 package com.airbnb.plog.kafka;
 
 import com.airbnb.plog.kafka.KafkaProvider.EncryptionConfig;
+import com.airbnb.plog.Delivery;
 import com.airbnb.plog.Message;
+import com.airbnb.plog.TagSet;
 import com.airbnb.plog.handlers.Handler;
+import com.airbnb.plog.handlers.Saturable;
 import com.eclipsesource.json.JsonObject;
 import com.google.common.collect.ImmutableMap;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.Metric;
 import org.apache.kafka.common.MetricName;
@@ -18,15 +24,17 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.ByteArrayOutputStream;
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.SecretKeySpec;
 
+@ChannelHandler.Sharable
 @RequiredArgsConstructor
 @Slf4j
-public final class KafkaHandler extends SimpleChannelInboundHandler<Message> implements Handler {
+public final class KafkaHandler extends SimpleChannelInboundHandler<Message> implements Handler, Saturable {
     private final String defaultTopic;
     private final boolean propagate;
     private final KafkaProducer<String, byte[]> producer;
@@ -47,6 +55,11 @@ public final class KafkaHandler extends SimpleChannelInboundHandler<Message> imp
             .put("byte", new MetricName("outgoing-byte-rate", "producer-metrics"))
             .build();
 
+    private static final MetricName BUFFER_AVAILABLE_BYTES =
+        new MetricName("buffer-available-bytes", "producer-metrics");
+    private static final MetricName BUFFER_TOTAL_BYTES =
+        new MetricName("buffer-total-bytes", "producer-metrics");
+
     protected KafkaHandler(
             final String clientId,
             final boolean propagate,
@@ -87,15 +100,26 @@ public final class KafkaHandler extends SimpleChannelInboundHandler<Message> imp
         // Producer will simply do round-robin when a null partitionKey is provided
         String partitionKey = null;
 
-        for (String tag : msg.getTags()) {
-            if (tag.startsWith("kt:")) {
-                kafkaTopic = tag.substring(3);
-            } else if (tag.startsWith("pk:")) {
-                partitionKey = tag.substring(3);
+        final Collection<String> tags = msg.getTags();
+        if (tags instanceof TagSet) {
+            // indexed once for every message sharing these tags
+            final TagSet tagSet = (TagSet) tags;
+            final String topic = tagSet.getValue("kt");
+            if (topic != null) {
+                kafkaTopic = topic;
+            }
+            partitionKey = tagSet.getValue("pk");
+        } else {
+            for (String tag : tags) {
+                if (tag.startsWith("kt:")) {
+                    kafkaTopic = tag.substring(3);
+                } else if (tag.startsWith("pk:")) {
+                    partitionKey = tag.substring(3);
+                }
             }
         }
 
-        sendOrReportFailure(kafkaTopic, partitionKey, payload);
+        sendOrReportFailure(kafkaTopic, partitionKey, payload, msg.getDelivery());
 
         if (propagate) {
             msg.retain();
@@ -103,17 +127,41 @@ public final class KafkaHandler extends SimpleChannelInboundHandler<Message> imp
         }
     }
 
-    private boolean sendOrReportFailure(String topic, final String key, final byte[] msg) {
+    /**
+     * @param delivery if not null, held until the producer confirms the record was sent
+     */
+    private boolean sendOrReportFailure(String topic, final String key, final byte[] msg, Delivery delivery) {
         final boolean nonNullTopic = !("null".equals(topic));
         if (nonNullTopic) {
+            final Delivery held = delivery == null ? null : delivery.hold();
             try {
-                producer.send(new ProducerRecord<String, byte[]>(topic, key, msg));
+                final ProducerRecord<String, byte[]> record = new ProducerRecord<String, byte[]>(topic, key, msg);
+                if (held == null) {
+                    producer.send(record);
+                } else {
+                    producer.send(record, new Callback() {
+                        @Override
+                        public void onCompletion(RecordMetadata metadata, Exception exception) {
+                            if (exception == null) {
+                                held.complete();
+                            } else {
+                                held.fail(exception);
+                            }
+                        }
+                    });
+                }
             } catch (SerializationException e) {
                 failedToSendMessageExceptions.incrementAndGet();
                 serializationErrors.incrementAndGet();
+                if (held != null) {
+                    held.fail(e);
+                }
             } catch (KafkaException e) {
                 log.warn("Failed to send to topic {}", topic, e);
                 failedToSendMessageExceptions.incrementAndGet();
+                if (held != null) {
+                    held.fail(e);
+                }
             }
         }
         return nonNullTopic;
@@ -131,6 +179,21 @@ public final class KafkaHandler extends SimpleChannelInboundHandler<Message> imp
         return outputStream.toByteArray();
     }
 
+    /**
+     * Share of the producer buffer pool in use: sends block (or fail, depending on max.block.ms)
+     * once it is exhausted.
+     */
+    @Override
+    public double getSaturation() {
+        final Map<MetricName, ? extends Metric> metrics = producer.metrics();
+        final Metric available = metrics.get(BUFFER_AVAILABLE_BYTES);
+        final Metric total = metrics.get(BUFFER_TOTAL_BYTES);
+        if (available == null || total == null || total.value() <= 0) {
+            return 0;
+        }
+        return 1 - available.value() / total.value();
+    }
+
     @Override
     public JsonObject getStats() {
 
@@ -0,0 +1,142 @@
+package com.airbnb.plog.server.fragmentation;
+
+import com.airbnb.plog.server.stats.SimpleStatisticsReporter;
+import com.airbnb.plog.server.stats.StatisticsReporter;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Incomplete message lookups, {@link DefragmentationTable} against the Guava cache it replaced
+ * (as {@link Defragmenter} used it), with {@code inFlight} incomplete messages.
+ * {@code hit} looks up a random message in flight, as for every fragment but the first;
+ * {@code addAndRemove} adds a message then removes it, as for a message's first fragment and completion.
+ * Run with {@code -prof gc} for allocated bytes ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DefragmentationTableBenchmark {
+    // longer than setting up and running, so that nothing expires
+    private static final long EXPIRE_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    @Param({"guava", "table"})
+    private String implementation;
+
+    @Param({"10000", "1000000"})
+    private int inFlight;
+
+    private final StatisticsReporter stats = new SimpleStatisticsReporter();
+    private Cache<Long, FragmentedMessage> cache;
+    private DefragmentationTable table;
+    private Fragment[] fragments;
+    private int[] order;
+    private int next = 0;
+    private Fragment added;
+
+    private static Fragment fragment(long msgId) {
+        // first of 2 fragments of 1 byte
+        return new Fragment(2, 0, 1, msgId, 2, 0, Unpooled.wrappedBuffer(new byte[1]), null);
+    }
+
+    @Setup
+    public void setUp() throws ExecutionException {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(Integer.MAX_VALUE)
+                .expireAfterAccess(EXPIRE_NANOS, TimeUnit.NANOSECONDS)
+                .recordStats()
+                .weigher(new Weigher<Long, FragmentedMessage>() {
+                    @Override
+                    public int weigh(Long id, FragmentedMessage msg) {
+                        return msg.getContentLength();
+                    }
+                })
+                .build();
+        table = new DefragmentationTable(stats, Integer.MAX_VALUE, EXPIRE_NANOS, Ticker.systemTicker());
+
+        // message IDs are a sender port and a counter
+        fragments = new Fragment[inFlight];
+        order = new int[inFlight];
+        for (int i = 0; i < inFlight; i++) {
+            fragments[i] = fragment(((long) (40000 + i % 100) << Integer.SIZE) + i / 100);
+            order[i] = i;
+            if ("guava".equals(implementation)) {
+                guavaGet(fragments[i]);
+            } else {
+                table.getOrAdd(fragments[i]);
+            }
+        }
+        final Random random = new Random(42);
+        for (int i = inFlight - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final int swapped = order[i];
+            order[i] = order[j];
+            order[j] = swapped;
+        }
+        added = fragment(-1);
+    }
+
+    private FragmentedMessage guavaGet(final Fragment fragment) throws ExecutionException {
+        final boolean[] isNew = {false};
+        final FragmentedMessage message = cache.get(fragment.getMsgId(), new Callable<FragmentedMessage>() {
+            @Override
+            public FragmentedMessage call() throws Exception {
+                isNew[0] = true;
+                return FragmentedMessage.fromFragment(fragment, stats);
+            }
+        });
+        return isNew[0] ? null : message;
+    }
+
+    private Fragment nextFragment() {
+        final Fragment fragment = fragments[order[next]];
+        next = next + 1 == inFlight ? 0 : next + 1;
+        return fragment;
+    }
+
+    @Benchmark
+    public FragmentedMessage hit() throws ExecutionException {
+        final Fragment fragment = nextFragment();
+        if ("guava".equals(implementation)) {
+            return guavaGet(fragment);
+        } else {
+            return table.getOrAdd(fragment);
+        }
+    }
+
+    @Benchmark
+    public void addAndRemove() throws ExecutionException {
+        if ("guava".equals(implementation)) {
+            guavaGet(added);
+            final FragmentedMessage message = cache.getIfPresent(added.getMsgId());
+            cache.invalidate(added.getMsgId());
+            message.release();
+        } else {
+            table.getOrAdd(added);
+            final FragmentedMessage message = table.get(added.getMsgId());
+            table.remove(added.getMsgId());
+            message.release();
+        }
+    }
+}
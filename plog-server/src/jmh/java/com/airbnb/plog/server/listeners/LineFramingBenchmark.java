@@ -0,0 +1,85 @@
+package com.airbnb.plog.server.listeners;
+
+import com.airbnb.plog.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.LineBasedFrameDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Newline framing of 256KiB reads, one message per line, through
+ * {@link LineBasedFrameDecoder} and {@link ByteBufToMessageDecoder} or through {@link LineToMessageDecoder}.
+ * Scores are per read.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineFramingBenchmark {
+    private static final int READ_SIZE = 256 * 1024;
+
+    @Param({"100", "10240"})
+    private int lineSize;
+
+    @Param({"line_based", "swar"})
+    private String decoder;
+
+    private ByteBuf read;
+    private EmbeddedChannel channel;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        final byte[] line = new byte[lineSize];
+        Arrays.fill(line, (byte) 'x');
+        line[lineSize - 1] = '\n';
+
+        read = PooledByteBufAllocator.DEFAULT.directBuffer(READ_SIZE);
+        while (read.writableBytes() >= lineSize) {
+            read.writeBytes(line);
+        }
+
+        final ChannelHandler sink = new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                blackhole.consume(((Message) msg).content().readableBytes());
+                ((Message) msg).release();
+            }
+        };
+
+        channel = "swar".equals(decoder) ?
+                new EmbeddedChannel(new LineToMessageDecoder(lineSize), sink) :
+                new EmbeddedChannel(new LineBasedFrameDecoder(lineSize), new ByteBufToMessageDecoder(), sink);
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        read.release();
+    }
+
+    @Benchmark
+    public void frame() {
+        channel.writeInbound(read.retainedDuplicate());
+    }
+}
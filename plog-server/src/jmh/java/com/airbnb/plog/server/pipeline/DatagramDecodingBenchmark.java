@@ -0,0 +1,109 @@
+package com.airbnb.plog.server.pipeline;
+
+import com.airbnb.plog.common.Murmur3;
+import com.airbnb.plog.server.fragmentation.Defragmenter;
+import com.airbnb.plog.server.stats.SimpleStatisticsReporter;
+import com.typesafe.config.ConfigFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a 512-byte datagram by {@link ProtocolDecoder}, unboxed, as a single v0 fragment,
+ * as 8 packed messages, or as a PING command. Scores are per datagram: run with {@code -prof gc} for allocated bytes
+ * ({@code gc.alloc.rate.norm}), which should be about a {@link com.airbnb.plog.MessageImpl} per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatagramDecodingBenchmark {
+    private static final int PAYLOAD_SIZE = 512;
+    private static final int PACKED_MESSAGES = 8;
+    private static final InetSocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 23456);
+
+    @Param({"unboxed", "fragment", "packed", "ping"})
+    private String packetType;
+
+    private DatagramPacket packet;
+    private ChannelPipeline pipeline;
+    private EmbeddedChannel channel;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        final byte[] payload = new byte[PAYLOAD_SIZE];
+        Arrays.fill(payload, (byte) 'x');
+
+        final ByteBuf content = PooledByteBufAllocator.DEFAULT.directBuffer();
+        if ("unboxed".equals(packetType)) {
+            content.writeBytes(payload);
+        } else if ("fragment".equals(packetType)) {
+            content.writeShort(1).writeShort(1).writeShort(0).writeShort(PAYLOAD_SIZE)
+                    .writeInt(42).writeInt(PAYLOAD_SIZE)
+                    .writeInt(Murmur3.hash32(Unpooled.wrappedBuffer(payload)))
+                    .writeShort(0).writeShort(0)
+                    .writeBytes(payload);
+        } else if ("packed".equals(packetType)) {
+            content.writeByte(0).writeByte(2);
+            for (int i = 0; i < PACKED_MESSAGES; i++) {
+                content.writeShort(PAYLOAD_SIZE / PACKED_MESSAGES).writeShort(0)
+                        .writeBytes(payload, 0, PAYLOAD_SIZE / PACKED_MESSAGES);
+            }
+        } else {
+            content.writeShort(0).writeBytes("PING".getBytes());
+        }
+        packet = new DatagramPacket(content, ADDRESS, ADDRESS);
+
+        final SimpleStatisticsReporter stats = new SimpleStatisticsReporter();
+        final Defragmenter defragmenter = new Defragmenter(stats,
+                ConfigFactory.defaultReference().getConfig("plog.server.udp.defaults.defrag"));
+        final ChannelHandler sink = new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                blackhole.consume(msg);
+                ReferenceCountUtil.release(msg);
+            }
+        };
+
+        channel = new EmbeddedChannel(new ProtocolDecoder(stats, defragmenter), sink);
+        pipeline = channel.pipeline();
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        packet.release();
+    }
+
+    @Benchmark
+    public void decode() {
+        // straight into the pipeline, leaving out EmbeddedChannel's own bookkeeping
+        pipeline.fireChannelRead(packet.retain());
+    }
+}
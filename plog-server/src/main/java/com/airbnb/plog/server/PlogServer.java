@@ -1,8 +1,13 @@
 package com.airbnb.plog.server;
 
+import com.airbnb.plog.server.listeners.HTTPListener;
+import com.airbnb.plog.server.listeners.SharedMemoryListener;
+import com.airbnb.plog.server.listeners.TCPEventLoops;
 import com.airbnb.plog.server.listeners.TCPListener;
 import com.airbnb.plog.server.listeners.UDPListener;
+import com.airbnb.plog.server.listeners.UnixListener;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Service;
 import com.google.common.util.concurrent.ServiceManager;
@@ -11,6 +16,7 @@ import com.typesafe.config.ConfigFactory;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -43,14 +49,52 @@ public final class PlogServer {
         final Config tcpConfig = plogServer.getConfig("tcp");
         final Config tcpDefaults = tcpConfig.getConfig("defaults").withFallback(globalDefaults);
 
+        final Config httpConfig = plogServer.getConfig("http");
+        final Config httpDefaults = httpConfig.getConfig("defaults").withFallback(tcpDefaults);
+
+        final Config unixConfig = plogServer.getConfig("unix");
+        final Config unixDefaults = unixConfig.getConfig("defaults").withFallback(udpDefaults);
+
+        final Config shmConfig = plogServer.getConfig("shm");
+        final Config shmDefaults = shmConfig.getConfig("defaults").withFallback(globalDefaults);
+
         final ArrayList<Service> services = Lists.newArrayList();
 
         for (final Config cfg : udpConfig.getConfigList("listeners")) {
             services.add(new UDPListener(cfg.withFallback(udpDefaults)));
         }
 
+        final List<Config> tcpListeners = Lists.newArrayList();
         for (final Config cfg : tcpConfig.getConfigList("listeners")) {
-            services.add(new TCPListener(cfg.withFallback(tcpDefaults)));
+            tcpListeners.add(cfg.withFallback(tcpDefaults));
+        }
+        final List<Config> httpListeners = Lists.newArrayList();
+        for (final Config cfg : httpConfig.getConfigList("listeners")) {
+            httpListeners.add(cfg.withFallback(httpDefaults));
+        }
+
+        TCPEventLoops sharedEventLoops = null;
+        for (final Config cfg : Iterables.concat(tcpListeners, httpListeners)) {
+            if (sharedEventLoops == null && cfg.getBoolean("event_loops.shared")) {
+                sharedEventLoops = new TCPEventLoops(plogServer.getConfig("event_loops"));
+            }
+        }
+        final TCPEventLoops tcpEventLoops = sharedEventLoops;
+
+        for (final Config cfg : tcpListeners) {
+            services.add(new TCPListener(cfg, tcpEventLoops));
+        }
+
+        for (final Config cfg : httpListeners) {
+            services.add(new HTTPListener(cfg, tcpEventLoops));
+        }
+
+        for (final Config cfg : unixConfig.getConfigList("listeners")) {
+            services.add(new UnixListener(cfg.withFallback(unixDefaults)));
+        }
+
+        for (final Config cfg : shmConfig.getConfigList("listeners")) {
+            services.add(new SharedMemoryListener(cfg.withFallback(shmDefaults)));
         }
 
         final long shutdownTime = plogServer.getDuration("shutdown_time", TimeUnit.MILLISECONDS);
@@ -75,6 +119,11 @@ public final class PlogServer {
                 log.info("Shutting down...");
                 try {
                     manager.stopAsync().awaitStopped(shutdownTime, TimeUnit.MILLISECONDS);
+                    if (tcpEventLoops != null) {
+                        tcpEventLoops.shutdownGracefully().await(shutdownTime, TimeUnit.MILLISECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 } catch (TimeoutException e) {
                     log.warn("Did not shut down gracefully after {}ms!", shutdownTime, e);
                     Runtime.getRuntime().halt(2);
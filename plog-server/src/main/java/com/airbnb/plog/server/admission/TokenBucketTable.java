@@ -0,0 +1,140 @@
+package com.airbnb.plog.server.admission;
+
+import lombok.Getter;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Token buckets limiting packets and bytes per second, keyed by a long.
+ * <p>
+ * Buckets live in parallel primitive arrays, with open addressing over a short probe window,
+ * so admitting a packet allocates nothing. When the window is full, the least recently
+ * refilled bucket is recycled: only the most active keys are tracked.
+ * <p>
+ * Not thread-safe: meant to be owned by the thread reading a socket.
+ */
+public final class TokenBucketTable {
+    public enum Admission {
+        ADMITTED,
+        OVER_PACKETS,
+        OVER_BYTES
+    }
+
+    private static final int MAX_PROBES = 8;
+    // a datagram can never be larger, so it can always fit an otherwise full bucket
+    private static final double MIN_BYTE_BURST = 65535;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final int mask;
+    private final int probes;
+    private final long[] keys;
+    private final long[] refilledAt;
+    private final double[] packetTokens;
+    private final double[] byteTokens;
+
+    private final double packetsPerNano, bytesPerNano;
+    private final double packetBurst, byteBurst;
+
+    @Getter
+    private long evictions = 0;
+
+    /**
+     * @param capacity         number of buckets, rounded up to a power of 2
+     * @param packetsPerSecond 0 for unlimited
+     * @param bytesPerSecond   0 for unlimited
+     * @param burstNanos       how long a full bucket lasts without refilling
+     */
+    public TokenBucketTable(int capacity, long packetsPerSecond, long bytesPerSecond, long burstNanos) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        if (packetsPerSecond < 0 || bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Invalid rates " + packetsPerSecond + "/" + bytesPerSecond);
+        }
+        if (burstNanos <= 0) {
+            throw new IllegalArgumentException("Invalid burst " + burstNanos);
+        }
+
+        final int size = Integer.highestOneBit(capacity) == capacity ?
+                capacity : Integer.highestOneBit(capacity) << 1;
+        this.mask = size - 1;
+        this.probes = Math.min(MAX_PROBES, size);
+        this.keys = new long[size];
+        this.refilledAt = new long[size];
+        this.packetTokens = new double[size];
+        this.byteTokens = new double[size];
+
+        this.packetsPerNano = (double) packetsPerSecond / NANOS_PER_SECOND;
+        this.bytesPerNano = (double) bytesPerSecond / NANOS_PER_SECOND;
+        this.packetBurst = Math.max(1, packetsPerNano * burstNanos);
+        this.byteBurst = Math.max(MIN_BYTE_BURST, bytesPerNano * burstNanos);
+    }
+
+    /**
+     * Exact for IPv4 senders. IPv6 addresses are reduced to their 32-bit hash,
+     * so colliding senders on the same port share a bucket.
+     */
+    public static long keyOf(InetSocketAddress address) {
+        final long ipv6 = address.getAddress().getAddress().length == 4 ? 0 : 1L << 48;
+        // never 0, which marks empty buckets
+        return 1L << 49 | ipv6 | (address.getAddress().hashCode() & 0xffffffffL) << 16 | address.getPort();
+    }
+
+    private static int spread(long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public boolean isUnlimited() {
+        return packetsPerNano == 0 && bytesPerNano == 0;
+    }
+
+    public Admission admit(long key, int bytes, long nanoTime) {
+        final int slot = slotFor(key, nanoTime);
+
+        final long elapsed = Math.max(0, nanoTime - refilledAt[slot]);
+        refilledAt[slot] = nanoTime;
+        final double packets = Math.min(packetBurst, packetTokens[slot] + elapsed * packetsPerNano);
+        final double byteCount = Math.min(byteBurst, byteTokens[slot] + elapsed * bytesPerNano);
+        packetTokens[slot] = packets;
+        byteTokens[slot] = byteCount;
+
+        if (packetsPerNano > 0 && packets < 1) {
+            return Admission.OVER_PACKETS;
+        }
+        if (bytesPerNano > 0 && byteCount < bytes) {
+            return Admission.OVER_BYTES;
+        }
+        packetTokens[slot] = packets - 1;
+        byteTokens[slot] = byteCount - bytes;
+        return Admission.ADMITTED;
+    }
+
+    private int slotFor(long key, long nanoTime) {
+        final int home = spread(key);
+        int victim = -1;
+        for (int i = 0; i < probes; i++) {
+            final int slot = (home + i) & mask;
+            final long slotKey = keys[slot];
+            if (slotKey == key) {
+                return slot;
+            }
+            if (slotKey == 0) {
+                victim = slot;
+                break;
+            }
+            if (victim == -1 || refilledAt[slot] - refilledAt[victim] < 0) {
+                victim = slot;
+            }
+        }
+
+        if (keys[victim] != 0) {
+            evictions++;
+        }
+        keys[victim] = key;
+        refilledAt[victim] = nanoTime;
+        packetTokens[victim] = packetBurst;
+        byteTokens[victim] = byteBurst;
+        return victim;
+    }
+}
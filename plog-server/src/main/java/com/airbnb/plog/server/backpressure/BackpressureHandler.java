@@ -0,0 +1,138 @@
+package com.airbnb.plog.server.backpressure;
+
+import com.airbnb.plog.handlers.Saturable;
+import com.airbnb.plog.server.stats.StatisticsReporter;
+import com.typesafe.config.Config;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops reading from all connections of a listener while any of its {@link Saturable} handlers
+ * is over the high water mark, until they are all back under the low water mark.
+ * Senders then see their TCP window close and slow down, rather than us dropping messages.
+ * With epoll, a read already requested when a connection is paused still goes through.
+ * <p>
+ * First handler of every connection's pipeline.
+ */
+@Slf4j
+@ChannelHandler.Sharable
+public final class BackpressureHandler extends ChannelInboundHandlerAdapter {
+    private static final AttributeKey<Long> PAUSED_AT = AttributeKey.valueOf("plog.pausedAt");
+
+    private final Iterable<? extends Saturable> saturables;
+    private final StatisticsReporter stats;
+    private final double highWaterMark;
+    private final double lowWaterMark;
+    private final long interval;
+    private final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
+    @Getter
+    private volatile double saturation = 0;
+    @Getter
+    private volatile boolean paused = false;
+
+    public BackpressureHandler(Config config, Iterable<? extends Saturable> saturables, StatisticsReporter stats) {
+        this.saturables = saturables;
+        this.stats = stats;
+        this.highWaterMark = config.getDouble("high_water_mark");
+        this.lowWaterMark = config.getDouble("low_water_mark");
+        this.interval = config.getDuration("interval", TimeUnit.NANOSECONDS);
+        if (lowWaterMark > highWaterMark) {
+            throw new IllegalArgumentException("low_water_mark over high_water_mark");
+        }
+    }
+
+    /**
+     * Polls saturation on the executor until cancelled or the executor shuts down.
+     *
+     * @return the polling task, to cancel when the executor outlives the listener
+     */
+    public ScheduledFuture<?> start(EventExecutor executor) {
+        return executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    void check() {
+        double max = 0;
+        for (Saturable saturable : saturables) {
+            max = Math.max(max, saturable.getSaturation());
+        }
+        saturation = max;
+
+        if (!paused && max >= highWaterMark) {
+            log.warn("Saturation at {}, pausing {} connections", max, channels.size());
+            paused = true;
+            for (Channel channel : channels) {
+                pause(channel);
+            }
+        } else if (paused && max <= lowWaterMark) {
+            log.info("Saturation at {}, resuming {} connections", max, channels.size());
+            paused = false;
+            for (Channel channel : channels) {
+                resume(channel);
+            }
+        }
+    }
+
+    public int getPausedConnections() {
+        int count = 0;
+        for (Channel channel : channels) {
+            if (channel.attr(PAUSED_AT).get() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void pause(Channel channel) {
+        if (channel.attr(PAUSED_AT).setIfAbsent(System.nanoTime()) == null) {
+            stats.pausedConnection();
+            channel.config().setAutoRead(false);
+        }
+    }
+
+    private void resume(Channel channel) {
+        resumed(channel);
+        channel.config().setAutoRead(true);
+    }
+
+    private void resumed(Channel channel) {
+        final Long pausedAt = channel.attr(PAUSED_AT).getAndSet(null);
+        if (pausedAt != null) {
+            stats.resumedConnection(System.nanoTime() - pausedAt);
+        }
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        final Channel channel = ctx.channel();
+        channels.add(channel);
+        if (paused) {
+            pause(channel);
+        }
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        // closed while paused, the pause still counts
+        resumed(ctx.channel());
+        super.channelInactive(ctx);
+    }
+}
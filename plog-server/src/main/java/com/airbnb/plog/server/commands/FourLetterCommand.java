@@ -1,9 +1,11 @@
 package com.airbnb.plog.server.commands;
 
+import com.google.common.base.Charsets;
+import io.netty.buffer.ByteBuf;
 import lombok.Getter;
 import lombok.ToString;
 
-import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 
 @ToString
 public final class FourLetterCommand {
@@ -12,19 +14,70 @@ public final class FourLetterCommand {
     public static final String KILL = "KILL";
     public static final String ENVI = "ENVI";
 
+    private static final byte[] NO_TRAIL = new byte[0];
+    // ASCII letters are uppercased by clearing their 0x20 bit
+    private static final int UPPERCASE_MASK = 0xdfdfdfdf;
+    private static final String[] KNOWN = {PING, STAT, KILL, ENVI};
+    private static final int[] KNOWN_CODES = new int[KNOWN.length];
+
+    static {
+        for (int i = 0; i < KNOWN.length; i++) {
+            KNOWN_CODES[i] = codeOf(KNOWN[i].getBytes(Charsets.US_ASCII), 0);
+        }
+    }
+
     @Getter
     private final String command;
     @Getter
-    private final InetSocketAddress sender;
+    private final SocketAddress sender;
     @Getter
     private final byte[] trail;
 
-    public FourLetterCommand(String command, InetSocketAddress sender, byte[] trail) {
+    public FourLetterCommand(String command, SocketAddress sender, byte[] trail) {
         this.command = command.toUpperCase();
         this.sender = sender;
         this.trail = trail;
     }
 
+    private static int codeOf(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 |
+                (bytes[offset + 2] & 0xff) << 8 | bytes[offset + 3] & 0xff;
+    }
+
+    /**
+     * Reads a command in place: the command name at {@code index}, the trail up to the end of the packet.
+     * Known commands reuse their name, and an empty trail is shared.
+     *
+     * @return null if the packet is too short for a command name
+     */
+    public static FourLetterCommand read(ByteBuf packet, int index, SocketAddress sender) {
+        final int trailLength = packet.writerIndex() - index - 4;
+        if (trailLength < 0) {
+            return null;
+        }
+
+        final int code = packet.getInt(index);
+        String command = null;
+        for (int i = 0; i < KNOWN_CODES.length; i++) {
+            if ((code & UPPERCASE_MASK) == KNOWN_CODES[i]) {
+                command = KNOWN[i];
+                break;
+            }
+        }
+        if (command == null) {
+            command = packet.toString(index, 4, Charsets.ISO_8859_1);
+        }
+
+        final byte[] trail;
+        if (trailLength == 0) {
+            trail = NO_TRAIL;
+        } else {
+            trail = new byte[trailLength];
+            packet.getBytes(index + 4, trail);
+        }
+        return new FourLetterCommand(command, sender, trail);
+    }
+
     boolean is(String cmd) {
         return cmd.equals(this.getCommand());
     }
@@ -9,9 +9,14 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.unix.DomainDatagramPacket;
+import io.netty.channel.unix.DomainSocketAddress;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
 @SuppressWarnings("CallToSystemExit")
 @Slf4j
 @RequiredArgsConstructor
@@ -20,13 +25,20 @@ public final class FourLetterCommandHandler extends SimpleChannelInboundHandler<
     private final SimpleStatisticsReporter stats;
     private final Config config;
 
-    private DatagramPacket pong(ByteBufAllocator alloc, FourLetterCommand ping) {
+    private static Object datagram(ByteBuf payload, SocketAddress recipient) {
+        if (recipient instanceof DomainSocketAddress) {
+            return new DomainDatagramPacket(payload, (DomainSocketAddress) recipient);
+        }
+        return new DatagramPacket(payload, (InetSocketAddress) recipient);
+    }
+
+    private Object pong(ByteBufAllocator alloc, FourLetterCommand ping) {
         final byte[] trail = ping.getTrail();
         int respLength = PONG_BYTES.length + trail.length;
         ByteBuf reply = alloc.buffer(respLength, respLength);
         reply.writeBytes(PONG_BYTES);
         reply.writeBytes(trail);
-        return new DatagramPacket(reply, ping.getSender());
+        return datagram(reply, ping.getSender());
     }
 
     @Override
@@ -50,7 +62,6 @@ public final class FourLetterCommandHandler extends SimpleChannelInboundHandler<
 
     private void reply(ChannelHandlerContext ctx, FourLetterCommand cmd, String response) {
         final ByteBuf payload = Unpooled.wrappedBuffer(response.getBytes(Charsets.UTF_8));
-        final DatagramPacket packet = new DatagramPacket(payload, cmd.getSender());
-        ctx.writeAndFlush(packet);
+        ctx.writeAndFlush(datagram(payload, cmd.getSender()));
     }
 }
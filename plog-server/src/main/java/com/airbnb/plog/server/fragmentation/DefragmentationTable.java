@@ -0,0 +1,315 @@
+package com.airbnb.plog.server.fragmentation;
+
+import com.airbnb.plog.server.stats.StatisticsReporter;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheStats;
+
+import java.util.BitSet;
+
+/**
+ * Incomplete messages by primitive message ID, in place of a {@code Cache<Long, FragmentedMessage>}:
+ * lookups neither box IDs nor allocate.
+ * <p>
+ * Keeps the semantics of a Guava cache with {@code maximumWeight} (message lengths),
+ * {@code expireAfterAccess} and the default concurrency level: 4 segments, each with its own lock,
+ * a quarter of the weight budget, an open-addressing table and an access-ordered list.
+ * With a single expiry time, access order is also expiry order, so that list serves both
+ * for evicting by weight and for expiring, in constant time per message.
+ * <p>
+ * A message over the weight budget of its segment on its own is kept, alone in its segment,
+ * rather than evicted as soon as added: any message fits, however large compared to the budget.
+ * <p>
+ * Evicted and expired messages are released, and their missing fragments accounted for;
+ * removed messages are left to the caller.
+ */
+final class DefragmentationTable {
+    private static final int SEGMENTS = 4;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    DefragmentationTable(StatisticsReporter stats, long maxWeight, long expireNanos, Ticker ticker) {
+        this(stats, maxWeight, expireNanos, ticker, false);
+    }
+
+    /**
+     * @param zeroCopy for messages that keep their fragments rather than copy them,
+     *                 see {@link FragmentedMessage#fromFragment(Fragment, StatisticsReporter, boolean)}
+     */
+    DefragmentationTable(StatisticsReporter stats, long maxWeight, long expireNanos, Ticker ticker, boolean zeroCopy) {
+        for (int i = 0; i < SEGMENTS; i++) {
+            // spreads the remainder, as Guava does
+            final long segmentWeight = maxWeight / SEGMENTS + (i < maxWeight % SEGMENTS ? 1 : 0);
+            segments[i] = new Segment(stats, segmentWeight, expireNanos, ticker, zeroCopy);
+        }
+    }
+
+    private static long mix(long msgId) {
+        // MurmurHash3 64-bit finalizer: message IDs are a port and a counter
+        long h = msgId;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> 62)];
+    }
+
+    /**
+     * @return the message, or null if absent
+     */
+    FragmentedMessage get(long msgId) {
+        final long hash = mix(msgId);
+        return segmentFor(hash).get(msgId, (int) hash);
+    }
+
+    /**
+     * @return the message of the fragment if already present, or null after adding it from the fragment
+     */
+    FragmentedMessage getOrAdd(Fragment fragment) {
+        final long hash = mix(fragment.getMsgId());
+        return segmentFor(hash).getOrAdd(fragment, (int) hash);
+    }
+
+    /**
+     * Removes a message without releasing it nor accounting for it.
+     */
+    void remove(long msgId) {
+        final long hash = mix(msgId);
+        segmentFor(hash).remove(msgId, (int) hash);
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    CacheStats stats() {
+        CacheStats stats = new CacheStats(0, 0, 0, 0, 0, 0);
+        for (Segment segment : segments) {
+            stats = stats.plus(segment.stats());
+        }
+        return stats;
+    }
+
+    private static final class Entry {
+        private final long msgId;
+        private final FragmentedMessage message;
+        private final int weight;
+        private long accessed;
+        // access order, least recently used first
+        private Entry previous;
+        private Entry next;
+
+        private Entry(long msgId, FragmentedMessage message, long accessed) {
+            this.msgId = msgId;
+            this.message = message;
+            this.weight = message.getContentLength();
+            this.accessed = accessed;
+        }
+    }
+
+    private static final class Segment {
+        private final StatisticsReporter stats;
+        private final long maxWeight;
+        private final long expireNanos;
+        private final Ticker ticker;
+        private final boolean zeroCopy;
+
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private Entry[] entries = new Entry[INITIAL_CAPACITY];
+        private int size = 0;
+        private long weight = 0;
+        private Entry head = null;
+        private Entry tail = null;
+
+        private long hits = 0;
+        private long misses = 0;
+        private long loads = 0;
+        private long evictions = 0;
+
+        private Segment(StatisticsReporter stats, long maxWeight, long expireNanos, Ticker ticker, boolean zeroCopy) {
+            this.stats = stats;
+            this.maxWeight = maxWeight;
+            this.expireNanos = expireNanos;
+            this.ticker = ticker;
+            this.zeroCopy = zeroCopy;
+        }
+
+        private synchronized FragmentedMessage get(long msgId, int hash) {
+            final long now = ticker.read();
+            expire(now);
+            final int slot = find(msgId, hash);
+            final Entry entry = entries[slot];
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            touch(entry, now);
+            return entry.message;
+        }
+
+        private synchronized FragmentedMessage getOrAdd(Fragment fragment, int hash) {
+            final long now = ticker.read();
+            expire(now);
+            final long msgId = fragment.getMsgId();
+            final int slot = find(msgId, hash);
+            final Entry existing = entries[slot];
+            if (existing != null) {
+                hits++;
+                touch(existing, now);
+                return existing.message;
+            }
+
+            misses++;
+            loads++;
+            final Entry entry = new Entry(msgId, FragmentedMessage.fromFragment(fragment, stats, zeroCopy), now);
+            keys[slot] = msgId;
+            entries[slot] = entry;
+            size++;
+            weight += entry.weight;
+            link(entry);
+            if (size > entries.length >>> 1) {
+                resize();
+            }
+            // never the new message itself, even if over the budget on its own
+            while (weight > maxWeight && head != entry) {
+                evict(head);
+            }
+            return null;
+        }
+
+        private synchronized void remove(long msgId, int hash) {
+            final int slot = find(msgId, hash);
+            final Entry entry = entries[slot];
+            if (entry != null) {
+                detach(slot, entry);
+            }
+        }
+
+        private synchronized int size() {
+            return size;
+        }
+
+        private synchronized CacheStats stats() {
+            return new CacheStats(hits, misses, loads, 0, 0, evictions);
+        }
+
+        private void expire(long now) {
+            while (head != null && now - head.accessed >= expireNanos) {
+                evict(head);
+            }
+        }
+
+        private void evict(Entry entry) {
+            detach(find(entry.msgId, (int) mix(entry.msgId)), entry);
+            evictions++;
+
+            final FragmentedMessage message = entry.message;
+            final int fragmentCount = message.getFragmentCount();
+            final BitSet receivedFragments = message.getReceivedFragments();
+            for (int idx = 0; idx < fragmentCount; idx++) {
+                if (!receivedFragments.get(idx)) {
+                    stats.missingFragmentInDroppedMessage(idx, fragmentCount);
+                }
+            }
+            message.release();
+        }
+
+        private void detach(int slot, Entry entry) {
+            delete(slot);
+            unlink(entry);
+            weight -= entry.weight;
+        }
+
+        /**
+         * @return the slot of the message, or the empty slot where it belongs
+         */
+        private int find(long msgId, int hash) {
+            final int mask = entries.length - 1;
+            int slot = hash & mask;
+            while (entries[slot] != null && keys[slot] != msgId) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * Linear probing deletion, shifting back later entries of the cluster that would
+         * otherwise become unreachable.
+         */
+        private void delete(int slot) {
+            final int mask = entries.length - 1;
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (entries[next] != null) {
+                final int home = (int) mix(keys[next]) & mask;
+                // move it if its home is not cyclically within (hole, next]
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    entries[hole] = entries[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            entries[hole] = null;
+            size--;
+        }
+
+        private void resize() {
+            final long[] oldKeys = keys;
+            final Entry[] oldEntries = entries;
+            keys = new long[oldKeys.length << 1];
+            entries = new Entry[oldEntries.length << 1];
+            for (int i = 0; i < oldEntries.length; i++) {
+                if (oldEntries[i] != null) {
+                    final int slot = find(oldKeys[i], (int) mix(oldKeys[i]));
+                    keys[slot] = oldKeys[i];
+                    entries[slot] = oldEntries[i];
+                }
+            }
+        }
+
+        private void touch(Entry entry, long now) {
+            entry.accessed = now;
+            if (entry != tail) {
+                unlink(entry);
+                link(entry);
+            }
+        }
+
+        private void link(Entry entry) {
+            entry.previous = tail;
+            entry.next = null;
+            if (tail == null) {
+                head = entry;
+            } else {
+                tail.next = entry;
+            }
+            tail = entry;
+        }
+
+        private void unlink(Entry entry) {
+            if (entry.previous == null) {
+                head = entry.next;
+            } else {
+                entry.previous.next = entry.next;
+            }
+            if (entry.next == null) {
+                tail = entry.previous;
+            } else {
+                entry.next.previous = entry.previous;
+            }
+            entry.previous = null;
+            entry.next = null;
+        }
+    }
+}
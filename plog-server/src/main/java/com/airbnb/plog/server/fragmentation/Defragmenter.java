@@ -2,28 +2,37 @@ package com.airbnb.plog.server.fragmentation;
 
 import com.airbnb.plog.MessageImpl;
 import com.airbnb.plog.common.Murmur3;
+import com.airbnb.plog.common.PayloadCompression;
 import com.airbnb.plog.server.packetloss.ListenerHoleDetector;
+import com.airbnb.plog.server.pipeline.FragmentHeader;
 import com.airbnb.plog.server.stats.StatisticsReporter;
-import com.google.common.cache.*;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheStats;
 import com.typesafe.config.Config;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.compression.DecompressionException;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.BitSet;
+import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
+@ChannelHandler.Sharable
 @Slf4j
 public final class Defragmenter extends MessageToMessageDecoder<Fragment> {
     private final StatisticsReporter stats;
-    private final Cache<Long, FragmentedMessage> incompleteMessages;
+    private final DefragmentationTable incompleteMessages;
     private final ListenerHoleDetector detector;
+    private final boolean decompress;
+    private final int maxDecompressedSize;
 
     public Defragmenter(final StatisticsReporter statisticsReporter, final Config config) {
         this.stats = statisticsReporter;
+        this.decompress = config.getBoolean("decompress");
+        this.maxDecompressedSize = config.getBytes("max_decompressed_size").intValue();
 
         final Config holeConfig = config.getConfig("detect_holes");
         if (holeConfig.getBoolean("enabled")) {
@@ -32,38 +41,11 @@ public final class Defragmenter extends MessageToMessageDecoder<Fragment> {
             detector = null;
         }
 
-        incompleteMessages = CacheBuilder.newBuilder()
-                .maximumWeight(config.getInt("max_size"))
-                .expireAfterAccess(config.getDuration("expire_time", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
-                .recordStats()
-                .weigher(new Weigher<Long, FragmentedMessage>() {
-                    @Override
-                    public int weigh(Long id, FragmentedMessage msg) {
-                        return msg.getContentLength();
-                    }
-                })
-                .removalListener(new RemovalListener<Long, FragmentedMessage>() {
-                    @Override
-                    public void onRemoval(RemovalNotification<Long, FragmentedMessage> notification) {
-                        if (notification.getCause() == RemovalCause.EXPLICIT) {
-                            return;
-                        }
-
-                        final FragmentedMessage message = notification.getValue();
-                        if (message == null) {
-                            return; // cannot happen with this cache, holds strong refs.
-                        }
-
-                        final int fragmentCount = message.getFragmentCount();
-                        final BitSet receivedFragments = message.getReceivedFragments();
-                        for (int idx = 0; idx < fragmentCount; idx++) {
-                            if (!receivedFragments.get(idx)) {
-                                stats.missingFragmentInDroppedMessage(idx, fragmentCount);
-                            }
-                        }
-                        message.release();
-                    }
-                }).build();
+        incompleteMessages = new DefragmentationTable(stats,
+                config.getInt("max_size"),
+                config.getDuration("expire_time", TimeUnit.NANOSECONDS),
+                Ticker.systemTicker(),
+                config.getBoolean("zero_copy"));
     }
 
     public CacheStats getCacheStats() {
@@ -74,62 +56,143 @@ public final class Defragmenter extends MessageToMessageDecoder<Fragment> {
     protected void decode(final ChannelHandlerContext ctx, final Fragment fragment, final List<Object> out)
             throws Exception {
         if (fragment.isAlone()) {
-            if (detector != null) {
-                detector.reportNewMessage(fragment.getMsgId());
-            }
-
             final ByteBuf payload = fragment.content();
-            final int computedHash = Murmur3.hash32(payload);
-
-            if (computedHash == fragment.getMsgHash()) {
-                payload.retain();
-                out.add(new MessageImpl(payload, fragment.getTags()));
-                this.stats.receivedV0MultipartMessage();
-            } else {
-                this.stats.receivedV0InvalidChecksum(1);
+            if (checkAlone(fragment.getMsgId(), fragment.getMsgHash(),
+                    payload, payload.readerIndex(), payload.readableBytes())) {
+                final MessageImpl message = toMessage(payload.retain(), fragment.getCompression(), fragment.getTags());
+                if (message != null) {
+                    out.add(message);
+                }
             }
         } else {
-            handleMultiFragment(fragment, out);
+            final MessageImpl message = handleMultiFragment(fragment);
+            if (message != null) {
+                out.add(message);
+            }
         }
     }
 
-    private void handleMultiFragment(final Fragment fragment, List<Object> out) throws java.util.concurrent.ExecutionException {
-        // 2 fragments or more
-        final long msgId = fragment.getMsgId();
-        final boolean[] isNew = {false};
-        final boolean complete;
+    /**
+     * Direct path from {@link com.airbnb.plog.server.pipeline.ProtocolDecoder}:
+     * messages of a single fragment are checked and forwarded straight from the packet.
+     * Messages are fired from {@code ctx}, the packet is neither retained nor released.
+     */
+    public void ingest(final ChannelHandlerContext ctx, final FragmentHeader header) {
+        if (header.isAlone()) {
+            final int index = header.getPayloadIndex();
+            final int length = header.getPayloadLength();
+            final ByteBuf content = header.getContent();
+            if (checkAlone(header.getMsgId(), header.getMsgHash(), content, index, length)) {
+                final MessageImpl message = toMessage(content.retainedSlice(index, length),
+                        header.getCompression(), header.readTags());
+                if (message != null) {
+                    ctx.fireChannelRead(message);
+                }
+            }
+        } else {
+            final MessageImpl message = handleMultiFragment(header.toFragment());
+            if (message != null) {
+                ctx.fireChannelRead(message);
+            }
+        }
+    }
 
-        final FragmentedMessage message = incompleteMessages.get(msgId, new Callable<FragmentedMessage>() {
-            @Override
-            public FragmentedMessage call() throws Exception {
-                isNew[0] = true;
+    /**
+     * Direct path from {@link com.airbnb.plog.server.pipeline.ProtocolDecoder} for parity fragments.
+     * They are sent after the data fragments of their message, so messages they do not find already
+     * completed (or were never coming): those are ignored.
+     */
+    public void ingestParity(final ChannelHandlerContext ctx, final FragmentHeader header) {
+        final FragmentedMessage message = incompleteMessages.get(header.getMsgId());
+        if (message == null || !message.ingestParity(header, this.stats)) {
+            return;
+        }
 
-                if (detector != null) {
-                    detector.reportNewMessage(fragment.getMsgId());
-                }
+        final MessageImpl completed = finish(message, header.getMsgId());
+        if (completed != null) {
+            ctx.fireChannelRead(completed);
+        }
+    }
 
-                return FragmentedMessage.fromFragment(fragment, Defragmenter.this.stats);
-            }
-        });
+    private boolean checkAlone(long msgId, int msgHash, ByteBuf content, int index, int length) {
+        if (detector != null) {
+            detector.reportNewMessage(msgId);
+        }
 
-        if (isNew[0]) {
-            complete = false; // new 2+ fragments, so cannot be complete
+        if (Murmur3.hash32(content, index, length) == msgHash) {
+            this.stats.receivedV0MultipartMessage();
+            return true;
         } else {
-            complete = message.ingestFragment(fragment, this.stats);
+            this.stats.receivedV0InvalidChecksum(1);
+            return false;
         }
+    }
 
-        if (complete) {
-            incompleteMessages.invalidate(fragment.getMsgId());
+    /**
+     * Decompresses checked payloads, unless configured to forward them compressed,
+     * in which case messages carry their compression.
+     *
+     * @param payload owned, released if decompressed or dropped
+     * @return null if the payload could not be decompressed
+     */
+    private MessageImpl toMessage(ByteBuf payload, int compression, Collection<String> tags) {
+        if (compression == PayloadCompression.NONE.getId()) {
+            return new MessageImpl(payload, tags);
+        }
+        if (!decompress) {
+            return new MessageImpl(payload, tags, null, compression);
+        }
 
-            final ByteBuf payload = message.getPayload();
+        try {
+            final ByteBuf decompressed = PayloadCompression.fromId(compression)
+                    .decompress(payload.alloc(), payload, maxDecompressedSize);
+            return new MessageImpl(decompressed, tags);
+        } catch (IllegalArgumentException e) {
+            log.debug("Unknown compression", e);
+            this.stats.receivedV0InvalidCompression();
+            return null;
+        } catch (DecompressionException e) {
+            log.debug("Could not decompress", e);
+            this.stats.receivedV0InvalidCompression();
+            return null;
+        } finally {
+            payload.release();
+        }
+    }
 
-            if (Murmur3.hash32(payload) == message.getChecksum()) {
-                out.add(new MessageImpl(payload, message.getTags()));
-                this.stats.receivedV0MultipartMessage();
-            } else {
-                message.release();
-                this.stats.receivedV0InvalidChecksum(message.getFragmentCount());
+    private MessageImpl handleMultiFragment(final Fragment fragment) {
+        // 2 fragments or more
+        final long msgId = fragment.getMsgId();
+        final FragmentedMessage message = incompleteMessages.getOrAdd(fragment);
+
+        if (message == null) {
+            // new 2+ fragments, so cannot be complete
+            if (detector != null) {
+                detector.reportNewMessage(msgId);
             }
+            return null;
+        }
+
+        if (!message.ingestFragment(fragment, this.stats)) {
+            return null;
+        }
+
+        return finish(message, msgId);
+    }
+
+    private MessageImpl finish(final FragmentedMessage message, final long msgId) {
+        incompleteMessages.remove(msgId);
+
+        final ByteBuf payload = message.getPayload();
+
+        // hashed as fragments came in
+        if (message.getPayloadHash() == message.getChecksum()) {
+            this.stats.receivedV0MultipartMessage();
+            return toMessage(payload, message.getCompression(), message.getTags());
+        } else {
+            message.release();
+            this.stats.receivedV0InvalidChecksum(message.getFragmentCount());
+            return null;
         }
     }
 }
@@ -1,9 +1,8 @@
 package com.airbnb.plog.server.fragmentation;
 
 import com.airbnb.plog.Tagged;
-import com.airbnb.plog.server.pipeline.ByteBufs;
-import com.google.common.base.Charsets;
-import com.google.common.base.Splitter;
+import com.airbnb.plog.server.pipeline.FragmentHeader;
+import com.airbnb.plog.server.pipeline.TagCache;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.DefaultByteBufHolder;
 import io.netty.channel.socket.DatagramPacket;
@@ -11,14 +10,11 @@ import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.ToString;
 
-import java.nio.ByteOrder;
 import java.util.Collection;
 import java.util.Collections;
 
 @ToString(exclude = {"tagsBuffer"})
 public final class Fragment extends DefaultByteBufHolder implements Tagged {
-    static final int HEADER_SIZE = 24;
-
     @Getter
     private final int fragmentCount;
     @Getter
@@ -31,6 +27,8 @@ public final class Fragment extends DefaultByteBufHolder implements Tagged {
     private final int totalLength;
     @Getter
     private final int msgHash;
+    @Getter
+    private final int compression;
 
     @Getter(AccessLevel.MODULE)
     private final ByteBuf tagsBuffer;
@@ -43,6 +41,18 @@ public final class Fragment extends DefaultByteBufHolder implements Tagged {
                     int msgHash,
                     ByteBuf data,
                     ByteBuf tagsBuffer) {
+        this(fragmentCount, fragmentIndex, fragmentSize, msgId, totalLength, msgHash, 0, data, tagsBuffer);
+    }
+
+    public Fragment(int fragmentCount,
+                    int fragmentIndex,
+                    int fragmentSize,
+                    long msgId,
+                    int totalLength,
+                    int msgHash,
+                    int compression,
+                    ByteBuf data,
+                    ByteBuf tagsBuffer) {
         super(data);
 
         this.fragmentCount = fragmentCount;
@@ -51,46 +61,20 @@ public final class Fragment extends DefaultByteBufHolder implements Tagged {
         this.msgId = msgId;
         this.totalLength = totalLength;
         this.msgHash = msgHash;
+        this.compression = compression;
         this.tagsBuffer = tagsBuffer;
     }
 
     public static Fragment fromDatagram(DatagramPacket packet) {
-        final ByteBuf content = packet.content().order(ByteOrder.BIG_ENDIAN);
-
-        final int length = content.readableBytes();
-        if (length < HEADER_SIZE) {
-            throw new IllegalArgumentException("Packet too short: " + length + " bytes");
-        }
-
-        final int fragmentCount = content.getUnsignedShort(2);
-        if (fragmentCount == 0) {
-            throw new IllegalArgumentException("0 fragment count");
-        }
-
-        final int fragmentIndex = content.getUnsignedShort(4);
-        if (fragmentIndex >= fragmentCount) {
-            throw new IllegalArgumentException("Index " + fragmentIndex + " < count " + fragmentCount);
-        }
-
-        final int fragmentSize = content.getUnsignedShort(6);
-        final int idRightPart = content.getInt(8);
-        final int totalLength = content.getInt(12);
-        if (totalLength < 0) {
-            throw new IllegalArgumentException("Cannot support length " + totalLength + " > 2^31");
-        }
-
-        final int msgHash = content.getInt(16);
-
-        final int tagsBufferLength = content.getUnsignedShort(20);
-        final ByteBuf tagsBuffer = tagsBufferLength == 0 ? null : content.slice(HEADER_SIZE, tagsBufferLength);
-
-        final int payloadLength = length - HEADER_SIZE - tagsBufferLength;
-        final ByteBuf payload = content.slice(HEADER_SIZE + tagsBufferLength, payloadLength);
-
-        final int port = packet.sender().getPort();
-        final long msgId = (((long) port) << Integer.SIZE) + idRightPart;
+        return fromContent(packet.content(), packet.sender().getPort());
+    }
 
-        return new Fragment(fragmentCount, fragmentIndex, fragmentSize, msgId, totalLength, msgHash, payload, tagsBuffer);
+    /**
+     * @param source identifies the sender, as clients only keep message IDs unique on their own.
+     *               For UDP, the sender port.
+     */
+    public static Fragment fromContent(ByteBuf packetContent, int source) {
+        return new FragmentHeader().wrap(packetContent, source).toFragment();
     }
 
     boolean isAlone() {
@@ -102,7 +86,6 @@ public final class Fragment extends DefaultByteBufHolder implements Tagged {
         if (tagsBuffer == null) {
             return Collections.emptyList();
         }
-        final String seq = new String(ByteBufs.toByteArray(tagsBuffer), Charsets.UTF_8);
-        return Splitter.on('\0').omitEmptyStrings().splitToList(seq);
+        return TagCache.decode(tagsBuffer);
     }
 }
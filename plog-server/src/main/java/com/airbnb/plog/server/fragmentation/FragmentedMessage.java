@@ -1,10 +1,16 @@
 package com.airbnb.plog.server.fragmentation;
 
 import com.airbnb.plog.Tagged;
+import com.airbnb.plog.common.Murmur3Hasher;
+import com.airbnb.plog.server.pipeline.ByteBufs;
+import com.airbnb.plog.server.pipeline.FragmentHeader;
+import com.airbnb.plog.server.pipeline.TagCache;
 import com.airbnb.plog.server.stats.StatisticsReporter;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.buffer.Unpooled;
 import lombok.Getter;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
@@ -13,7 +19,7 @@ import java.util.BitSet;
 import java.util.Collection;
 
 @Slf4j
-@ToString
+@ToString(exclude = {"lastTags", "parities", "hasher"})
 public final class FragmentedMessage extends DefaultByteBufHolder implements Tagged {
     @Getter
     private final BitSet receivedFragments;
@@ -24,29 +30,63 @@ public final class FragmentedMessage extends DefaultByteBufHolder implements Tag
     @Getter
     private final int checksum;
     @Getter
+    private final int compression;
+    @Getter
     private boolean complete = false;
     @Getter
     private Collection<String> tags = null;
+    private final int totalLength;
+    // content is then a composite of the received fragments, in order, rather than a buffer of the whole message
+    private final boolean zeroCopy;
+
+    // payload hash of the fragments before hashedFragments, folded in as soon as they line up
+    // so that it is ready on completion; both guarded by receivedFragments
+    private final Murmur3Hasher hasher = new Murmur3Hasher();
+    private int hashedFragments = 0;
+
+    // raw tags of the last fragment, part of its body for parity
+    private byte[] lastTags = null;
+    // parity fragment bodies by group, until used or their group is complete; all guarded by receivedFragments
+    private byte[][] parities = null;
+    private int parityGroupSize = 0;
+    private int lastTagsLength = 0;
 
     private FragmentedMessage(ByteBufAllocator alloc,
                               final int totalLength,
                               final int fragmentCount,
                               final int fragmentSize,
-                              final int hash) {
-        super(alloc.buffer(totalLength, totalLength));
+                              final int hash,
+                              final int compression,
+                              final boolean zeroCopy) {
+        super(zeroCopy ? alloc.compositeBuffer(fragmentCount) : alloc.buffer(totalLength, totalLength));
+        this.totalLength = totalLength;
+        this.zeroCopy = zeroCopy;
         this.receivedFragments = new BitSet(fragmentCount);
         this.fragmentCount = fragmentCount;
         this.fragmentSize = fragmentSize;
         this.checksum = hash;
+        this.compression = compression;
     }
 
     public static FragmentedMessage fromFragment(final Fragment fragment, StatisticsReporter stats) {
+        return fromFragment(fragment, stats, false);
+    }
+
+    /**
+     * @param zeroCopy to keep retained slices of the fragments (and so their packets) until the message
+     *                 is released, rather than copying them into a buffer allocated for the whole message
+     */
+    public static FragmentedMessage fromFragment(final Fragment fragment,
+                                                 StatisticsReporter stats,
+                                                 boolean zeroCopy) {
         final FragmentedMessage msg = new FragmentedMessage(
                 fragment.content().alloc(),
                 fragment.getTotalLength(),
                 fragment.getFragmentCount(),
                 fragment.getFragmentSize(),
-                fragment.getMsgHash());
+                fragment.getMsgHash(),
+                fragment.getCompression(),
+                zeroCopy);
         msg.ingestFragment(fragment, stats);
         return msg;
     }
@@ -73,6 +113,7 @@ public final class FragmentedMessage extends DefaultByteBufHolder implements Tag
         if (this.getFragmentSize() != fragmentSize ||
                 this.getFragmentCount() != fragmentCount ||
                 this.getChecksum() != msgHash ||
+                this.getCompression() != fragment.getCompression() ||
                 !validFragmentLength) {
             log.warn("Invalid {} for {}", fragment, this);
             stats.receivedV0InvalidMultipartFragment(fragmentIndex, this.getFragmentCount());
@@ -81,23 +122,230 @@ public final class FragmentedMessage extends DefaultByteBufHolder implements Tag
 
         if (fragmentTagsBuffer != null) {
             this.tags = fragment.getTags();
+            this.lastTags = ByteBufs.toByteArray(fragmentTagsBuffer);
         }
 
-        boolean justCompleted = false;
+        if (zeroCopy) {
+            synchronized (receivedFragments) {
+                // a duplicate would be a second component for the same bytes
+                if (!receivedFragments.get(fragmentIndex)) {
+                    components().addComponent(true, componentIndex(fragmentIndex),
+                            fragmentPayload.retainedSlice(0, lengthOfCurrentFragment));
+                }
+                return received(fragmentIndex, stats);
+            }
+        }
 
-        // valid fragment
+        // valid fragment, copied before being marked received so that
+        // whoever completes the message sees every fragment's bytes
+        content().setBytes(foffset, fragmentPayload, 0, lengthOfCurrentFragment);
         synchronized (receivedFragments) {
-            receivedFragments.set(fragmentIndex);
-            if (receivedFragments.cardinality() == this.fragmentCount) {
-                justCompleted = true;
-                this.complete = true;
+            return received(fragmentIndex, stats);
+        }
+    }
+
+    /**
+     * Called with receivedFragments held, once the fragment bytes are in.
+     *
+     * @return true if this completed the message
+     */
+    private boolean received(int fragmentIndex, StatisticsReporter stats) {
+        receivedFragments.set(fragmentIndex);
+        if (parities != null) {
+            recover(fragmentIndex / parityGroupSize, stats);
+        }
+        return checkCompletion();
+    }
+
+    /**
+     * Hashes the fragments that now follow those already hashed: in order, the one just received,
+     * otherwise nothing until the gap is filled. Called with receivedFragments held.
+     */
+    private void foldHash() {
+        while (hashedFragments < fragmentCount && receivedFragments.get(hashedFragments)) {
+            final int offset = fragmentSize * hashedFragments;
+            final int length = Math.min(fragmentSize, totalLength - offset);
+            if (zeroCopy) {
+                // all fragments before it are in, so is its component index
+                hasher.update(components().internalComponent(hashedFragments), 0, length);
+            } else {
+                hasher.update(content(), offset, length);
             }
+            hashedFragments++;
         }
-        content().setBytes(foffset, fragmentPayload, 0, lengthOfCurrentFragment);
+    }
+
+    private CompositeByteBuf components() {
+        return (CompositeByteBuf) content();
+    }
+
+    /**
+     * In zero-copy mode, where fragments are kept in order as components.
+     * Called with receivedFragments held.
+     *
+     * @return the component index of a received fragment, or where a missing one belongs
+     */
+    private int componentIndex(int fragmentIndex) {
+        if (receivedFragments.nextSetBit(fragmentIndex) < 0) {
+            // in order, or at least nothing after it yet
+            return components().numComponents();
+        }
+        int before = 0;
+        for (int idx = receivedFragments.nextSetBit(0); idx >= 0 && idx < fragmentIndex;
+             idx = receivedFragments.nextSetBit(idx + 1)) {
+            before++;
+        }
+        return before;
+    }
+
+    /**
+     * Puts recovered bytes of a fragment in place. Called with receivedFragments held.
+     */
+    private void putFragment(int fragmentIndex, byte[] bytes, int offset, int length) {
+        if (zeroCopy) {
+            components().addComponent(true, componentIndex(fragmentIndex),
+                    Unpooled.wrappedBuffer(bytes, offset, length));
+        } else {
+            content().setBytes(fragmentSize * fragmentIndex, bytes, offset, length);
+        }
+    }
 
-        return justCompleted;
+    /**
+     * Keeps the XOR parity of a group of fragments until it can rebuild the only one missing.
+     *
+     * @param parity read from the packet, neither retained nor released
+     * @return true if this completed the message
+     */
+    public final boolean ingestParity(final FragmentHeader parity, StatisticsReporter stats) {
+        final int groupSize = parity.getParityGroupSize();
+        final int group = parity.getFragmentIndex();
+
+        if (this.getFragmentSize() != parity.getFragmentSize() ||
+                this.getFragmentCount() != parity.getFragmentCount() ||
+                this.getChecksum() != parity.getMsgHash() ||
+                this.getCompression() != parity.getCompression() ||
+                this.getContentLength() != parity.getTotalLength() ||
+                group * groupSize >= this.fragmentCount ||
+                (this.parityGroupSize != 0 && this.parityGroupSize != groupSize)) {
+            log.warn("Invalid {} for {}", parity, this);
+            stats.receivedV0InvalidParityFragment();
+            return false;
+        }
+
+        synchronized (receivedFragments) {
+            if (parities == null) {
+                this.parityGroupSize = groupSize;
+                this.lastTagsLength = parity.getTagsLength();
+                this.parities = new byte[(fragmentCount + groupSize - 1) / groupSize][];
+            }
+            if (missingIn(group) == 0) {
+                return false;
+            }
+            final ByteBuf body = parity.getContent();
+            parities[group] = new byte[fragmentSize];
+            body.getBytes(parity.getPayloadIndex(), parities[group]);
+            recover(group, stats);
+            return checkCompletion();
+        }
     }
 
+    private int missingIn(int group) {
+        final int first = group * parityGroupSize;
+        final int end = Math.min(first + parityGroupSize, fragmentCount);
+        return end - first - receivedFragments.get(first, end).cardinality();
+    }
+
+    /**
+     * Rebuilds the missing fragment of a group once its parity and all its other fragments are in.
+     * Called with receivedFragments held.
+     */
+    private void recover(int group, StatisticsReporter stats) {
+        final byte[] parity = parities[group];
+        if (parity == null) {
+            return;
+        }
+        final int missing = missingIn(group);
+        if (missing > 1) {
+            return;
+        }
+        parities[group] = null;
+        if (missing == 0) {
+            return;
+        }
+
+        final int first = group * parityGroupSize;
+        final int end = Math.min(first + parityGroupSize, fragmentCount);
+        final int lost = receivedFragments.nextClearBit(first);
+        for (int idx = first; idx < end; idx++) {
+            if (idx != lost) {
+                xorBody(idx, parity);
+            }
+        }
+
+        final int lastIndex = fragmentCount - 1;
+        if (lost == lastIndex) {
+            final int payloadLength = getContentLength() - fragmentSize * lastIndex;
+            if (lastTagsLength + payloadLength > fragmentSize) {
+                log.warn("Cannot recover fragment {} of {}", lost, this);
+                stats.receivedV0InvalidParityFragment();
+                return;
+            }
+            if (lastTagsLength > 0) {
+                this.tags = TagCache.decode(Unpooled.wrappedBuffer(parity, 0, lastTagsLength));
+            }
+            putFragment(lost, parity, lastTagsLength, payloadLength);
+        } else {
+            putFragment(lost, parity, 0, fragmentSize);
+        }
+        receivedFragments.set(lost);
+        stats.recoveredV0Fragment();
+    }
+
+    /**
+     * XORs the body of a received fragment, as it was sent (tags then payload), into a parity.
+     */
+    private void xorBody(int index, byte[] parity) {
+        final int offset = fragmentSize * index;
+        final ByteBuf body;
+        final int bodyOffset;
+        if (zeroCopy) {
+            body = components().internalComponent(componentIndex(index));
+            bodyOffset = 0;
+        } else {
+            body = content();
+            bodyOffset = offset;
+        }
+        int into = 0;
+        if (index == fragmentCount - 1 && lastTags != null) {
+            for (int i = 0; i < lastTags.length && into < parity.length; i++) {
+                parity[into++] ^= lastTags[i];
+            }
+        }
+        // bodies over the fragment size cannot be valid, the checksum will tell
+        final int length = Math.min(parity.length - into, Math.min(fragmentSize, getContentLength() - offset));
+        for (int i = 0; i < length; i++) {
+            parity[into++] ^= body.getByte(bodyOffset + i);
+        }
+    }
+
+    /**
+     * Called with receivedFragments held.
+     *
+     * @return true the first time all fragments are in
+     */
+    private boolean checkCompletion() {
+        // every path that adds fragments ends here
+        foldHash();
+        if (!this.complete && receivedFragments.cardinality() == this.fragmentCount) {
+            this.complete = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the whole message: in zero-copy mode, a {@link CompositeByteBuf} of the fragments
+     */
     public final ByteBuf getPayload() {
         if (!isComplete()) {
             throw new IllegalStateException("Incomplete");
@@ -108,7 +356,20 @@ public final class FragmentedMessage extends DefaultByteBufHolder implements Tag
         return content();
     }
 
+    /**
+     * @return the Murmur3 hash of the whole message, to compare with its checksum
+     */
+    public final int getPayloadHash() {
+        if (!isComplete()) {
+            throw new IllegalStateException("Incomplete");
+        }
+
+        synchronized (receivedFragments) {
+            return hasher.hash();
+        }
+    }
+
     public final int getContentLength() {
-        return content().capacity();
+        return totalLength;
     }
 }
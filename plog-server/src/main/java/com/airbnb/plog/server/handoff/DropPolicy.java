@@ -0,0 +1,21 @@
+package com.airbnb.plog.server.handoff;
+
+import com.typesafe.config.Config;
+
+/**
+ * What a full {@link HandoffRing} does with packets.
+ */
+public enum DropPolicy {
+    /**
+     * Reject the incoming packet.
+     */
+    DROP_NEWEST,
+    /**
+     * Evict the oldest queued packets to make room for the incoming one.
+     */
+    DROP_OLDEST;
+
+    public static DropPolicy fromConfig(Config config, String path) {
+        return valueOf(config.getString(path).toUpperCase());
+    }
+}
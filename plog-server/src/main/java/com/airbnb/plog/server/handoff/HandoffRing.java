@@ -0,0 +1,275 @@
+package com.airbnb.plog.server.handoff;
+
+import com.airbnb.plog.server.stats.StatisticsReporter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded single-producer, multi-consumer ring between a reading thread and worker threads.
+ * <p>
+ * Bounded both by item count and by the bytes retained by the items' buffers,
+ * so stalled consumers cannot pile up pooled receive buffers.
+ * Items sharing a buffer each count it whole, overestimating rather than letting it slip through.
+ * Items that cannot be queued are released and counted as drops.
+ * <p>
+ * {@link #offer} must only ever be called from a single thread.
+ */
+@Slf4j
+public final class HandoffRing<T extends ByteBufHolder> {
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    // bounds how long a blocked consumer can miss a close()
+    private static final long BLOCKING_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AtomicReferenceArray<T> slots;
+    // when each slot was published, read by consumers to measure wakeup latency
+    private final long[] offeredAt;
+    private final int mask;
+    @Getter
+    private final long maxBytes;
+    @Getter
+    private final WaitStrategy waitStrategy;
+    @Getter
+    private final DropPolicy dropPolicy;
+    private final StatisticsReporter stats;
+
+    // next sequence to consume, claimed by consumers (and the producer when dropping the oldest)
+    private final AtomicLong head = new AtomicLong();
+    // next sequence to publish, only written by the producer
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final AtomicInteger waitingConsumers = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    public HandoffRing(int capacity,
+                       long maxBytes,
+                       WaitStrategy waitStrategy,
+                       DropPolicy dropPolicy,
+                       StatisticsReporter stats) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("Invalid maximum bytes " + maxBytes);
+        }
+
+        final int roundedCapacity = Integer.highestOneBit(capacity) == capacity ?
+                capacity : Integer.highestOneBit(capacity) << 1;
+        this.slots = new AtomicReferenceArray<T>(roundedCapacity);
+        this.offeredAt = new long[roundedCapacity];
+        this.mask = roundedCapacity - 1;
+        this.maxBytes = maxBytes;
+        this.waitStrategy = waitStrategy;
+        this.dropPolicy = dropPolicy;
+        this.stats = stats;
+    }
+
+    private static int weigh(ByteBufHolder item) {
+        // what we hold on to is the whole buffer, not just its readable bytes,
+        // and datagrams read with recvmmsg or UDP_GRO are slices of a shared, larger buffer
+        final ByteBuf content = item.content();
+        final ByteBuf unwrapped = content.unwrap();
+        return unwrapped == null ? content.capacity() : unwrapped.capacity();
+    }
+
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /**
+     * Queue an item, taking ownership of it.
+     *
+     * @return false if the item was dropped (and released)
+     */
+    public boolean offer(T item) {
+        if (closed) {
+            item.release();
+            return false;
+        }
+
+        final int weight = weigh(item);
+        final long sequence = tail.get();
+
+        if (isFull(sequence, weight) && !makeRoom(sequence, weight)) {
+            item.release();
+            return false;
+        }
+
+        retainedBytes.addAndGet(weight);
+        offeredAt[(int) sequence & mask] = System.nanoTime();
+        slots.set((int) sequence & mask, item);
+        tail.set(sequence + 1);
+
+        if (waitStrategy == WaitStrategy.BLOCKING && waitingConsumers.get() > 0) {
+            lock.lock();
+            try {
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return true;
+    }
+
+    private boolean isFull(long sequence, int weight) {
+        return sequence - head.get() >= slots.length() ||
+                retainedBytes.get() + weight > maxBytes;
+    }
+
+    private boolean makeRoom(long sequence, int weight) {
+        if (dropPolicy == DropPolicy.DROP_NEWEST || weight > maxBytes) {
+            reportDrop(sequence);
+            return false;
+        }
+
+        while (isFull(sequence, weight)) {
+            final T oldest = poll();
+            if (oldest == null) {
+                break; // consumers emptied the ring in the meantime
+            }
+            reportDrop(sequence);
+            oldest.release();
+        }
+        return true;
+    }
+
+    private void reportDrop(long sequence) {
+        if (sequence - head.get() >= slots.length()) {
+            stats.droppedPacketOverHandoffCapacity();
+        } else {
+            stats.droppedPacketOverHandoffMemory();
+        }
+    }
+
+    /**
+     * @return the oldest item, or null if empty
+     */
+    public T poll() {
+        return poll(false);
+    }
+
+    /**
+     * @param idled whether the consumer had to wait, so the time since the item was offered
+     *              is how long it took to wake up
+     */
+    private T poll(boolean idled) {
+        while (true) {
+            final long sequence = head.get();
+            if (sequence >= tail.get()) {
+                return null;
+            }
+
+            final int index = (int) sequence & mask;
+            final T item = slots.get(index);
+            final long itemOfferedAt = offeredAt[index];
+            // head is monotonic: if we claim the sequence, the slot was not recycled under us
+            if (head.compareAndSet(sequence, sequence + 1)) {
+                // fails harmlessly if the producer already recycled the slot
+                slots.compareAndSet(index, item, null);
+                retainedBytes.addAndGet(-weigh(item));
+                if (idled) {
+                    stats.wokeUpHandoffConsumer(System.nanoTime() - itemOfferedAt);
+                }
+                return item;
+            }
+        }
+    }
+
+    /**
+     * Wait for the oldest item according to the wait strategy.
+     *
+     * @return the oldest item, or null once closed and drained
+     */
+    public T take() throws InterruptedException {
+        int idleRounds = 0;
+        while (true) {
+            final T item = poll(idleRounds > 0);
+            if (item != null) {
+                return item;
+            }
+            if (closed) {
+                return null;
+            }
+            idle(idleRounds++);
+        }
+    }
+
+    private void idle(int idleRounds) throws InterruptedException {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                break;
+            case YIELDING:
+                if (idleRounds > SPIN_TRIES) {
+                    Thread.yield();
+                }
+                break;
+            case SLEEPING:
+                if (idleRounds > SPIN_TRIES + YIELD_TRIES) {
+                    LockSupport.parkNanos(SLEEP_NANOS);
+                } else if (idleRounds > SPIN_TRIES) {
+                    Thread.yield();
+                }
+                break;
+            default:
+                awaitNotEmpty();
+        }
+    }
+
+    private void awaitNotEmpty() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            // announce ourselves before checking, so the producer cannot miss us
+            waitingConsumers.incrementAndGet();
+            try {
+                if (head.get() >= tail.get() && !closed) {
+                    notEmpty.awaitNanos(BLOCKING_TIMEOUT_NANOS);
+                }
+            } finally {
+                waitingConsumers.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting items, wake up consumers and release what is left.
+     */
+    public void close() {
+        closed = true;
+
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        T item;
+        while ((item = poll()) != null) {
+            item.release();
+        }
+    }
+}
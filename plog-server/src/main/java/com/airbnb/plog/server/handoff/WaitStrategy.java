@@ -0,0 +1,30 @@
+package com.airbnb.plog.server.handoff;
+
+import com.typesafe.config.Config;
+
+/**
+ * How idle workers wait for the next packet of a {@link HandoffRing}.
+ */
+public enum WaitStrategy {
+    /**
+     * Park until the reader signals, cheapest on CPU.
+     */
+    BLOCKING,
+    /**
+     * Spin, then yield, then park for 50us at a time. No signalling cost for the reader,
+     * and wakeups bounded by the park. Used by {@code low_latency} listeners.
+     */
+    SLEEPING,
+    /**
+     * Spin, then yield. Low latency, burns a core per idle worker.
+     */
+    YIELDING,
+    /**
+     * Spin. Lowest latency, burns a core per idle worker.
+     */
+    BUSY_SPIN;
+
+    public static WaitStrategy fromConfig(Config config, String path) {
+        return valueOf(config.getString(path).toUpperCase());
+    }
+}
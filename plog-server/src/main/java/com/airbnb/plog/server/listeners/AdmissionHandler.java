@@ -0,0 +1,90 @@
+package com.airbnb.plog.server.listeners;
+
+import com.airbnb.plog.server.admission.TokenBucketTable;
+import com.airbnb.plog.server.stats.StatisticsReporter;
+import com.typesafe.config.Config;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.DatagramPacket;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drops datagrams from senders (IP and port) going over their packet or byte rate,
+ * and datagrams going over the listener's global rates, before anything else looks at them.
+ */
+final class AdmissionHandler extends ChannelInboundHandlerAdapter {
+    private static final long GLOBAL_KEY = 1;
+
+    private final StatisticsReporter stats;
+    private final TokenBucketTable sources;
+    private final TokenBucketTable global;
+    // evictions of sources already reported
+    private long sourceEvictions = 0;
+
+    /**
+     * @param share fraction of the global rates enforced by this handler,
+     *              as every socket of the listener gets its own
+     */
+    AdmissionHandler(Config config, double share, StatisticsReporter stats) {
+        this.stats = stats;
+        final long burst = config.getDuration("burst", TimeUnit.NANOSECONDS);
+        this.sources = new TokenBucketTable(config.getInt("sources"),
+                config.getLong("packets_per_second"),
+                config.getBytes("bytes_per_second"),
+                burst);
+
+        final Config globalConfig = config.getConfig("global");
+        this.global = new TokenBucketTable(1,
+                (long) Math.ceil(globalConfig.getLong("packets_per_second") * share),
+                (long) Math.ceil(globalConfig.getBytes("bytes_per_second") * share),
+                burst);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof DatagramPacket)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        final DatagramPacket packet = (DatagramPacket) msg;
+        final int size = packet.content().readableBytes();
+        final long now = System.nanoTime();
+
+        if (!sources.isUnlimited()) {
+            final TokenBucketTable.Admission admission =
+                    sources.admit(TokenBucketTable.keyOf(packet.sender()), size, now);
+            if (sources.getEvictions() != sourceEvictions) {
+                // at most one per admission
+                sourceEvictions = sources.getEvictions();
+                stats.evictedAdmissionSource();
+            }
+            switch (admission) {
+                case OVER_PACKETS:
+                    stats.droppedPacketOverSourceRate();
+                    packet.release();
+                    return;
+                case OVER_BYTES:
+                    stats.droppedPacketOverSourceBandwidth();
+                    packet.release();
+                    return;
+            }
+        }
+
+        if (!global.isUnlimited()) {
+            switch (global.admit(GLOBAL_KEY, size, now)) {
+                case OVER_PACKETS:
+                    stats.droppedPacketOverGlobalRate();
+                    packet.release();
+                    return;
+                case OVER_BYTES:
+                    stats.droppedPacketOverGlobalBandwidth();
+                    packet.release();
+                    return;
+            }
+        }
+
+        ctx.fireChannelRead(packet);
+    }
+}
@@ -0,0 +1,120 @@
+package com.airbnb.plog.server.listeners;
+
+import com.airbnb.plog.server.backpressure.BackpressureHandler;
+import com.typesafe.config.Config;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Listeners accepting TCP connections, on their own or shared {@link TCPEventLoops},
+ * with backpressure.
+ */
+abstract class ConnectionListener extends Listener {
+    private final TCPEventLoops sharedEventLoops;
+    private final ChannelGroup connections = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private TCPEventLoops ownEventLoops = null;
+    // scheduled on the boss loop, which shared event loops keep running after we stop
+    private ScheduledFuture<?> backpressurePolling = null;
+
+    /**
+     * @param sharedEventLoops used if {@code event_loops.shared} is set
+     */
+    ConnectionListener(Config config, TCPEventLoops sharedEventLoops) {
+        super(config);
+        this.sharedEventLoops = sharedEventLoops;
+    }
+
+    /**
+     * Decoders turning what a connection reads into messages, before the handlers.
+     */
+    abstract void initConnection(ChannelPipeline pipeline) throws Exception;
+
+    @Override
+    protected StartReturn start() {
+        final Config config = getConfig();
+
+        final Config eventLoopsConfig = config.getConfig("event_loops");
+        final TCPEventLoops eventLoops;
+        if (eventLoopsConfig.getBoolean("shared")) {
+            if (sharedEventLoops == null) {
+                throw new IllegalStateException("No shared event loops provided");
+            }
+            eventLoops = sharedEventLoops;
+        } else {
+            ownEventLoops = new TCPEventLoops(eventLoopsConfig);
+            eventLoops = ownEventLoops;
+        }
+        getStats().withEventLoopGroup("boss", eventLoops.getBoss());
+        getStats().withEventLoopGroup("worker", eventLoops.getWorker());
+
+        final BackpressureHandler backpressure;
+        if (config.getBoolean("backpressure.enabled")) {
+            backpressure = new BackpressureHandler(config.getConfig("backpressure"), getSaturables(), getStats());
+            getStats().withBackpressure(backpressure);
+            backpressurePolling = backpressure.start(eventLoops.getBoss().next());
+        } else {
+            backpressure = null;
+        }
+
+        final ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(eventLoops.getBoss(), eventLoops.getWorker())
+                .channel(eventLoops.getServerChannelClass())
+                .option(ChannelOption.SO_REUSEADDR, true)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+
+        if (eventLoops.isEpoll()) {
+            final int fastOpen = config.getInt("TCP_FASTOPEN");
+            if (fastOpen > 0) {
+                bootstrap.option(ChannelOption.TCP_FASTOPEN, fastOpen);
+            }
+            if (config.getBoolean("TCP_QUICKACK")) {
+                bootstrap.childOption(EpollChannelOption.TCP_QUICKACK, true);
+            }
+        }
+
+        final ChannelFuture bindFuture = bootstrap
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) throws Exception {
+                        connections.add(channel);
+                        final ChannelPipeline pipeline = channel.pipeline();
+                        if (backpressure != null) {
+                            pipeline.addLast(backpressure);
+                        }
+                        initConnection(pipeline);
+                        finalizePipeline(pipeline);
+                    }
+                }).bind(new InetSocketAddress(config.getString("host"), config.getInt("port")));
+        connections.add(bindFuture.channel());
+
+        // with its own event loops, the listener shuts down the worker loops when stopping
+        return new StartReturn(bindFuture, ownEventLoops == null ? null : ownEventLoops.getWorker());
+    }
+
+    @Override
+    protected void doStop() {
+        if (backpressurePolling != null) {
+            backpressurePolling.cancel(false);
+        }
+        connections.close();
+        if (ownEventLoops != null) {
+            ownEventLoops.getBoss().shutdownGracefully();
+        }
+        super.doStop();
+    }
+}
@@ -0,0 +1,58 @@
+package com.airbnb.plog.server.listeners;
+
+import com.typesafe.config.Config;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.SnappyFrameDecoder;
+import io.netty.handler.codec.http.HttpContentDecompressor;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+
+/**
+ * Accepts POST requests of many messages each, for senders that cannot use UDP
+ * and open short-lived connections. See {@link HttpBulkDecoder}.
+ * <p>
+ * Request bodies can be compressed with gzip, deflate or snappy (framing format).
+ */
+public final class HTTPListener extends ConnectionListener {
+    private final HttpBulkDecoder bulkDecoder;
+    private final int maxBody;
+
+    public HTTPListener(Config config) {
+        this(config, null);
+    }
+
+    /**
+     * @param sharedEventLoops used if {@code event_loops.shared} is set
+     */
+    public HTTPListener(Config config, TCPEventLoops sharedEventLoops) {
+        super(config, sharedEventLoops);
+        final String framing = config.getString("framing");
+        if (!"line".equals(framing) && !"length_prefixed".equals(framing)) {
+            throw new IllegalArgumentException("Unknown framing " + framing);
+        }
+        this.bulkDecoder = new HttpBulkDecoder(framing, config.getInt("max_line"));
+        this.maxBody = config.getBytes("max_body").intValue();
+    }
+
+    @Override
+    void initConnection(ChannelPipeline pipeline) throws Exception {
+        pipeline
+                .addLast(new HttpServerCodec())
+                .addLast(new SnappyContentDecompressor())
+                // decompressed chunks are assembled without copies
+                .addLast(new HttpObjectAggregator(maxBody))
+                .addLast(bulkDecoder);
+    }
+
+    private static final class SnappyContentDecompressor extends HttpContentDecompressor {
+        @Override
+        protected EmbeddedChannel newContentDecoder(String contentEncoding) throws Exception {
+            if ("snappy".equalsIgnoreCase(contentEncoding) || "x-snappy-framed".equalsIgnoreCase(contentEncoding)) {
+                return new EmbeddedChannel(ctx.channel().id(), ctx.channel().metadata().hasDisconnect(),
+                        ctx.channel().config(), new SnappyFrameDecoder());
+            }
+            return super.newContentDecoder(contentEncoding);
+        }
+    }
+}
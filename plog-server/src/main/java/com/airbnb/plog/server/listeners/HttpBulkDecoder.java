@@ -0,0 +1,189 @@
+package com.airbnb.plog.server.listeners;
+
+import com.airbnb.plog.MessageImpl;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Turns every record of a POST request body into a message, in a single pass over the body,
+ * and answers once handlers are done with them.
+ * <p>
+ * Records are lines, or length-prefixed frames with tags (as the {@code length_prefixed} TCP framing),
+ * depending on the listener's {@code framing} or the request's {@code framing} query parameter.
+ * All records get the tags of the request: {@code tag} query parameters,
+ * and the comma-separated {@code X-Plog-Tags} header.
+ * <p>
+ * Answers 204 with the number of messages and of records dropped for being too long
+ * ({@code X-Plog-Messages}, {@code X-Plog-Dropped}), or 400 if the body is corrupted
+ * (messages before the corruption are kept).
+ */
+@Slf4j
+@ChannelHandler.Sharable
+@RequiredArgsConstructor
+final class HttpBulkDecoder extends SimpleChannelInboundHandler<FullHttpRequest> {
+    static final String TAGS_HEADER = "X-Plog-Tags";
+    static final String MESSAGES_HEADER = "X-Plog-Messages";
+    static final String DROPPED_HEADER = "X-Plog-Dropped";
+
+    private static final Splitter HEADER_TAG_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+    private static final Splitter FRAME_TAG_SPLITTER = Splitter.on('\0').omitEmptyStrings();
+
+    private final String framing;
+    private final int maxLength;
+
+    private static void respond(ChannelHandlerContext ctx, FullHttpRequest request, FullHttpResponse response) {
+        final boolean keepAlive = HttpUtil.isKeepAlive(request) && response.status().code() < 400;
+        HttpUtil.setKeepAlive(response, keepAlive);
+        if (keepAlive) {
+            ctx.writeAndFlush(response);
+        } else {
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    private static FullHttpResponse error(HttpResponseStatus status, String reason) {
+        final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status,
+                Unpooled.copiedBuffer(reason + "\n", Charsets.UTF_8));
+        HttpUtil.setContentLength(response, response.content().readableBytes());
+        return response;
+    }
+
+    private static Collection<String> requestTags(FullHttpRequest request, QueryStringDecoder query) {
+        final ImmutableList.Builder<String> tags = ImmutableList.builder();
+        final List<String> queryTags = query.parameters().get("tag");
+        if (queryTags != null) {
+            tags.addAll(queryTags);
+        }
+        for (String header : request.headers().getAll(TAGS_HEADER)) {
+            tags.addAll(HEADER_TAG_SPLITTER.split(header));
+        }
+        return tags.build();
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
+        if (request.decoderResult().isFailure()) {
+            respond(ctx, request, error(HttpResponseStatus.BAD_REQUEST, "Invalid request"));
+            return;
+        }
+        if (!HttpMethod.POST.equals(request.method())) {
+            respond(ctx, request, error(HttpResponseStatus.METHOD_NOT_ALLOWED, "POST messages"));
+            return;
+        }
+
+        final QueryStringDecoder query = new QueryStringDecoder(request.uri());
+        final List<String> framingParameter = query.parameters().get("framing");
+        final String requestFraming = framingParameter == null ? framing : framingParameter.get(0);
+        final Collection<String> tags = requestTags(request, query);
+
+        final Counts counts = new Counts();
+        try {
+            if ("line".equals(requestFraming)) {
+                decodeLines(ctx, request.content(), tags, counts);
+            } else if ("length_prefixed".equals(requestFraming)) {
+                decodeFrames(ctx, request.content(), tags, counts);
+            } else {
+                respond(ctx, request, error(HttpResponseStatus.BAD_REQUEST, "Unknown framing " + requestFraming));
+                return;
+            }
+        } catch (DecoderException e) {
+            log.debug("Corrupted body after {} messages", counts.messages, e);
+            respond(ctx, request, error(HttpResponseStatus.BAD_REQUEST, e.getMessage()));
+            return;
+        }
+
+        final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                HttpResponseStatus.NO_CONTENT);
+        response.headers()
+                .set(MESSAGES_HEADER, counts.messages)
+                .set(DROPPED_HEADER, counts.dropped);
+        respond(ctx, request, response);
+    }
+
+    private void decodeLines(ChannelHandlerContext ctx, ByteBuf body, Collection<String> tags, Counts counts) {
+        final int end = body.writerIndex();
+        int start = body.readerIndex();
+        while (start < end) {
+            int eol = LineToMessageDecoder.indexOfNewline(body, start, end);
+            if (eol < 0) {
+                // the body ends the last line
+                eol = end;
+            }
+            final int length = eol > start && body.getByte(eol - 1) == '\r' ? eol - start - 1 : eol - start;
+            emit(ctx, body, start, length, tags, counts);
+            start = eol + 1;
+        }
+    }
+
+    private void decodeFrames(ChannelHandlerContext ctx, ByteBuf body, Collection<String> requestTags, Counts counts) {
+        while (body.isReadable()) {
+            if (body.readableBytes() < 6) {
+                throw new DecoderException("Truncated frame header");
+            }
+            final long frameLength = body.readUnsignedInt();
+            final int tagsLength = body.readUnsignedShort();
+            if (frameLength < 2 + tagsLength || frameLength - 2 > body.readableBytes()) {
+                throw new DecoderException("Invalid frame length " + frameLength);
+            }
+
+            Collection<String> tags = requestTags;
+            if (tagsLength > 0) {
+                tags = ImmutableList.<String>builder()
+                        .addAll(requestTags)
+                        .addAll(FRAME_TAG_SPLITTER.split(body.readSlice(tagsLength).toString(Charsets.UTF_8)))
+                        .build();
+            }
+            final int payloadLength = (int) frameLength - 2 - tagsLength;
+            emit(ctx, body, body.readerIndex(), payloadLength, tags, counts);
+            body.skipBytes(payloadLength);
+        }
+    }
+
+    private void emit(ChannelHandlerContext ctx, ByteBuf body, int index, int length,
+                      Collection<String> tags, Counts counts) {
+        if (length > maxLength) {
+            counts.dropped++;
+            return;
+        }
+        counts.messages++;
+        ctx.fireChannelRead(new MessageImpl(body.retainedSlice(index, length), tags.isEmpty() ? null : tags));
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        if (cause instanceof DecoderException) {
+            // undecompressable body, malformed HTTP...
+            log.debug("Invalid request from {}", ctx.channel().remoteAddress(), cause);
+            ctx.writeAndFlush(error(HttpResponseStatus.BAD_REQUEST, "Invalid request"))
+                    .addListener(ChannelFutureListener.CLOSE);
+        } else {
+            ctx.fireExceptionCaught(cause);
+        }
+    }
+
+    private static final class Counts {
+        private int messages = 0;
+        private int dropped = 0;
+    }
+}
@@ -0,0 +1,93 @@
+package com.airbnb.plog.server.listeners;
+
+import com.airbnb.plog.MessageImpl;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+
+import java.util.List;
+
+/**
+ * Newline framing, like {@link io.netty.handler.codec.LineBasedFrameDecoder} followed by
+ * {@link ByteBufToMessageDecoder}, in a single pass over every read.
+ * <p>
+ * Newlines are searched 8 bytes at a time, and every complete line of the read becomes a
+ * {@link MessageImpl} around a retained slice, without going through another decoder.
+ * A trailing {@code \r} is stripped. Lines over the maximum length are discarded up to
+ * their newline, and reported with a {@link TooLongFrameException}.
+ */
+final class LineToMessageDecoder extends ByteToMessageDecoder {
+    private static final long NEWLINES = 0x0a0a0a0a0a0a0a0aL;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private final int maxLength;
+    // bytes after the reader index already known not to contain a newline
+    private int scanned = 0;
+    // bytes skipped so far from a line over the maximum length, -1 if not discarding
+    private long discarded = -1;
+
+    LineToMessageDecoder(int maxLength) {
+        if (maxLength <= 0) {
+            throw new IllegalArgumentException("maxLength must be positive: " + maxLength);
+        }
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return index of the first {@code \n} in [from, to), or -1
+     */
+    static int indexOfNewline(ByteBuf buf, int from, int to) {
+        int i = from;
+        for (; i <= to - 8; i += 8) {
+            // little endian, so that the borrow of the subtraction can only mark bytes after the first match
+            final long word = buf.getLongLE(i) ^ NEWLINES;
+            final long matches = (word - LOW_BITS) & ~word & HIGH_BITS;
+            if (matches != 0) {
+                return i + (Long.numberOfTrailingZeros(matches) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (buf.getByte(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        final int end = in.writerIndex();
+        int start = in.readerIndex();
+        int eol;
+
+        while ((eol = indexOfNewline(in, start + scanned, end)) >= 0) {
+            scanned = 0;
+            final int length = eol > start && in.getByte(eol - 1) == '\r' ? eol - start - 1 : eol - start;
+
+            if (discarded >= 0) {
+                tooLong(ctx, discarded + length);
+                discarded = -1;
+            } else if (length > maxLength) {
+                tooLong(ctx, length);
+            } else {
+                out.add(new MessageImpl(in.retainedSlice(start, length), null));
+            }
+            start = eol + 1;
+        }
+
+        in.readerIndex(start);
+        scanned = end - start;
+        if (scanned > maxLength) {
+            discarded = Math.max(discarded, 0) + scanned;
+            in.skipBytes(scanned);
+            scanned = 0;
+        }
+    }
+
+    private void tooLong(ChannelHandlerContext ctx, long length) {
+        ctx.fireExceptionCaught(new TooLongFrameException(
+                "frame length (" + length + ") exceeds the allowed maximum (" + maxLength + ')'));
+    }
+}
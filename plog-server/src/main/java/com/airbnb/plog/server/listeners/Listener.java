@@ -2,26 +2,42 @@ package com.airbnb.plog.server.listeners;
 
 import com.airbnb.plog.handlers.Handler;
 import com.airbnb.plog.handlers.HandlerProvider;
+import com.airbnb.plog.handlers.Saturable;
+import com.airbnb.plog.server.commands.FourLetterCommandHandler;
+import com.airbnb.plog.server.fragmentation.Defragmenter;
 import com.airbnb.plog.server.pipeline.EndOfPipeline;
+import com.airbnb.plog.server.pipeline.ProtocolDecoder;
 import com.airbnb.plog.server.stats.SimpleStatisticsReporter;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.AbstractService;
 import com.typesafe.config.Config;
+import com.typesafe.config.ConfigValueFactory;
 import io.netty.channel.*;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import java.lang.reflect.Constructor;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 @Slf4j
 abstract class Listener extends AbstractService {
+    static final String END_OF_PIPELINE = "end";
+
     @Getter
     private final Config config;
     @Getter
     private final SimpleStatisticsReporter stats;
     private final EndOfPipeline eopHandler;
     private EventLoopGroup eventLoopGroup = null;
+    private Channel channel = null;
+    private List<HandlerSlot> handlerSlots = null;
+    // handlers reporting saturation, while pipelines come and go
+    @Getter
+    private final List<Saturable> saturables = new CopyOnWriteArrayList<Saturable>();
 
     public Listener(Config config) {
         this.config = config;
@@ -31,27 +47,62 @@ abstract class Listener extends AbstractService {
 
     protected abstract StartReturn start();
 
+    private synchronized List<HandlerSlot> getHandlerSlots() throws Exception {
+        if (handlerSlots == null) {
+            final List<HandlerSlot> slots = Lists.newArrayList();
+            for (Config handlerConfig : config.getConfigList("handlers")) {
+                final String providerName = handlerConfig.getString("provider");
+                log.debug("Loading provider for {}", providerName);
+
+                final Class<?> providerClass = Class.forName(providerName);
+                final Constructor<?> providerConstructor = providerClass.getConstructor();
+                final HandlerProvider provider = (HandlerProvider) providerConstructor.newInstance();
+                slots.add(new HandlerSlot(provider, handlerConfig));
+            }
+            handlerSlots = slots;
+        }
+        return handlerSlots;
+    }
+
     void finalizePipeline(ChannelPipeline pipeline)
             throws Exception {
 
         int i = 0;
 
-        for (Config handlerConfig : config.getConfigList("handlers")) {
-            final String providerName = handlerConfig.getString("provider");
-            log.debug("Loading provider for {}", providerName);
-
-            final Class<?> providerClass = Class.forName(providerName);
-            final Constructor<?> providerConstructor = providerClass.getConstructor();
-            final HandlerProvider provider = (HandlerProvider) providerConstructor.newInstance();
-            final Handler handler = provider.getHandler(handlerConfig);
-
+        for (HandlerSlot slot : getHandlerSlots()) {
+            final Handler handler = slot.handlerFor(pipeline.channel());
             pipeline.addLast(i + ':' + handler.getName(), handler);
-            stats.appendHandler(handler);
 
             i++;
         }
 
-        pipeline.addLast(eopHandler);
+        pipeline.addLast(END_OF_PIPELINE, eopHandler);
+    }
+
+    /**
+     * @param share fraction of {@code defrag.max_size} given to this defragmenter,
+     *              for defragmenters splitting the datagrams of the listener between them.
+     *              Messages over a small share still fit, see {@code DefragmentationTable}.
+     */
+    Defragmenter newDefragmenter(double share) {
+        final Config defragConfig = config.getConfig("defrag");
+        final long maxSize = (long) Math.ceil(defragConfig.getBytes("max_size") * share);
+        final Defragmenter defragmenter = new Defragmenter(stats,
+                defragConfig.withValue("max_size", ConfigValueFactory.fromAnyRef(maxSize)));
+        stats.withDefrag(defragmenter);
+        return defragmenter;
+    }
+
+    void finalizeDatagramPipeline(ChannelPipeline pipeline) throws Exception {
+        finalizeDatagramPipeline(pipeline, newDefragmenter(1.0));
+    }
+
+    void finalizeDatagramPipeline(ChannelPipeline pipeline, Defragmenter defragmenter) throws Exception {
+        // fragments go from the decoder to the defragmenter directly
+        pipeline
+                .addLast(new ProtocolDecoder(stats, defragmenter))
+                .addLast(new FourLetterCommandHandler(stats, config));
+        finalizePipeline(pipeline);
     }
 
     @Override
@@ -77,10 +128,22 @@ abstract class Listener extends AbstractService {
             }
         });
         this.eventLoopGroup = startReturn.getEventLoopGroup();
+        this.channel = bindFuture.channel();
     }
 
     @Override
     protected void doStop() {
+        if (eventLoopGroup == null) {
+            // shared event loops outlive the listener, only its channel is closed
+            channel.close().addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    notifyStopped();
+                }
+            });
+            return;
+        }
+
         //noinspection unchecked
         eventLoopGroup.shutdownGracefully().addListener(new GenericFutureListener() {
             @Override
@@ -96,4 +159,38 @@ abstract class Listener extends AbstractService {
         });
     }
 
+    /**
+     * One handler of the listener's chain, provided once if {@link ChannelHandler.Sharable},
+     * otherwise once per pipeline (and only reported for as long as its channel is open).
+     */
+    @RequiredArgsConstructor
+    private final class HandlerSlot {
+        private final HandlerProvider provider;
+        private final Config handlerConfig;
+        private Handler shared = null;
+
+        synchronized Handler handlerFor(Channel channel) throws Exception {
+            if (shared != null) {
+                return shared;
+            }
+
+            final Handler handler = provider.getHandler(handlerConfig);
+            stats.appendHandler(handler);
+            if (handler instanceof Saturable) {
+                saturables.add((Saturable) handler);
+            }
+            if (handler.getClass().isAnnotationPresent(ChannelHandler.Sharable.class)) {
+                shared = handler;
+            } else {
+                channel.closeFuture().addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        stats.removeHandler(handler);
+                        saturables.remove(handler);
+                    }
+                });
+            }
+            return handler;
+        }
+    }
 }
@@ -0,0 +1,64 @@
+package com.airbnb.plog.server.listeners;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Octet-counting framing (RFC 6587): every frame is preceded by its length in ASCII decimal and a space.
+ * <p>
+ * Frames are sliced without looking at their bytes. A corrupted stream cannot be resynchronized,
+ * the connection is closed.
+ */
+@RequiredArgsConstructor
+final class OctetCountingFrameDecoder extends ByteToMessageDecoder {
+    private static final int MAX_DIGITS = 10;
+
+    private final int maxLength;
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        final int start = in.readerIndex();
+        final int space = in.indexOf(start, Math.min(in.writerIndex(), start + MAX_DIGITS + 1), (byte) ' ');
+        if (space < 0) {
+            if (in.readableBytes() > MAX_DIGITS) {
+                fail(ctx, in, new CorruptedFrameException("No frame length in " + MAX_DIGITS + " bytes"));
+            }
+            return;
+        }
+
+        long length = 0;
+        for (int i = start; i < space; i++) {
+            final byte digit = in.getByte(i);
+            if (digit < '0' || digit > '9') {
+                fail(ctx, in, new CorruptedFrameException("Invalid frame length"));
+            }
+            length = length * 10 + digit - '0';
+        }
+        if (space == start) {
+            fail(ctx, in, new CorruptedFrameException("Empty frame length"));
+        }
+        if (length > maxLength) {
+            fail(ctx, in, new TooLongFrameException("Frame of " + length + " bytes over " + maxLength));
+        }
+
+        final int headerLength = space - start + 1;
+        if (in.readableBytes() < headerLength + length) {
+            return;
+        }
+
+        in.skipBytes(headerLength);
+        out.add(in.readRetainedSlice((int) length));
+    }
+
+    private static void fail(ChannelHandlerContext ctx, ByteBuf in, Exception cause) throws Exception {
+        in.skipBytes(in.readableBytes());
+        ctx.close();
+        throw cause;
+    }
+}
@@ -0,0 +1,32 @@
+package com.airbnb.plog.server.listeners;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.PromiseNotifier;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Sends what a worker pipeline writes (eg command replies) through the socket it reads from.
+ */
+@RequiredArgsConstructor
+final class OutboundForwarder extends ChannelOutboundHandlerAdapter {
+    private final Channel target;
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (promise.isVoid()) {
+            target.write(msg, target.voidPromise());
+        } else {
+            final ChannelFuture future = target.write(msg);
+            future.addListener(new PromiseNotifier<Void, ChannelFuture>(promise));
+        }
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        target.flush();
+    }
+}
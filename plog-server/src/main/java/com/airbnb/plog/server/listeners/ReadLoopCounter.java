@@ -0,0 +1,32 @@
+package com.airbnb.plog.server.listeners;
+
+import com.airbnb.plog.server.stats.StatisticsReporter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Reports how many datagrams each read loop of the channel delivered, from one readiness event until
+ * {@code channelReadComplete}. A loop reads the socket several times
+ * (each read a {@code recvmmsg} batch with {@code RECV_BATCH}); the transport does not report the syscalls.
+ */
+@RequiredArgsConstructor
+final class ReadLoopCounter extends ChannelInboundHandlerAdapter {
+    private final StatisticsReporter stats;
+    private int datagrams = 0;
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        datagrams++;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        if (datagrams > 0) {
+            stats.receivedDatagramReadLoop(datagrams);
+            datagrams = 0;
+        }
+        ctx.fireChannelReadComplete();
+    }
+}
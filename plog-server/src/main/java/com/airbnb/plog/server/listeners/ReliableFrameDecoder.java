@@ -0,0 +1,208 @@
+package com.airbnb.plog.server.listeners;
+
+import com.airbnb.plog.Delivery;
+import com.airbnb.plog.MessageImpl;
+import com.airbnb.plog.server.pipeline.TagCache;
+import com.airbnb.plog.server.stats.StatisticsReporter;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes reliable frames (once the length is stripped): 64-bit sequence number,
+ * unsigned 16-bit tags length, tags ({@code \0}-separated UTF-8 strings), payload.
+ * <p>
+ * Acknowledges cumulatively, with the 64-bit sequence number up to which all frames were delivered,
+ * every {@code ack_frames} frames or {@code ack_interval}, whichever comes first.
+ * The connection is closed when a delivery fails: the sender retries all frames it had no acknowledgement for.
+ * Handlers throwing fail the delivery of the frame they were given, provided {@link #handlerFailures()}
+ * comes after them in the pipeline.
+ * <p>
+ * One per connection.
+ */
+@Slf4j
+final class ReliableFrameDecoder extends ChannelInboundHandlerAdapter {
+
+    private final StatisticsReporter stats;
+    private final int ackFrames;
+    private final long ackInterval;
+
+    // in sequence order
+    private final ArrayDeque<FrameDelivery> pending = new ArrayDeque<FrameDelivery>();
+    private long lastSequence;
+    private long acknowledged;
+    private boolean started = false;
+    private int unacknowledged = 0;
+    private ScheduledFuture<?> ackTask = null;
+    // the frame handlers are given, while they are
+    private FrameDelivery reading = null;
+
+    ReliableFrameDecoder(StatisticsReporter stats, int ackFrames, long ackIntervalMillis) {
+        this.stats = stats;
+        this.ackFrames = ackFrames;
+        this.ackInterval = ackIntervalMillis;
+    }
+
+    @Override
+    public void channelActive(final ChannelHandlerContext ctx) throws Exception {
+        ackTask = ctx.executor().scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                acknowledge(ctx);
+            }
+        }, ackInterval, ackInterval, TimeUnit.MILLISECONDS);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (ackTask != null) {
+            ackTask.cancel(false);
+        }
+        // deliveries still in flight are retried by the sender
+        pending.clear();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        final FrameDelivery delivery;
+        final MessageImpl message;
+        final ByteBuf frame = (ByteBuf) msg;
+        try {
+            if (frame.readableBytes() < 10) {
+                throw new CorruptedFrameException("Frame too short for sequence number and tags length");
+            }
+            final long sequence = frame.readLong();
+            if (started && sequence <= lastSequence) {
+                throw new CorruptedFrameException("Sequence number " + sequence + " after " + lastSequence);
+            }
+            final int tagsLength = frame.readUnsignedShort();
+            if (frame.readableBytes() < tagsLength) {
+                throw new CorruptedFrameException("Tags length " + tagsLength + " over frame");
+            }
+
+            if (!started) {
+                acknowledged = sequence - 1;
+                started = true;
+            }
+            lastSequence = sequence;
+
+            final Collection<String> tags = tagsLength == 0 ? null :
+                    TagCache.decode(frame.readSlice(tagsLength));
+            delivery = new FrameDelivery(sequence);
+            message = new MessageImpl(frame.readRetainedSlice(frame.readableBytes()), tags, delivery);
+        } catch (CorruptedFrameException e) {
+            ctx.close();
+            throw e;
+        } finally {
+            ReferenceCountUtil.release(frame);
+        }
+
+        pending.add(delivery);
+        reading = delivery;
+        try {
+            ctx.fireChannelRead(message);
+        } finally {
+            reading = null;
+            // handlers have returned, only their holds remain
+            delivery.complete();
+        }
+
+        if (++unacknowledged >= ackFrames) {
+            acknowledge(ctx);
+        }
+    }
+
+    /**
+     * Exceptions thrown by handlers only travel down the pipeline, never back up to this decoder.
+     * To go after the handlers: fails the delivery of the frame they were handling when they threw.
+     */
+    ChannelHandler handlerFailures() {
+        return new ChannelInboundHandlerAdapter() {
+            @Override
+            public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+                if (reading != null) {
+                    reading.fail(cause);
+                }
+                super.exceptionCaught(ctx, cause);
+            }
+        };
+    }
+
+    private void acknowledge(ChannelHandlerContext ctx) {
+        final long previous = acknowledged;
+        FrameDelivery head;
+        while ((head = pending.peek()) != null) {
+            final int state = head.state.get();
+            if (state == FrameDelivery.FAILED) {
+                stats.failedReliableDelivery();
+                log.warn("Delivery of frame {} failed, closing {}", head.sequence, ctx.channel());
+                pending.clear();
+                ctx.close();
+                return;
+            }
+            if (state != FrameDelivery.DELIVERED) {
+                break;
+            }
+            acknowledged = head.sequence;
+            pending.poll();
+        }
+
+        if (acknowledged != previous) {
+            stats.acknowledgedReliableFrames(acknowledged - previous);
+            unacknowledged = 0;
+            ctx.writeAndFlush(ctx.alloc().buffer(8, 8).writeLong(acknowledged));
+        }
+    }
+
+    private static final class FrameDelivery implements Delivery {
+        private static final int PENDING = 0, DELIVERED = 1, FAILED = 2;
+
+        private final long sequence;
+        // starts with the hold of the pipeline, released once handlers return
+        private final AtomicInteger holds = new AtomicInteger(1);
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        private FrameDelivery(long sequence) {
+            this.sequence = sequence;
+        }
+
+        @Override
+        public Delivery hold() {
+            if (holds.getAndIncrement() <= 0) {
+                throw new IllegalStateException("Frame " + sequence + " already delivered");
+            }
+            return this;
+        }
+
+        @Override
+        public void complete() {
+            if (holds.decrementAndGet() == 0) {
+                state.compareAndSet(PENDING, DELIVERED);
+            }
+        }
+
+        @Override
+        public void fail(Throwable cause) {
+            log.warn("Could not deliver frame {}", sequence, cause);
+            state.set(FAILED);
+            holds.decrementAndGet();
+        }
+    }
+}
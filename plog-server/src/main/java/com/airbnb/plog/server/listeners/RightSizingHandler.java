@@ -0,0 +1,114 @@
+package com.airbnb.plog.server.listeners;
+
+import com.airbnb.plog.server.stats.StatisticsReporter;
+import com.typesafe.config.Config;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.DatagramPacket;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+
+/**
+ * Copies datagrams into buffers of their own size, so the receive buffer
+ * (RECV_SIZE bytes) goes right back to the pool instead of being held until handlers are done.
+ * <p>
+ * Only datagrams up to a threshold are copied. The threshold follows a percentile of the
+ * sizes observed over the last sample, rounded up to a power of 2 and capped by max_copy:
+ * the bulk of the traffic is copied, large outliers that fill their buffer anyway are not.
+ */
+@Slf4j
+final class RightSizingHandler extends ChannelInboundHandlerAdapter {
+    private final StatisticsReporter stats;
+    private final int maxCopy;
+    private final double percentile;
+    private final int sampleSize;
+
+    // sizes observed in the current sample, by log2
+    private final int[] sizeHistogram = new int[Integer.SIZE + 1];
+    private int sampled = 0;
+    @Getter
+    private int threshold;
+
+    RightSizingHandler(Config config, StatisticsReporter stats) {
+        this.stats = stats;
+        this.maxCopy = config.getInt("max_copy");
+        this.percentile = config.getDouble("percentile");
+        this.sampleSize = config.getInt("sample");
+        if (percentile <= 0 || percentile > 1) {
+            throw new IllegalArgumentException("Invalid percentile " + percentile);
+        }
+        if (sampleSize < 1) {
+            throw new IllegalArgumentException("Invalid sample " + sampleSize);
+        }
+        this.threshold = maxCopy;
+    }
+
+    private static int retainedCapacity(ByteBuf buf) {
+        // datagrams read with recvmmsg are slices of a shared, larger buffer
+        final ByteBuf unwrapped = buf.unwrap();
+        return unwrapped == null ? buf.capacity() : unwrapped.capacity();
+    }
+
+    private static int log2Ceil(int i) {
+        return i <= 1 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(i - 1);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof DatagramPacket)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        final DatagramPacket packet = (DatagramPacket) msg;
+        final ByteBuf content = packet.content();
+        final int size = content.readableBytes();
+        final int retained = retainedCapacity(content);
+        sample(size);
+
+        if (size > threshold || retained == size) {
+            stats.retainedReceiveBuffer(retained);
+            ctx.fireChannelRead(packet);
+            return;
+        }
+
+        final ByteBuf copy = ctx.alloc().buffer(size, size);
+        try {
+            copy.writeBytes(content, content.readerIndex(), size);
+        } catch (RuntimeException e) {
+            copy.release();
+            throw e;
+        } finally {
+            packet.release();
+        }
+
+        stats.retainedReceiveBuffer(size);
+        ctx.fireChannelRead(new DatagramPacket(copy, packet.recipient(), packet.sender()));
+    }
+
+    private void sample(int size) {
+        sizeHistogram[log2Ceil(size)]++;
+        if (++sampled < sampleSize) {
+            return;
+        }
+
+        final long target = (long) Math.ceil(sampled * percentile);
+        long seen = 0;
+        int bucket = 0;
+        while (bucket < Integer.SIZE && (seen += sizeHistogram[bucket]) < target) {
+            bucket++;
+        }
+
+        final int newThreshold = (int) Math.min(maxCopy, 1L << bucket);
+        if (newThreshold != threshold) {
+            log.debug("Copying datagrams up to {} bytes, was {}", newThreshold, threshold);
+            threshold = newThreshold;
+        }
+
+        Arrays.fill(sizeHistogram, 0);
+        sampled = 0;
+    }
+}
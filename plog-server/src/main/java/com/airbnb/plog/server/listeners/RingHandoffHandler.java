@@ -0,0 +1,89 @@
+package com.airbnb.plog.server.listeners;
+
+import com.airbnb.plog.server.handoff.HandoffRing;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+
+/**
+ * Hands datagrams over to worker threads through {@link HandoffRing}s.
+ * <p>
+ * Each worker runs its own pipeline, built by its initializer on an {@link EmbeddedChannel},
+ * so that handlers run on the worker thread rather than hopping back to the event loop.
+ * Writes are forwarded to the socket.
+ * <p>
+ * With a single ring, all workers consume from it.
+ * With one ring per worker, datagrams are dispatched by sender port (as used in message IDs),
+ * so every sender is always processed by the same worker, in order.
+ */
+@Slf4j
+@RequiredArgsConstructor
+final class RingHandoffHandler extends ChannelInboundHandlerAdapter {
+    private final List<HandoffRing<DatagramPacket>> rings;
+    private final List<ChannelHandler> workerInitializers;
+    // followed by the worker index
+    private final String threadNamePrefix;
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        final Channel channel = ctx.channel();
+        for (int i = 0; i < workerInitializers.size(); i++) {
+            final HandoffRing<DatagramPacket> ring = rings.get(i % rings.size());
+            final EmbeddedChannel worker = new EmbeddedChannel(new OutboundForwarder(channel), workerInitializers.get(i));
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work(ring, worker);
+                }
+            }, threadNamePrefix + i);
+            thread.start();
+        }
+    }
+
+    private static void work(HandoffRing<DatagramPacket> ring, EmbeddedChannel worker) {
+        try {
+            DatagramPacket packet;
+            while ((packet = ring.take()) != null) {
+                worker.pipeline().fireChannelRead(packet);
+                worker.runPendingTasks();
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted, stopping worker", e);
+        } finally {
+            worker.close();
+        }
+    }
+
+    private HandoffRing<DatagramPacket> ringFor(DatagramPacket packet) {
+        final int ringCount = rings.size();
+        if (ringCount == 1) {
+            return rings.get(0);
+        }
+        return rings.get(packet.sender().getPort() % ringCount);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof DatagramPacket) {
+            final DatagramPacket packet = (DatagramPacket) msg;
+            ringFor(packet).offer(packet);
+        } else {
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        for (HandoffRing<DatagramPacket> ring : rings) {
+            ring.close();
+        }
+        super.channelInactive(ctx);
+    }
+}
@@ -0,0 +1,126 @@
+package com.airbnb.plog.server.listeners;
+
+import com.airbnb.plog.MessageImpl;
+import com.airbnb.plog.common.SharedMemoryRing;
+import com.airbnb.plog.server.pipeline.TagCache;
+import com.airbnb.plog.server.stats.SimpleStatisticsReporter;
+import com.google.common.collect.Lists;
+import com.typesafe.config.Config;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoop;
+import io.netty.channel.embedded.EmbeddedChannel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Polls {@link SharedMemoryRing}s that processes of the same host append messages to,
+ * and feeds them through the handlers.
+ * <p>
+ * Every ring takes one writer process at a time, so the listener creates several
+ * (ring-0, ring-1...) in its directory.
+ */
+@Slf4j
+public final class SharedMemoryListener extends Listener {
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+
+    private final List<File> ringFiles = Lists.newArrayList();
+
+    public SharedMemoryListener(Config config) {
+        super(config);
+    }
+
+    @Override
+    protected StartReturn start() {
+        final Config config = getConfig();
+        final SimpleStatisticsReporter stats = getStats();
+
+        final File directory = new File(config.getString("directory"));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Could not create " + directory);
+        }
+
+        final List<SharedMemoryRing> rings = Lists.newArrayList();
+        try {
+            for (int i = 0; i < config.getInt("rings"); i++) {
+                final File file = new File(directory, "ring-" + i);
+                final SharedMemoryRing ring = SharedMemoryRing.create(file, config.getBytes("capacity").intValue());
+                ringFiles.add(file);
+                rings.add(ring);
+                stats.withSharedMemoryRing(ring);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not create rings in " + directory, e);
+        }
+
+        final EmbeddedChannel channel = new EmbeddedChannel(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel channel) throws Exception {
+                channel.config().setAllocator(PooledByteBufAllocator.DEFAULT);
+                finalizePipeline(channel.pipeline());
+            }
+        });
+
+        final DefaultEventLoopGroup group = new DefaultEventLoopGroup(1);
+        final EventLoop loop = group.next();
+        final int batch = config.getInt("batch");
+        final long idlePark = config.getDuration("idle_park", TimeUnit.NANOSECONDS);
+
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                final SharedMemoryRing.RecordHandler handler = new SharedMemoryRing.RecordHandler() {
+                    @Override
+                    public void handle(ByteBuf tags, ByteBuf payload) {
+                        final ByteBuf copy = channel.alloc().buffer(payload.readableBytes());
+                        copy.writeBytes(payload);
+                        channel.pipeline().fireChannelRead(new MessageImpl(copy, TagCache.decode(tags)));
+                    }
+                };
+
+                int idleRounds = 0;
+                while (!loop.isShuttingDown()) {
+                    int records = 0;
+                    for (SharedMemoryRing ring : rings) {
+                        records += ring.drain(handler, batch);
+                    }
+
+                    if (records > 0) {
+                        channel.runPendingTasks();
+                        if (idleRounds > SPIN_TRIES + YIELD_TRIES) {
+                            stats.wokeUpSharedMemoryPoller();
+                        }
+                        idleRounds = 0;
+                    } else if (++idleRounds > SPIN_TRIES + YIELD_TRIES) {
+                        LockSupport.parkNanos(idlePark);
+                    } else if (idleRounds > SPIN_TRIES) {
+                        Thread.yield();
+                    }
+                }
+                channel.close();
+            }
+        });
+
+        log.info("Polling {} rings in {}", rings.size(), directory);
+        return new StartReturn(channel.newSucceededFuture(), group);
+    }
+
+    @Override
+    protected void doStop() {
+        for (File file : ringFiles) {
+            if (file.exists() && !file.delete()) {
+                log.warn("Could not remove ring {}", file);
+            }
+        }
+        super.doStop();
+    }
+}
@@ -7,5 +7,6 @@ import lombok.Data;
 @Data
 final class StartReturn {
     private final ChannelFuture bindFuture;
+    // null if shared with other listeners, and not to be shut down with this one
     private final EventLoopGroup eventLoopGroup;
 }
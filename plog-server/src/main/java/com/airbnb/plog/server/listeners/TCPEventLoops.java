@@ -0,0 +1,65 @@
+package com.airbnb.plog.server.listeners;
+
+import com.typesafe.config.Config;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.PromiseCombiner;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Boss (accepting) and worker (connection IO) event loops of TCP listeners,
+ * either owned by a listener or shared by all those of the server.
+ */
+@Slf4j
+public final class TCPEventLoops {
+    @Getter
+    private final EventLoopGroup boss;
+    @Getter
+    private final EventLoopGroup worker;
+    @Getter
+    private final boolean epoll;
+
+    /**
+     * @param config {@code boss_threads}, {@code worker_threads} (0 for twice the cores)
+     *               and {@code epoll} (falls back to NIO if the native transport is unavailable)
+     */
+    public TCPEventLoops(Config config) {
+        final int bossThreads = config.getInt("boss_threads");
+        final int workerThreads = config.getInt("worker_threads");
+
+        if (config.getBoolean("epoll") && !Epoll.isAvailable()) {
+            log.warn("Native epoll transport unavailable, using NIO", Epoll.unavailabilityCause());
+        }
+        this.epoll = config.getBoolean("epoll") && Epoll.isAvailable();
+
+        if (epoll) {
+            this.boss = new EpollEventLoopGroup(bossThreads);
+            this.worker = new EpollEventLoopGroup(workerThreads);
+        } else {
+            this.boss = new NioEventLoopGroup(bossThreads);
+            this.worker = new NioEventLoopGroup(workerThreads);
+        }
+    }
+
+    public Class<? extends ServerChannel> getServerChannelClass() {
+        return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public Future<Void> shutdownGracefully() {
+        final Promise<Void> promise = ImmediateEventExecutor.INSTANCE.newPromise();
+        final PromiseCombiner combiner = new PromiseCombiner(ImmediateEventExecutor.INSTANCE);
+        combiner.add(boss.shutdownGracefully());
+        combiner.add(worker.shutdownGracefully());
+        combiner.finish(promise);
+        return promise;
+    }
+}
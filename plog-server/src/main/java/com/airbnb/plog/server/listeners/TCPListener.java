@@ -1,46 +1,61 @@
 package com.airbnb.plog.server.listeners;
 
 import com.typesafe.config.Config;
-import io.netty.bootstrap.ServerBootstrap;
-import io.netty.buffer.PooledByteBufAllocator;
-import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelInitializer;
-import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.LineBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 
-import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+public final class TCPListener extends ConnectionListener {
+    private final String framing;
+    private final int maxLength;
+    private final int ackFrames;
+    private final long ackInterval;
 
-public final class TCPListener extends Listener {
     public TCPListener(Config config) {
-        super(config);
+        this(config, null);
+    }
+
+    /**
+     * @param sharedEventLoops used if {@code event_loops.shared} is set
+     */
+    public TCPListener(Config config, TCPEventLoops sharedEventLoops) {
+        super(config, sharedEventLoops);
+        this.framing = config.getString("framing");
+        if (!"line".equals(framing) && !"octet_counting".equals(framing) &&
+                !"length_prefixed".equals(framing) && !"reliable".equals(framing)) {
+            throw new IllegalArgumentException("Unknown framing " + framing);
+        }
+        this.maxLength = config.getInt("max_line");
+        this.ackFrames = config.getInt("reliable.ack_frames");
+        this.ackInterval = config.getDuration("reliable.ack_interval", TimeUnit.MILLISECONDS);
     }
 
     @Override
-    protected StartReturn start() {
-        final Config config = getConfig();
+    void initConnection(ChannelPipeline pipeline) throws Exception {
+        if ("reliable".equals(framing)) {
+            pipeline
+                    .addLast(new LengthFieldBasedFrameDecoder(maxLength, 0, 4, 0, 4))
+                    .addLast(new ReliableFrameDecoder(getStats(), ackFrames, ackInterval));
+        } else if ("length_prefixed".equals(framing)) {
+            pipeline
+                    .addLast(new LengthFieldBasedFrameDecoder(maxLength, 0, 4, 0, 4))
+                    .addLast(new TaggedFrameDecoder());
+        } else if ("octet_counting".equals(framing)) {
+            pipeline
+                    .addLast(new OctetCountingFrameDecoder(maxLength))
+                    .addLast(new ByteBufToMessageDecoder());
+        } else {
+            pipeline.addLast(new LineToMessageDecoder(maxLength));
+        }
+    }
 
-        final NioEventLoopGroup group = new NioEventLoopGroup();
-        final ChannelFuture bindFuture = new ServerBootstrap()
-                .group(group)
-                .channel(NioServerSocketChannel.class)
-                .option(ChannelOption.TCP_NODELAY, true)
-                .option(ChannelOption.SO_REUSEADDR, true)
-                .option(ChannelOption.SO_KEEPALIVE, true)
-                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
-                .childHandler(new ChannelInitializer<SocketChannel>() {
-                    @Override
-                    protected void initChannel(SocketChannel channel) throws Exception {
-                        final ChannelPipeline pipeline = channel.pipeline();
-                        pipeline
-                                .addLast(new LineBasedFrameDecoder(config.getInt("max_line")))
-                                .addLast(new ByteBufToMessageDecoder());
-                        finalizePipeline(pipeline);
-                    }
-                }).bind(new InetSocketAddress(config.getString("host"), config.getInt("port")));
-        return new StartReturn(bindFuture, group);
+    @Override
+    void finalizePipeline(ChannelPipeline pipeline) throws Exception {
+        super.finalizePipeline(pipeline);
+        final ReliableFrameDecoder reliable = pipeline.get(ReliableFrameDecoder.class);
+        if (reliable != null) {
+            pipeline.addBefore(END_OF_PIPELINE, null, reliable.handlerFailures());
+        }
     }
 }
@@ -0,0 +1,35 @@
+package com.airbnb.plog.server.listeners;
+
+import com.airbnb.plog.MessageImpl;
+import com.airbnb.plog.server.pipeline.TagCache;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageDecoder;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Decodes length-prefixed frames (once the length is stripped):
+ * unsigned 16-bit tags length, tags ({@code \0}-separated UTF-8 strings), payload.
+ */
+@ChannelHandler.Sharable
+final class TaggedFrameDecoder extends MessageToMessageDecoder<ByteBuf> {
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf frame, List<Object> out) throws Exception {
+        if (frame.readableBytes() < 2) {
+            throw new CorruptedFrameException("Frame too short for tags length");
+        }
+        final int tagsLength = frame.readUnsignedShort();
+        if (frame.readableBytes() < tagsLength) {
+            throw new CorruptedFrameException("Tags length " + tagsLength + " over frame");
+        }
+
+        final Collection<String> tags = tagsLength == 0 ? null :
+                TagCache.decode(frame.readSlice(tagsLength));
+        out.add(new MessageImpl(frame.readRetainedSlice(frame.readableBytes()), tags));
+    }
+}
@@ -1,83 +1,278 @@
 package com.airbnb.plog.server.listeners;
 
-import com.airbnb.plog.server.commands.FourLetterCommandHandler;
 import com.airbnb.plog.server.fragmentation.Defragmenter;
-import com.airbnb.plog.server.pipeline.ProtocolDecoder;
+import com.airbnb.plog.server.handoff.DropPolicy;
+import com.airbnb.plog.server.handoff.HandoffRing;
+import com.airbnb.plog.server.handoff.WaitStrategy;
+import com.airbnb.plog.server.packetloss.KernelDropSampler;
 import com.airbnb.plog.server.stats.SimpleStatisticsReporter;
+import com.google.common.collect.Lists;
 import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValue;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.DatagramPacket;
 import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.PromiseCombiner;
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 
 import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+@Slf4j
 public final class UDPListener extends Listener {
+    // workers spin, yield, then park briefly instead of blocking on a queue,
+    // unless handoff says otherwise
+    private static final Config LOW_LATENCY_HANDOFF = ConfigFactory.parseString(
+            "type = ring, ring.wait_strategy = sleeping");
+
     @Getter
-    private NioEventLoopGroup group = new NioEventLoopGroup(1);
+    private EventLoopGroup group = null;
 
     public UDPListener(Config config) {
         super(config);
     }
 
-    @Override
-    protected StartReturn start() {
-        final Config config = getConfig();
+    /**
+     * With low_latency, what is left to reference.conf under handoff defaults to {@link #LOW_LATENCY_HANDOFF}.
+     */
+    static Config handoffConfig(Config config) {
+        Config handoffConfig = config.getConfig("handoff");
+        if (!config.getBoolean("low_latency.enabled")) {
+            return handoffConfig;
+        }
+        for (Map.Entry<String, ConfigValue> entry : LOW_LATENCY_HANDOFF.entrySet()) {
+            final String path = entry.getKey();
+            if (!handoffConfig.hasPath(path) ||
+                    "reference.conf".equals(handoffConfig.getValue(path).origin().resource())) {
+                handoffConfig = handoffConfig.withValue(path, entry.getValue());
+            }
+        }
+        return handoffConfig;
+    }
+
+    private static boolean epollAvailable(String feature) {
+        if (Epoll.isAvailable()) {
+            return true;
+        }
+        log.warn("{} requires the native epoll transport", feature, Epoll.unavailabilityCause());
+        return false;
+    }
 
-        final SimpleStatisticsReporter stats = getStats();
+    private static int socketCount(Config reusePortConfig) {
+        if (!reusePortConfig.getBoolean("enabled") || !epollAvailable("SO_REUSEPORT")) {
+            return 1;
+        }
 
-        final ProtocolDecoder protocolDecoder = new ProtocolDecoder(stats);
+        final int sockets = reusePortConfig.getInt("sockets");
+        return sockets > 0 ? sockets : Runtime.getRuntime().availableProcessors();
+    }
 
-        final Defragmenter defragmenter = new Defragmenter(stats, config.getConfig("defrag"));
-        stats.withDefrag(defragmenter);
+    @Override
+    protected StartReturn start() {
+        final Config config = getConfig();
+        final InetSocketAddress address = new InetSocketAddress(config.getString("host"), config.getInt("port"));
+        final int sockets = socketCount(config.getConfig("reuse_port"));
 
-        final FourLetterCommandHandler flch = new FourLetterCommandHandler(stats, config);
+        if (address.getPort() != 0 && KernelDropSampler.isSupported()) {
+            getStats().withKernelDropSampler(new KernelDropSampler(address));
+        }
 
-        final ExecutorService threadPool =
-                Executors.newFixedThreadPool(config.getInt("threads"));
+        final int recvSize = config.getInt("RECV_SIZE");
+        final int recvBatch = config.getInt("RECV_BATCH");
+        final boolean udpGro = config.getBoolean("UDP_GRO");
+        final Config lowLatencyConfig = config.getConfig("low_latency");
+        final boolean lowLatency = lowLatencyConfig.getBoolean("enabled");
+        final boolean epoll = sockets > 1 ||
+                ((recvBatch > 1 || udpGro) && epollAvailable("RECV_BATCH and UDP_GRO")) ||
+                (lowLatency && epollAvailable("SO_BUSY_POLL"));
 
-        final ChannelFuture bindFuture = new Bootstrap()
-                .group(group)
-                .channel(NioDatagramChannel.class)
+        final Bootstrap bootstrap = new Bootstrap()
                 .option(ChannelOption.SO_REUSEADDR, true)
                 .option(ChannelOption.SO_RCVBUF,
                         config.getInt("SO_RCVBUF"))
                 .option(ChannelOption.SO_SNDBUF,
                         config.getInt("SO_SNDBUF"))
-                .option(ChannelOption.RCVBUF_ALLOCATOR,
-                        new FixedRecvByteBufAllocator(config.getInt("RECV_SIZE")))
-                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
-                .handler(new ChannelInitializer<NioDatagramChannel>() {
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+
+        if (epoll) {
+            group = new EpollEventLoopGroup(sockets);
+            bootstrap
+                    .group(group)
+                    .channel(EpollDatagramChannel.class);
+            if (udpGro) {
+                bootstrap.option(EpollChannelOption.UDP_GRO, true);
+            }
+            if (lowLatency) {
+                bootstrap.option(EpollChannelOption.SO_BUSY_POLL,
+                        (int) lowLatencyConfig.getDuration("busy_poll", TimeUnit.MICROSECONDS));
+            }
+            if (recvBatch > 1) {
+                // recvmmsg: the receive buffer is split in slots of RECV_SIZE bytes, one per datagram
+                bootstrap
+                        .option(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, recvSize)
+                        .option(ChannelOption.RCVBUF_ALLOCATOR,
+                                new FixedRecvByteBufAllocator(recvSize * recvBatch));
+            } else {
+                bootstrap.option(ChannelOption.RCVBUF_ALLOCATOR,
+                        new FixedRecvByteBufAllocator(recvSize));
+            }
+        } else {
+            group = new NioEventLoopGroup(1);
+            bootstrap
+                    .group(group)
+                    .channel(NioDatagramChannel.class)
+                    .option(ChannelOption.RCVBUF_ALLOCATOR,
+                            new FixedRecvByteBufAllocator(recvSize));
+        }
+
+        if (sockets == 1) {
+            final ChannelFuture bindFuture = bootstrap
+                    .handler(handoffInitializer(handoffConfig(config)))
+                    .bind(address);
+
+            return new StartReturn(bindFuture, group);
+        }
+
+        // Shared-nothing: every socket is bound to its own event loop,
+        // and processes its datagrams inline through its own pipeline.
+        log.info("Binding {} sockets to {} with SO_REUSEPORT", sockets, address);
+        bootstrap
+                .option(EpollChannelOption.SO_REUSEPORT, true)
+                .handler(new ChannelInitializer<Channel>() {
                     @Override
-                    protected void initChannel(NioDatagramChannel channel) throws Exception {
-                        final ChannelPipeline pipeline = channel.pipeline();
-                        pipeline
-                                .addLast(new SimpleChannelInboundHandler<DatagramPacket>(false) {
-                                    @Override
-                                    protected void channelRead0(final ChannelHandlerContext ctx,
-                                                                final DatagramPacket msg)
-                                            throws Exception {
-                                        threadPool.submit(new Runnable() {
-                                            @Override
-                                            public void run() {
-                                                ctx.fireChannelRead(msg);
-                                            }
-                                        });
-                                    }
-                                })
-                                .addLast(protocolDecoder)
-                                .addLast(defragmenter)
-                                .addLast(flch);
-                        finalizePipeline(pipeline);
+                    protected void initChannel(Channel channel) throws Exception {
+                        initReader(channel.pipeline(), sockets);
+                        finalizeDatagramPipeline(channel.pipeline(), newDefragmenter(1.0 / sockets));
                     }
-                })
-                .bind(new InetSocketAddress(config.getString("host"), config.getInt("port")));
+                });
+
+        final ChannelFuture firstBindFuture = bootstrap.bind(address);
+        final PromiseCombiner combiner = new PromiseCombiner(ImmediateEventExecutor.INSTANCE);
+        combiner.add(firstBindFuture);
+        for (int i = 1; i < sockets; i++) {
+            combiner.add(bootstrap.bind(address));
+        }
+        final ChannelPromise bindFuture = firstBindFuture.channel().newPromise();
+        combiner.finish(bindFuture);
 
         return new StartReturn(bindFuture, group);
     }
+
+    /**
+     * Handlers running on the thread reading the socket.
+     *
+     * @param sockets number of sockets sharing the listener's global admission rates
+     */
+    private void initReader(ChannelPipeline pipeline, int sockets) {
+        final Config admissionConfig = getConfig().getConfig("admission");
+        final Config rightSizeConfig = getConfig().getConfig("right_size");
+
+        pipeline.addLast(new ReadLoopCounter(getStats()));
+        if (admissionConfig.getBoolean("enabled")) {
+            pipeline.addLast(new AdmissionHandler(admissionConfig, 1.0 / sockets, getStats()));
+        }
+        if (rightSizeConfig.getBoolean("enabled")) {
+            pipeline.addLast(new RightSizingHandler(rightSizeConfig, getStats()));
+        }
+    }
+
+    private ChannelInitializer<Channel> handoffInitializer(Config handoffConfig) {
+        final String type = handoffConfig.getString("type");
+        final int threads = getConfig().getInt("threads");
+
+        if ("executor".equals(type)) {
+            final ExecutorService threadPool = Executors.newFixedThreadPool(threads);
+
+            return new ChannelInitializer<Channel>() {
+                @Override
+                protected void initChannel(Channel channel) throws Exception {
+                    final ChannelPipeline pipeline = channel.pipeline();
+                    initReader(pipeline, 1);
+                    pipeline.addLast(new SimpleChannelInboundHandler<DatagramPacket>(false) {
+                        @Override
+                        protected void channelRead0(final ChannelHandlerContext ctx,
+                                                    final DatagramPacket msg)
+                                throws Exception {
+                            threadPool.submit(new Runnable() {
+                                @Override
+                                public void run() {
+                                    ctx.fireChannelRead(msg);
+                                }
+                            });
+                        }
+                    });
+                    finalizeDatagramPipeline(pipeline);
+                }
+            };
+        } else if ("ring".equals(type)) {
+            final Config ringConfig = handoffConfig.getConfig("ring");
+            final SimpleStatisticsReporter stats = getStats();
+            final String dispatch = ringConfig.getString("dispatch");
+            final boolean affinity;
+            if ("shared".equals(dispatch)) {
+                affinity = false;
+            } else if ("affinity".equals(dispatch)) {
+                affinity = true;
+            } else {
+                throw new IllegalArgumentException("Unknown dispatch " + dispatch);
+            }
+
+            return new ChannelInitializer<Channel>() {
+                @Override
+                protected void initChannel(Channel channel) throws Exception {
+                    // with affinity, every worker gets its own share of the ring and its own defragmenter
+                    // (with its share of defrag.max_size),
+                    // otherwise fragments of a message can reach any worker, they share the defragmenter
+                    final int ringCount = affinity ? threads : 1;
+                    final List<HandoffRing<DatagramPacket>> rings = Lists.newArrayList();
+                    for (int i = 0; i < ringCount; i++) {
+                        final HandoffRing<DatagramPacket> ring = new HandoffRing<DatagramPacket>(
+                                (ringConfig.getInt("capacity") + ringCount - 1) / ringCount,
+                                ringConfig.getBytes("max_bytes") / ringCount,
+                                WaitStrategy.fromConfig(ringConfig, "wait_strategy"),
+                                DropPolicy.fromConfig(ringConfig, "drop_policy"),
+                                stats);
+                        stats.withHandoff(ring);
+                        rings.add(ring);
+                    }
+
+                    final List<ChannelHandler> workerInitializers = Lists.newArrayList();
+                    Defragmenter defragmenter = null;
+                    for (int i = 0; i < threads; i++) {
+                        if (defragmenter == null || affinity) {
+                            defragmenter = newDefragmenter(affinity ? 1.0 / threads : 1.0);
+                        }
+                        final Defragmenter workerDefragmenter = defragmenter;
+                        workerInitializers.add(new ChannelInitializer<Channel>() {
+                            @Override
+                            protected void initChannel(Channel worker) throws Exception {
+                                worker.config().setAllocator(PooledByteBufAllocator.DEFAULT);
+                                finalizeDatagramPipeline(worker.pipeline(), workerDefragmenter);
+                            }
+                        });
+                    }
+
+                    initReader(channel.pipeline(), 1);
+                    channel.pipeline().addLast(new RingHandoffHandler(rings, workerInitializers,
+                            "plog-udp-" + getConfig().getInt("port") + "-worker-"));
+                }
+            };
+        } else {
+            throw new IllegalArgumentException("Unknown handoff type " + type);
+        }
+    }
 }
@@ -0,0 +1,125 @@
+package com.airbnb.plog.server.listeners;
+
+import com.typesafe.config.Config;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDomainDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.unix.DomainSocketAddress;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+
+/**
+ * Receives datagrams from processes on the same host through a Unix domain socket,
+ * skipping the loopback IP stack. Same wire format as UDP.
+ * <p>
+ * Linux only, requires the native epoll transport.
+ */
+@Slf4j
+public final class UnixListener extends Listener {
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFSOCK = 0140000;
+
+    private File socketFile = null;
+
+    public UnixListener(Config config) {
+        super(config);
+    }
+
+    @Override
+    protected StartReturn start() {
+        if (!Epoll.isAvailable()) {
+            throw new IllegalStateException("Unix domain sockets require the native epoll transport",
+                    Epoll.unavailabilityCause());
+        }
+
+        final Config config = getConfig();
+        final File path = new File(config.getString("path"));
+        final EpollEventLoopGroup group = new EpollEventLoopGroup(1);
+        try {
+            removeStaleSocket(path, group);
+        } catch (RuntimeException e) {
+            group.shutdownGracefully();
+            throw e;
+        }
+        socketFile = path;
+
+        final ChannelFuture bindFuture = new Bootstrap()
+                .group(group)
+                .channel(EpollDomainDatagramChannel.class)
+                .option(ChannelOption.SO_RCVBUF,
+                        config.getInt("SO_RCVBUF"))
+                .option(ChannelOption.SO_SNDBUF,
+                        config.getInt("SO_SNDBUF"))
+                .option(ChannelOption.RCVBUF_ALLOCATOR,
+                        new FixedRecvByteBufAllocator(config.getInt("RECV_SIZE")))
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) throws Exception {
+                        channel.pipeline().addLast(new ReadLoopCounter(getStats()));
+                        finalizeDatagramPipeline(channel.pipeline());
+                    }
+                })
+                .bind(new DomainSocketAddress(socketFile));
+
+        return new StartReturn(bindFuture, group);
+    }
+
+    /**
+     * A socket left behind by a previous run would make binding fail.
+     * Only removed if it is a socket nobody receives on anymore, anything else at the path fails the start.
+     */
+    private static void removeStaleSocket(File file, EpollEventLoopGroup group) {
+        final Path path = file.toPath();
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+
+        final int mode;
+        try {
+            mode = (Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not inspect " + file, e);
+        }
+        if ((mode & S_IFMT) != S_IFSOCK) {
+            throw new IllegalStateException(file + " exists and is not a socket");
+        }
+
+        final ChannelFuture probe = new Bootstrap()
+                .group(group)
+                .channel(EpollDomainDatagramChannel.class)
+                .handler(new ChannelInboundHandlerAdapter())
+                .connect(new DomainSocketAddress(file))
+                .awaitUninterruptibly();
+        probe.channel().close().awaitUninterruptibly();
+        if (probe.isSuccess()) {
+            throw new IllegalStateException(file + " is in use by another process");
+        }
+
+        log.info("Removing stale socket {}", file);
+        if (!file.delete()) {
+            throw new IllegalStateException("Could not remove " + file);
+        }
+    }
+
+    @Override
+    protected void doStop() {
+        if (socketFile != null && socketFile.exists() && !socketFile.delete()) {
+            log.warn("Could not remove socket {}", socketFile);
+        }
+        super.doStop();
+    }
+}
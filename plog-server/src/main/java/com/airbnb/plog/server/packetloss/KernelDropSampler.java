@@ -0,0 +1,164 @@
+package com.airbnb.plog.server.packetloss;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the kernel's view of the UDP sockets bound to an address and port,
+ * from /proc/net/udp and /proc/net/udp6 (Linux).
+ * <p>
+ * Drops are datagrams the kernel discarded because the socket receive buffer (SO_RCVBUF) was full,
+ * which we never get to see otherwise. They are counted since the sockets were opened.
+ * <p>
+ * Those tables list every UDP socket of the host: samples are reused for {@link #MIN_INTERVAL_NANOS}.
+ */
+@Slf4j
+public final class KernelDropSampler {
+    private static final List<File> TABLES = ImmutableList.of(
+            new File("/proc/net/udp"),
+            new File("/proc/net/udp6"));
+    private static final Splitter FIELD_SPLITTER = Splitter.on(' ').omitEmptyStrings();
+    static final long MIN_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // wildcard addresses, IPv4 or IPv6
+    private static final byte[] ANY = new byte[0];
+    // ::ffff:0:0/96, IPv4 addresses of dual-stack sockets
+    private static final byte[] V4_MAPPED_PREFIX = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xff, (byte) 0xff};
+
+    private final byte[] address;
+    private final int port;
+    private final List<File> tables;
+    private final Ticker ticker;
+
+    private Sample lastSample = null;
+    private long sampledAt = 0;
+
+    public KernelDropSampler(InetSocketAddress address) {
+        this(address, TABLES, Ticker.systemTicker());
+    }
+
+    KernelDropSampler(InetSocketAddress address, List<File> tables, Ticker ticker) {
+        this.address = normalize(address.getAddress().getAddress());
+        this.port = address.getPort();
+        this.tables = tables;
+        this.ticker = ticker;
+    }
+
+    public static boolean isSupported() {
+        return TABLES.get(0).canRead();
+    }
+
+    /**
+     * @return IPv4 addresses as 4 bytes, even mapped to IPv6, and {@link #ANY} for wildcards
+     */
+    private static byte[] normalize(byte[] address) {
+        byte[] normalized = address;
+        if (address.length == 16 &&
+                Arrays.equals(Arrays.copyOf(address, V4_MAPPED_PREFIX.length), V4_MAPPED_PREFIX)) {
+            normalized = Arrays.copyOfRange(address, V4_MAPPED_PREFIX.length, 16);
+        }
+        for (byte b : normalized) {
+            if (b != 0) {
+                return normalized;
+            }
+        }
+        return ANY;
+    }
+
+    /**
+     * @param hex as in the tables: 32-bit words in host byte order
+     */
+    static byte[] parseAddress(String hex) {
+        final byte[] address = new byte[hex.length() / 2];
+        for (int word = 0; word < address.length / 4; word++) {
+            int value = (int) Long.parseLong(hex.substring(word * 8, word * 8 + 8), 16);
+            if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+                value = Integer.reverseBytes(value);
+            }
+            address[word * 4] = (byte) (value >>> 24);
+            address[word * 4 + 1] = (byte) (value >>> 16);
+            address[word * 4 + 2] = (byte) (value >>> 8);
+            address[word * 4 + 3] = (byte) value;
+        }
+        return normalize(address);
+    }
+
+    void accumulate(String line, Sample.Builder into) {
+        // sl local_address rem_address st tx_queue:rx_queue tr:tm->when retrnsmt uid timeout inode ref pointer drops
+        final List<String> fields = FIELD_SPLITTER.splitToList(line);
+        if (fields.size() < 13 || !fields.get(0).endsWith(":")) {
+            return; // header
+        }
+
+        final String localAddress = fields.get(1);
+        final int separator = localAddress.lastIndexOf(':');
+        final int localPort = Integer.parseInt(localAddress.substring(separator + 1), 16);
+        // sockets bound elsewhere can share the port
+        if (localPort != port || !Arrays.equals(parseAddress(localAddress.substring(0, separator)), address)) {
+            return;
+        }
+
+        final String queues = fields.get(4);
+        final long rxQueue = Long.parseLong(queues.substring(queues.indexOf(':') + 1), 16);
+        final long drops = Long.parseLong(fields.get(12));
+        into.add(rxQueue, drops);
+    }
+
+    /**
+     * @return the last sample if taken less than {@link #MIN_INTERVAL_NANOS} ago, otherwise a new one
+     */
+    public synchronized Sample sample() throws IOException {
+        final long now = ticker.read();
+        if (lastSample != null && now - sampledAt < MIN_INTERVAL_NANOS) {
+            return lastSample;
+        }
+
+        final Sample.Builder builder = new Sample.Builder();
+        for (File table : tables) {
+            if (!table.canRead()) {
+                continue;
+            }
+            for (String line : Files.readLines(table, Charsets.US_ASCII)) {
+                accumulate(line, builder);
+            }
+        }
+        lastSample = builder.build();
+        sampledAt = now;
+        return lastSample;
+    }
+
+    @Data
+    public static final class Sample {
+        private final int sockets;
+        private final long rxQueueBytes;
+        private final long drops;
+
+        static final class Builder {
+            private int sockets = 0;
+            private long rxQueueBytes = 0;
+            private long drops = 0;
+
+            void add(long rxQueueBytes, long drops) {
+                this.sockets++;
+                this.rxQueueBytes += rxQueueBytes;
+                this.drops += drops;
+            }
+
+            Sample build() {
+                return new Sample(sockets, rxQueueBytes, drops);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.airbnb.plog.server.pipeline;
+
+import com.airbnb.plog.server.fragmentation.Fragment;
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Collection;
+
+/**
+ * Reusable view over the 24-byte header of a v0 multipart or parity packet, read in place.
+ * <p>
+ * Not thread-safe: each {@link ProtocolDecoder} owns one, used by its channel's event loop only,
+ * and its values are only valid until the next {@link #wrap}.
+ */
+@ToString(exclude = "content")
+public final class FragmentHeader {
+    public static final int SIZE = 24;
+    public static final byte TYPE_PARITY = 3;
+
+    @Getter
+    private ByteBuf content;
+    @Getter
+    private int fragmentCount;
+    /**
+     * For parity packets, index of the parity group
+     */
+    @Getter
+    private int fragmentIndex;
+    @Getter
+    private int fragmentSize;
+    @Getter
+    private long msgId;
+    @Getter
+    private int totalLength;
+    @Getter
+    private int msgHash;
+    /**
+     * For parity packets, length of the tags of the message's last fragment, which are not in the packet
+     */
+    @Getter
+    private int tagsLength;
+    /**
+     * {@link com.airbnb.plog.common.PayloadCompression} ID
+     */
+    @Getter
+    private int compression;
+    /**
+     * Fragments covered by a parity packet, 0 for fragments
+     */
+    @Getter
+    private int parityGroupSize;
+
+    /**
+     * @param source identifies the sender, as clients only keep message IDs unique on their own.
+     *               For UDP, the sender port.
+     * @throws IllegalArgumentException if the header is invalid, leaving the view unusable
+     */
+    public FragmentHeader wrap(ByteBuf packet, int source) {
+        this.content = null;
+
+        final int length = packet.readableBytes();
+        if (length < SIZE) {
+            throw new IllegalArgumentException("Packet too short: " + length + " bytes");
+        }
+
+        final int offset = packet.readerIndex();
+        final int count = packet.getUnsignedShort(offset + 2);
+        if (count == 0) {
+            throw new IllegalArgumentException("0 fragment count");
+        }
+
+        final int index = packet.getUnsignedShort(offset + 4);
+        if (index >= count) {
+            throw new IllegalArgumentException("Index " + index + " < count " + count);
+        }
+
+        final int total = packet.getInt(offset + 12);
+        if (total < 0) {
+            throw new IllegalArgumentException("Cannot support length " + total + " > 2^31");
+        }
+
+        final int tags = packet.getUnsignedShort(offset + 20);
+        if (tags > length - SIZE) {
+            throw new IllegalArgumentException("Tags length " + tags + " over packet");
+        }
+
+        // parity packets carry their group size instead of the fragment size, which is their own
+        final boolean parity = packet.getByte(offset + 1) == TYPE_PARITY;
+        final int groupSize = parity ? packet.getUnsignedShort(offset + 6) : 0;
+        if (parity && groupSize == 0) {
+            throw new IllegalArgumentException("0 parity group size");
+        }
+
+        this.fragmentCount = count;
+        this.fragmentIndex = index;
+        this.fragmentSize = parity ? length - SIZE : packet.getUnsignedShort(offset + 6);
+        this.msgId = (((long) source) << Integer.SIZE) + packet.getInt(offset + 8);
+        this.totalLength = total;
+        this.msgHash = packet.getInt(offset + 16);
+        this.tagsLength = tags;
+        this.compression = packet.getUnsignedShort(offset + 22);
+        this.parityGroupSize = groupSize;
+        this.content = packet;
+        return this;
+    }
+
+    public boolean isAlone() {
+        return fragmentCount == 1;
+    }
+
+    public boolean isParity() {
+        return parityGroupSize != 0;
+    }
+
+    public int getPayloadIndex() {
+        return content.readerIndex() + SIZE + (isParity() ? 0 : tagsLength);
+    }
+
+    public int getPayloadLength() {
+        return content.readableBytes() - SIZE - (isParity() ? 0 : tagsLength);
+    }
+
+    /**
+     * Decodes tags straight from the packet through the {@link TagCache}, only to be called for messages leaving for handlers.
+     */
+    public Collection<String> readTags() {
+        return TagCache.decode(content, content.readerIndex() + SIZE, tagsLength);
+    }
+
+    /**
+     * @return a standalone fragment, sharing (without retaining) the packet's bytes
+     */
+    public Fragment toFragment() {
+        final ByteBuf tagsBuffer = tagsLength == 0 ? null :
+                content.slice(content.readerIndex() + SIZE, tagsLength);
+        final ByteBuf payload = content.slice(getPayloadIndex(), getPayloadLength());
+        return new Fragment(fragmentCount, fragmentIndex, fragmentSize, msgId, totalLength, msgHash,
+                compression, payload, tagsBuffer);
+    }
+}
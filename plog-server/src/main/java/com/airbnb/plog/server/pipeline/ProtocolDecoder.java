@@ -2,57 +2,135 @@ package com.airbnb.plog.server.pipeline;
 
 import com.airbnb.plog.MessageImpl;
 import com.airbnb.plog.server.commands.FourLetterCommand;
-import com.airbnb.plog.server.fragmentation.Fragment;
+import com.airbnb.plog.server.fragmentation.Defragmenter;
 import com.airbnb.plog.server.stats.StatisticsReporter;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.AddressedEnvelope;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.socket.DatagramPacket;
-import io.netty.handler.codec.MessageToMessageDecoder;
-import lombok.RequiredArgsConstructor;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.unix.DomainSocketAddress;
+import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.List;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Collection;
 
-@RequiredArgsConstructor
+/**
+ * Decodes datagrams in place, one at a time, without going through an output list:
+ * unboxed messages, commands and every message of packed packets are fired down the pipeline,
+ * v0 multipart fragments go straight to the {@link Defragmenter} if one is given
+ * (or are fired as {@link com.airbnb.plog.server.fragmentation.Fragment}s otherwise).
+ * <p>
+ * One per channel, as it reuses a {@link FragmentHeader} from its event loop.
+ */
 @Slf4j
-public final class ProtocolDecoder extends MessageToMessageDecoder<DatagramPacket> {
+public final class ProtocolDecoder extends ChannelInboundHandlerAdapter {
+    private static final int PACKED_RECORD_HEADER_SIZE = 4;
+
     private final StatisticsReporter stats;
+    private final Defragmenter defragmenter;
+    private final FragmentHeader header = new FragmentHeader();
+
+    public ProtocolDecoder(StatisticsReporter stats) {
+        this(stats, null);
+    }
+
+    public ProtocolDecoder(StatisticsReporter stats, Defragmenter defragmenter) {
+        this.stats = stats;
+        this.defragmenter = defragmenter;
+    }
+
+    /**
+     * UDP senders are told apart by port.
+     * Unix domain senders have none, their socket path stands in for it.
+     */
+    private static int sourceOf(SocketAddress sender) {
+        if (sender instanceof InetSocketAddress) {
+            return ((InetSocketAddress) sender).getPort();
+        }
+        if (sender instanceof DomainSocketAddress) {
+            return ((DomainSocketAddress) sender).path().hashCode();
+        }
+        return 0;
+    }
+
+    /** Unix domain senders that did not bind their socket all share the same empty path. */
+    private static boolean isUnbound(SocketAddress sender) {
+        return sender instanceof DomainSocketAddress && ((DomainSocketAddress) sender).path().isEmpty();
+    }
 
     @Override
-    protected void decode(ChannelHandlerContext ctx, DatagramPacket msg, List<Object> out)
-            throws Exception {
-        final ByteBuf content = msg.content();
-        final byte versionIdentifier = content.getByte(0);
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof AddressedEnvelope) || !(((AddressedEnvelope<?, ?>) msg).content() instanceof ByteBuf)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        final AddressedEnvelope<ByteBuf, SocketAddress> envelope = (AddressedEnvelope<ByteBuf, SocketAddress>) msg;
+        try {
+            decode(ctx, envelope.content(), envelope.sender());
+        } finally {
+            ReferenceCountUtil.release(envelope);
+        }
+    }
+
+    private void decode(ChannelHandlerContext ctx, ByteBuf content, SocketAddress sender) throws Exception {
+        final int offset = content.readerIndex();
+        final byte versionIdentifier = content.getByte(offset);
         // versions are non-printable characters, push down the pipeline send as-is.
         if (versionIdentifier < 0 || versionIdentifier > 31) {
             log.debug("Unboxed UDP message");
             stats.receivedUdpSimpleMessage();
-            msg.retain();
-            out.add(new MessageImpl(content, null));
+            ctx.fireChannelRead(new MessageImpl(content.retain(), null));
         } else if (versionIdentifier == 0) {
-            final byte typeIdentifier = content.getByte(1);
+            final byte typeIdentifier = content.getByte(offset + 1);
             switch (typeIdentifier) {
                 case 0:
-                    final FourLetterCommand cmd = readCommand(msg);
+                    final FourLetterCommand cmd = FourLetterCommand.read(content, offset + 2, sender);
                     if (cmd != null) {
                         log.debug("v0 command");
-                        out.add(cmd);
+                        ctx.fireChannelRead(cmd);
                     } else {
                         stats.receivedUnknownCommand();
                     }
                     break;
                 case 1:
-                    log.debug("v0 multipart message: {}", msg);
+                case 3:
                     try {
-                        final Fragment fragment = Fragment.fromDatagram(msg);
-                        stats.receivedV0MultipartFragment(fragment.getFragmentIndex());
-                        msg.retain();
-                        out.add(fragment);
+                        header.wrap(content, sourceOf(sender));
                     } catch (IllegalArgumentException e) {
                         log.error("Invalid header", e);
                         stats.receivedV0InvalidMultipartHeader();
+                        break;
+                    }
+                    // fragments of unbound senders could be mixed up with each other's
+                    if (!header.isAlone() && isUnbound(sender)) {
+                        log.debug("Multipart message from an unbound socket: {}", header);
+                        stats.receivedV0InvalidMultipartHeader();
+                        break;
+                    }
+                    if (header.isParity()) {
+                        log.debug("v0 parity fragment: {}", header);
+                        stats.receivedV0ParityFragment();
+                        // without a defragmenter, there is nothing to recover
+                        if (defragmenter != null) {
+                            defragmenter.ingestParity(ctx, header);
+                        }
+                        break;
+                    }
+                    log.debug("v0 multipart message: {}", header);
+                    stats.receivedV0MultipartFragment(header.getFragmentIndex());
+                    if (defragmenter != null) {
+                        defragmenter.ingest(ctx, header);
+                    } else {
+                        ctx.fireChannelRead(header.toFragment().retain());
                     }
                     break;
+                case 2:
+                    decodePacked(ctx, content, offset + 2);
+                    break;
                 default:
                     stats.receivedV0InvalidType();
             }
@@ -61,16 +139,40 @@ public final class ProtocolDecoder extends MessageToMessageDecoder<DatagramPacke
         }
     }
 
-    private FourLetterCommand readCommand(DatagramPacket msg) {
-        final ByteBuf content = msg.content();
-        final int trailLength = content.readableBytes() - 6;
-        if (trailLength < 0) {
-            return null;
+    /**
+     * Fires a slice of the packet for each record: unsigned 16-bit payload length,
+     * unsigned 16-bit tags length, tags, payload.
+     * Records before a truncated one are kept.
+     */
+    private void decodePacked(ChannelHandlerContext ctx, ByteBuf content, int from) {
+        final int end = content.writerIndex();
+        int index = from;
+        int messages = 0;
+        while (index < end) {
+            if (end - index < PACKED_RECORD_HEADER_SIZE) {
+                break;
+            }
+            final int payloadLength = content.getUnsignedShort(index);
+            final int tagsLength = content.getUnsignedShort(index + 2);
+            final int tagsIndex = index + PACKED_RECORD_HEADER_SIZE;
+            final int payloadIndex = tagsIndex + tagsLength;
+            if (payloadIndex + payloadLength > end) {
+                break;
+            }
+
+            final Collection<String> tags = tagsLength == 0 ? null :
+                    TagCache.decode(content, tagsIndex, tagsLength);
+            ctx.fireChannelRead(new MessageImpl(content.retainedSlice(payloadIndex, payloadLength), tags));
+            messages++;
+            index = payloadIndex + payloadLength;
+        }
+
+        if (index < end || messages == 0) {
+            log.debug("Invalid packed packet after {} messages", messages);
+            stats.receivedV0InvalidPackedPacket();
+        }
+        if (messages > 0) {
+            stats.receivedV0PackedPacket(messages);
         }
-        final byte[] trail = new byte[trailLength];
-        final byte[] cmdBuff = new byte[4];
-        content.getBytes(2, cmdBuff, 0, 4);
-        content.getBytes(6, trail, 0, trail.length);
-        return new FourLetterCommand(new String(cmdBuff), msg.sender(), trail);
     }
 }
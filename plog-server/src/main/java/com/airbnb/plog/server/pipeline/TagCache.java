@@ -0,0 +1,80 @@
+package com.airbnb.plog.server.pipeline;
+
+import com.airbnb.plog.TagSet;
+import com.airbnb.plog.common.Murmur3;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Decodes tags ({@code \0}-separated UTF-8 strings) through a bounded cache keyed by their raw bytes,
+ * as producers tend to send few distinct combinations over and over.
+ * <p>
+ * Direct-mapped and lock-free: slots hold immutable entries, so concurrent decoders at worst
+ * evict each other's entries, and hits allocate nothing.
+ */
+public final class TagCache {
+    private static final int SLOTS = 1024;
+    // longer tags are decoded every time, keeping the cache under SLOTS * MAX_CACHED_LENGTH bytes
+    private static final int MAX_CACHED_LENGTH = 512;
+    private static final Splitter TAG_SPLITTER = Splitter.on('\0').omitEmptyStrings();
+
+    private static final Entry[] entries = new Entry[SLOTS];
+
+    private TagCache() {
+    }
+
+    /**
+     * @return tags from the readable bytes of {@code tags}, which are left untouched
+     */
+    public static TagSet decode(ByteBuf tags) {
+        return decode(tags, tags.readerIndex(), tags.readableBytes());
+    }
+
+    public static TagSet decode(ByteBuf buf, int index, int length) {
+        if (length == 0) {
+            return TagSet.EMPTY;
+        }
+        if (length > MAX_CACHED_LENGTH) {
+            return parse(buf.toString(index, length, Charsets.UTF_8));
+        }
+
+        final int slot = Murmur3.hash32(buf, index, length) & (SLOTS - 1);
+        final Entry entry = entries[slot];
+        if (entry != null && entry.matches(buf, index, length)) {
+            return entry.tags;
+        }
+
+        final byte[] raw = new byte[length];
+        buf.getBytes(index, raw);
+        final TagSet tags = parse(new String(raw, Charsets.UTF_8));
+        entries[slot] = new Entry(raw, tags);
+        return tags;
+    }
+
+    private static TagSet parse(String seq) {
+        return TagSet.copyOf(TAG_SPLITTER.splitToList(seq));
+    }
+
+    private static final class Entry {
+        private final byte[] raw;
+        private final TagSet tags;
+
+        private Entry(byte[] raw, TagSet tags) {
+            this.raw = raw;
+            this.tags = tags;
+        }
+
+        private boolean matches(ByteBuf buf, int index, int length) {
+            if (raw.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (raw[i] != buf.getByte(index + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,17 +1,26 @@
 package com.airbnb.plog.server.stats;
 
+import com.airbnb.plog.common.SharedMemoryRing;
 import com.airbnb.plog.handlers.Handler;
+import com.airbnb.plog.server.backpressure.BackpressureHandler;
 import com.airbnb.plog.server.fragmentation.Defragmenter;
+import com.airbnb.plog.server.handoff.HandoffRing;
+import com.airbnb.plog.server.packetloss.KernelDropSampler;
 import com.eclipsesource.json.JsonArray;
 import com.eclipsesource.json.JsonObject;
 import com.google.common.cache.CacheStats;
-import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
 import java.net.URL;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.jar.Attributes;
@@ -30,18 +39,48 @@ public final class SimpleStatisticsReporter implements StatisticsReporter {
             unknownCommand = new AtomicLong(),
             v0Commands = new AtomicLong(),
             v0MultipartMessages = new AtomicLong(),
+            v0PackedMessages = new AtomicLong(),
+            v0InvalidPacked = new AtomicLong(),
+            v0InvalidCompression = new AtomicLong(),
+            v0ParityFragments = new AtomicLong(),
+            v0InvalidParity = new AtomicLong(),
+            v0RecoveredFragments = new AtomicLong(),
             exceptions = new AtomicLong(),
-            unhandledObjects = new AtomicLong();
+            unhandledObjects = new AtomicLong(),
+            handoffDroppedOverCapacity = new AtomicLong(),
+            handoffDroppedOverMemory = new AtomicLong(),
+            admissionDroppedOverSourceRate = new AtomicLong(),
+            admissionDroppedOverSourceBandwidth = new AtomicLong(),
+            admissionDroppedOverGlobalRate = new AtomicLong(),
+            admissionDroppedOverGlobalBandwidth = new AtomicLong(),
+            admissionEvictedSources = new AtomicLong(),
+            sharedMemoryWakeups = new AtomicLong(),
+            backpressurePauses = new AtomicLong(),
+            backpressurePausedMillis = new AtomicLong(),
+            reliableAcknowledgedFrames = new AtomicLong(),
+            reliableFailedDeliveries = new AtomicLong();
     private final AtomicLongArray
             v0MultipartMessageFragments = new AtomicLongArray(Short.SIZE + 1),
             v0InvalidChecksum = new AtomicLongArray(Short.SIZE + 1),
+            v0MessagesPerPacked = new AtomicLongArray(Short.SIZE + 1),
+            datagramsPerReadLoop = new AtomicLongArray(Short.SIZE + 1),
+            retainedBytesPerDatagram = new AtomicLongArray(Short.SIZE + 1),
+            handoffWakeupMicros = new AtomicLongArray(Short.SIZE + 1),
+            backpressurePauseMillis = new AtomicLongArray(Short.SIZE + 1),
             droppedFragments = new AtomicLongArray((Short.SIZE + 1) * (Short.SIZE + 1)),
             invalidFragments = new AtomicLongArray((Short.SIZE + 1) * (Short.SIZE + 1));
 
     private final long startTime = System.currentTimeMillis();
     private String MEMOIZED_PLOG_VERSION = null;
-    private Defragmenter defragmenter = null;
-    private List<Handler> handlers = Lists.newArrayList();
+    // registered as channels are initialized, possibly while being reported
+    private final List<Defragmenter> defragmenters = new CopyOnWriteArrayList<Defragmenter>();
+    private KernelDropSampler kernelDropSampler = null;
+    private BackpressureHandler backpressure = null;
+    private final List<HandoffRing<?>> handoffRings = new CopyOnWriteArrayList<HandoffRing<?>>();
+    private final List<SharedMemoryRing> sharedMemoryRings = new CopyOnWriteArrayList<SharedMemoryRing>();
+    private final Map<String, EventLoopGroup> eventLoopGroups = Maps.newLinkedHashMap();
+    // reported while pipelines come and go
+    private final List<Handler> handlers = new CopyOnWriteArrayList<Handler>();
 
     private static int intLog2(int i) {
         return Integer.SIZE - Integer.numberOfLeadingZeros(i);
@@ -102,6 +141,17 @@ public final class SimpleStatisticsReporter implements StatisticsReporter {
         return this.v0MultipartMessages.incrementAndGet();
     }
 
+    @Override
+    public final long receivedV0PackedPacket(int messages) {
+        v0PackedMessages.addAndGet(messages);
+        return v0MessagesPerPacked.incrementAndGet(intLog2(messages - 1));
+    }
+
+    @Override
+    public final long receivedV0InvalidPackedPacket() {
+        return this.v0InvalidPacked.incrementAndGet();
+    }
+
     @Override
     public long exception() {
         return this.exceptions.incrementAndGet();
@@ -127,6 +177,26 @@ public final class SimpleStatisticsReporter implements StatisticsReporter {
         return this.v0InvalidChecksum.incrementAndGet(intLog2(fragments - 1));
     }
 
+    @Override
+    public final long receivedV0InvalidCompression() {
+        return this.v0InvalidCompression.incrementAndGet();
+    }
+
+    @Override
+    public final long receivedV0ParityFragment() {
+        return this.v0ParityFragments.incrementAndGet();
+    }
+
+    @Override
+    public final long receivedV0InvalidParityFragment() {
+        return this.v0InvalidParity.incrementAndGet();
+    }
+
+    @Override
+    public final long recoveredV0Fragment() {
+        return this.v0RecoveredFragments.incrementAndGet();
+    }
+
     @Override
     public long receivedV0InvalidMultipartFragment(final int fragmentIndex, final int expectedFragments) {
         final int target = ((Short.SIZE + 1) * intLog2(expectedFragments - 1)) + intLog2(fragmentIndex);
@@ -144,6 +214,85 @@ public final class SimpleStatisticsReporter implements StatisticsReporter {
         return unhandledObjects.incrementAndGet();
     }
 
+    @Override
+    public long receivedDatagramReadLoop(int datagrams) {
+        return datagramsPerReadLoop.incrementAndGet(Math.min(Short.SIZE, intLog2(datagrams - 1)));
+    }
+
+    @Override
+    public long retainedReceiveBuffer(int bytes) {
+        return retainedBytesPerDatagram.incrementAndGet(Math.min(Short.SIZE, intLog2(bytes - 1)));
+    }
+
+    @Override
+    public long droppedPacketOverHandoffCapacity() {
+        return handoffDroppedOverCapacity.incrementAndGet();
+    }
+
+    @Override
+    public long droppedPacketOverHandoffMemory() {
+        return handoffDroppedOverMemory.incrementAndGet();
+    }
+
+    @Override
+    public long wokeUpHandoffConsumer(long nanos) {
+        final int micros = (int) Math.max(0, Math.min(Integer.MAX_VALUE, nanos / 1000));
+        return handoffWakeupMicros.incrementAndGet(Math.min(Short.SIZE, intLog2(micros)));
+    }
+
+    @Override
+    public long wokeUpSharedMemoryPoller() {
+        return sharedMemoryWakeups.incrementAndGet();
+    }
+
+    @Override
+    public long droppedPacketOverSourceRate() {
+        return admissionDroppedOverSourceRate.incrementAndGet();
+    }
+
+    @Override
+    public long droppedPacketOverSourceBandwidth() {
+        return admissionDroppedOverSourceBandwidth.incrementAndGet();
+    }
+
+    @Override
+    public long droppedPacketOverGlobalRate() {
+        return admissionDroppedOverGlobalRate.incrementAndGet();
+    }
+
+    @Override
+    public long droppedPacketOverGlobalBandwidth() {
+        return admissionDroppedOverGlobalBandwidth.incrementAndGet();
+    }
+
+    @Override
+    public long evictedAdmissionSource() {
+        return admissionEvictedSources.incrementAndGet();
+    }
+
+    @Override
+    public long pausedConnection() {
+        return backpressurePauses.incrementAndGet();
+    }
+
+    @Override
+    public long resumedConnection(long pausedNanos) {
+        final long millis = Math.max(0, pausedNanos / 1000000);
+        backpressurePausedMillis.addAndGet(millis);
+        return backpressurePauseMillis.incrementAndGet(
+                Math.min(Short.SIZE, intLog2((int) Math.min(Integer.MAX_VALUE, millis))));
+    }
+
+    @Override
+    public long acknowledgedReliableFrames(long frames) {
+        return reliableAcknowledgedFrames.addAndGet(frames);
+    }
+
+    @Override
+    public long failedReliableDelivery() {
+        return reliableFailedDeliveries.incrementAndGet();
+    }
+
     public final String toJSON() {
         final JsonObject result = new JsonObject()
                 .add("version", getPlogVersion())
@@ -154,23 +303,116 @@ public final class SimpleStatisticsReporter implements StatisticsReporter {
                 .add("v0_invalid_multipart_header", v0InvalidMultipartHeader.get())
                 .add("unknown_command", unknownCommand.get())
                 .add("v0_commands", v0Commands.get())
+                .add("v0_packed_messages", v0PackedMessages.get())
+                .add("v0_invalid_packed", v0InvalidPacked.get())
+                .add("v0_invalid_compression", v0InvalidCompression.get())
+                .add("v0_parity_fragments", v0ParityFragments.get())
+                .add("v0_invalid_parity", v0InvalidParity.get())
+                .add("v0_recovered_fragments", v0RecoveredFragments.get())
                 .add("exceptions", exceptions.get())
                 .add("unhandled_objects", unhandledObjects.get())
                 .add("holes_from_dead_port", holesFromDeadPort.get())
                 .add("holes_from_new_message", holesFromNewMessage.get())
+                .add("handoff_dropped_over_capacity", handoffDroppedOverCapacity.get())
+                .add("handoff_dropped_over_memory", handoffDroppedOverMemory.get())
+                .add("admission_dropped_over_source_rate", admissionDroppedOverSourceRate.get())
+                .add("admission_dropped_over_source_bandwidth", admissionDroppedOverSourceBandwidth.get())
+                .add("admission_dropped_over_global_rate", admissionDroppedOverGlobalRate.get())
+                .add("admission_dropped_over_global_bandwidth", admissionDroppedOverGlobalBandwidth.get())
+                .add("admission_evicted_sources", admissionEvictedSources.get())
+                .add("reliable_acknowledged_frames", reliableAcknowledgedFrames.get())
+                .add("reliable_failed_deliveries", reliableFailedDeliveries.get())
                 .add("v0_fragments", arrayForLogStats(v0MultipartMessageFragments))
                 .add("v0_invalid_checksum", arrayForLogStats(v0InvalidChecksum))
+                .add("v0_messages_per_packed", arrayForLogStats(v0MessagesPerPacked))
+                .add("datagrams_per_read_loop", arrayForLogStats(datagramsPerReadLoop))
+                .add("retained_bytes_per_datagram", arrayForLogStats(retainedBytesPerDatagram))
+                .add("handoff_wakeup_micros", arrayForLogStats(handoffWakeupMicros))
                 .add("v0_invalid_fragments", arrayForLogLogStats(invalidFragments))
                 .add("dropped_fragments", arrayForLogLogStats(droppedFragments));
 
-        if (defragmenter != null) {
-            final CacheStats cacheStats = defragmenter.getCacheStats();
+        if (!defragmenters.isEmpty()) {
+            CacheStats cacheStats = new CacheStats(0, 0, 0, 0, 0, 0);
+            for (Defragmenter defragmenter : defragmenters) {
+                cacheStats = cacheStats.plus(defragmenter.getCacheStats());
+            }
             result.add("defragmenter", new JsonObject()
                     .add("evictions", cacheStats.evictionCount())
                     .add("hits", cacheStats.hitCount())
                     .add("misses", cacheStats.missCount()));
         }
 
+        if (kernelDropSampler != null) {
+            try {
+                final KernelDropSampler.Sample sample = kernelDropSampler.sample();
+                result.add("kernel", new JsonObject()
+                        .add("sockets", sample.getSockets())
+                        .add("rx_queue_bytes", sample.getRxQueueBytes())
+                        .add("drops", sample.getDrops()));
+            } catch (IOException e) {
+                log.warn("Could not sample kernel socket statistics", e);
+            }
+        }
+
+        if (backpressure != null) {
+            result.add("backpressure", new JsonObject()
+                    .add("saturation", backpressure.getSaturation())
+                    .add("paused", backpressure.isPaused())
+                    .add("paused_connections", backpressure.getPausedConnections())
+                    .add("pauses", backpressurePauses.get())
+                    .add("paused_millis", backpressurePausedMillis.get())
+                    .add("pause_millis", arrayForLogStats(backpressurePauseMillis)));
+        }
+
+        if (!handoffRings.isEmpty()) {
+            long capacity = 0, size = 0, retainedBytes = 0;
+            final JsonArray sizes = new JsonArray();
+            for (HandoffRing<?> ring : handoffRings) {
+                final int ringSize = ring.size();
+                capacity += ring.getCapacity();
+                size += ringSize;
+                retainedBytes += ring.getRetainedBytes();
+                sizes.add(ringSize);
+            }
+            result.add("handoff", new JsonObject()
+                    .add("capacity", capacity)
+                    .add("size", size)
+                    .add("retained_bytes", retainedBytes)
+                    .add("sizes", sizes));
+        }
+
+        if (!sharedMemoryRings.isEmpty()) {
+            long capacity = 0, used = 0, overruns = 0;
+            final JsonArray usedPerRing = new JsonArray();
+            for (SharedMemoryRing ring : sharedMemoryRings) {
+                final int ringUsed = ring.getUsedBytes();
+                capacity += ring.getCapacity();
+                used += ringUsed;
+                overruns += ring.getOverruns();
+                usedPerRing.add(ringUsed);
+            }
+            result.add("shm", new JsonObject()
+                    .add("capacity", capacity)
+                    .add("used_bytes", used)
+                    .add("used_bytes_per_ring", usedPerRing)
+                    .add("overruns", overruns)
+                    .add("wakeups", sharedMemoryWakeups.get()));
+        }
+
+        if (!eventLoopGroups.isEmpty()) {
+            final JsonObject eventLoops = new JsonObject();
+            for (Map.Entry<String, EventLoopGroup> entry : eventLoopGroups.entrySet()) {
+                final JsonArray pendingTasks = new JsonArray();
+                for (EventExecutor executor : entry.getValue()) {
+                    if (executor instanceof SingleThreadEventExecutor) {
+                        pendingTasks.add(((SingleThreadEventExecutor) executor).pendingTasks());
+                    }
+                }
+                eventLoops.add(entry.getKey(), new JsonObject().add("pending_tasks", pendingTasks));
+            }
+            result.add("event_loops", eventLoops);
+        }
+
         final JsonArray handlersStats = new JsonArray();
         result.add("handlers", handlersStats);
         for (Handler handler : handlers) {
@@ -207,15 +449,65 @@ public final class SimpleStatisticsReporter implements StatisticsReporter {
         throw new NoSuchFieldError();
     }
 
+    /**
+     * Listeners binding several sockets with SO_REUSEPORT provide one defragmenter per socket,
+     * their cache statistics are summed up.
+     */
     public synchronized void withDefrag(Defragmenter defragmenter) {
-        if (this.defragmenter == null) {
-            this.defragmenter = defragmenter;
-        } else {
+        if (this.defragmenters.contains(defragmenter)) {
             throw new IllegalStateException("Defragmenter already provided!");
         }
+        this.defragmenters.add(defragmenter);
+    }
+
+    public synchronized void withKernelDropSampler(KernelDropSampler kernelDropSampler) {
+        if (this.kernelDropSampler == null) {
+            this.kernelDropSampler = kernelDropSampler;
+        } else {
+            throw new IllegalStateException("Kernel drop sampler already provided!");
+        }
+    }
+
+    public synchronized void withBackpressure(BackpressureHandler backpressure) {
+        if (this.backpressure == null) {
+            this.backpressure = backpressure;
+        } else {
+            throw new IllegalStateException("Backpressure already provided!");
+        }
+    }
+
+    /**
+     * With affinity dispatch, every worker has its own ring.
+     */
+    public synchronized void withHandoff(HandoffRing<?> handoffRing) {
+        if (this.handoffRings.contains(handoffRing)) {
+            throw new IllegalStateException("Handoff ring already provided!");
+        }
+        this.handoffRings.add(handoffRing);
+    }
+
+    public synchronized void withSharedMemoryRing(SharedMemoryRing sharedMemoryRing) {
+        if (this.sharedMemoryRings.contains(sharedMemoryRing)) {
+            throw new IllegalStateException("Shared memory ring already provided!");
+        }
+        this.sharedMemoryRings.add(sharedMemoryRing);
+    }
+
+    /**
+     * Event loop groups can be shared by several listeners, and reported by all of them.
+     */
+    public synchronized void withEventLoopGroup(String name, EventLoopGroup eventLoopGroup) {
+        if (this.eventLoopGroups.containsKey(name)) {
+            throw new IllegalStateException("Event loop group " + name + " already provided!");
+        }
+        this.eventLoopGroups.put(name, eventLoopGroup);
     }
 
-    public synchronized void appendHandler(Handler handler) {
+    public void appendHandler(Handler handler) {
         this.handlers.add(handler);
     }
+
+    public void removeHandler(Handler handler) {
+        this.handlers.remove(handler);
+    }
 }
@@ -15,12 +15,24 @@ public interface StatisticsReporter {
 
     long receivedV0MultipartMessage();
 
+    long receivedV0PackedPacket(int messages);
+
+    long receivedV0InvalidPackedPacket();
+
     long exception();
 
     long receivedV0MultipartFragment(int index);
 
     long receivedV0InvalidChecksum(int index);
 
+    long receivedV0InvalidCompression();
+
+    long receivedV0ParityFragment();
+
+    long receivedV0InvalidParityFragment();
+
+    long recoveredV0Fragment();
+
     long foundHolesFromDeadPort(int holesFound);
 
     long foundHolesFromNewMessage(int holesFound);
@@ -30,4 +42,34 @@ public interface StatisticsReporter {
     long missingFragmentInDroppedMessage(final int fragmentIndex, final int expectedFragments);
 
     long unhandledObject();
+
+    long receivedDatagramReadLoop(int datagrams);
+
+    long retainedReceiveBuffer(int bytes);
+
+    long droppedPacketOverHandoffCapacity();
+
+    long droppedPacketOverHandoffMemory();
+
+    long wokeUpHandoffConsumer(long nanos);
+
+    long wokeUpSharedMemoryPoller();
+
+    long droppedPacketOverSourceRate();
+
+    long droppedPacketOverSourceBandwidth();
+
+    long droppedPacketOverGlobalRate();
+
+    long droppedPacketOverGlobalBandwidth();
+
+    long evictedAdmissionSource();
+
+    long pausedConnection();
+
+    long resumedConnection(long pausedNanos);
+
+    long acknowledgedReliableFrames(long frames);
+
+    long failedReliableDelivery();
 }
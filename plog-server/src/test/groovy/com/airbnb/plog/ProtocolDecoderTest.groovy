@@ -1,11 +1,14 @@
 package com.airbnb.plog
 
+import com.airbnb.plog.common.Murmur3
 import com.airbnb.plog.server.commands.FourLetterCommand
+import com.airbnb.plog.server.fragmentation.Defragmenter
 import com.airbnb.plog.server.fragmentation.Fragment
 import com.airbnb.plog.server.pipeline.ByteBufs
 import com.airbnb.plog.server.pipeline.ProtocolDecoder
 import com.airbnb.plog.server.stats.SimpleStatisticsReporter
 import com.airbnb.plog.server.stats.StatisticsReporter
+import com.typesafe.config.ConfigFactory
 import io.netty.buffer.Unpooled
 import io.netty.channel.embedded.EmbeddedChannel
 
@@ -33,9 +36,9 @@ class ProtocolDecoderTest extends GroovyTestCase {
 
     void testReportsUnknownV0InvalidType() {
         runTest { EmbeddedChannel channel, StatisticsReporter stats ->
-            for (type in 2..255)
+            for (type in 4..255)
                 insert([0, type] as byte[], channel)
-            assert stats.receivedV0InvalidType() == 255
+            assert stats.receivedV0InvalidType() == 253
         }
     }
 
@@ -82,6 +85,56 @@ class ProtocolDecoderTest extends GroovyTestCase {
         }
     }
 
+    void testSplitsPackedMessages() {
+        runTest { EmbeddedChannel channel, StatisticsReporter stats ->
+            final packet = [0, 2] +
+                    [0, 5, 0, 0] + 'hello'.bytes.toList() +
+                    [0, 0, 0, 7] + 'foo\0bar'.bytes.toList() +
+                    [0, 5, 0, 3] + 'kt:'.bytes.toList() + 'world'.bytes.toList() +
+                    // truncated
+                    [0, 9, 0, 0] + 'lost'.bytes.toList()
+            insert(packet as byte[], channel)
+
+            final received = (0..2).collect {
+                final msg = (MessageImpl) channel.readInbound()
+                final result = [new String(msg.asBytes()), msg.tags]
+                msg.release()
+                result
+            }
+            assert received == [['hello', []], ['', ['foo', 'bar']], ['world', ['kt:']]]
+            assert stats.receivedV0InvalidPackedPacket() == 2
+            assert stats.receivedV0PackedPacket(3) == 2
+        }
+    }
+
+    void testDefragmentsSingleFragmentsInPlace() {
+        final stats = new SimpleStatisticsReporter()
+        final defragConfig = ConfigFactory.defaultReference().getConfig('plog.server.udp.defaults.defrag')
+        final channel = new EmbeddedChannel(new ProtocolDecoder(stats, new Defragmenter(stats, defragConfig)))
+        final payload = 'hello'.bytes
+        final tags = 'foo\0bar'.bytes
+        final hash = Murmur3.hash32(Unpooled.wrappedBuffer(payload))
+        final packet = Unpooled.buffer()
+                .writeShort(1).writeShort(1).writeShort(0).writeShort(payload.length)
+                .writeInt(42).writeInt(payload.length).writeInt(hash)
+                .writeShort(tags.length).writeShort(0)
+                .writeBytes(tags).writeBytes(payload)
+
+        channel.writeInbound(new io.netty.channel.socket.DatagramPacket(packet.copy(), Utils.localAddr, Utils.clientAddr))
+        final msg = (MessageImpl) channel.readInbound()
+        assert msg.asBytes() == payload
+        assert msg.tags == ['foo', 'bar']
+        msg.release()
+
+        // corrupt the hash
+        packet.setInt(16, hash + 1)
+        channel.writeInbound(new io.netty.channel.socket.DatagramPacket(packet, Utils.localAddr, Utils.clientAddr))
+        assert channel.readInbound() == null
+        assert packet.refCnt() == 0
+        assert stats.receivedV0InvalidChecksum(1) == 2
+        assert !channel.finish()
+    }
+
     private void runTest(Closure test) {
         final stats = new SimpleStatisticsReporter()
         final channel = new EmbeddedChannel(new ProtocolDecoder(stats))
@@ -4,23 +4,36 @@ import com.airbnb.plog.Message;
 import com.eclipsesource.json.JsonObject;
 import com.google.common.collect.Queues;
 import com.typesafe.config.Config;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 
 import java.util.Queue;
 
 @SuppressWarnings("ClassOnlyUsedInOneModule")
 public class MessageQueueProvider implements HandlerProvider {
     @Getter
-    private static final Queue<Message> queue = Queues.newArrayDeque();
+    private static final Queue<Message> queue = Queues.newConcurrentLinkedQueue();
 
     @Override
     public Handler getHandler(Config config) throws Exception {
-        return new MessageQueueHandler();
+        return new MessageQueueHandler(config.hasPath("capacity") ? config.getInt("capacity") : 0);
     }
 
-    private static class MessageQueueHandler extends SimpleChannelInboundHandler<Message> implements Handler {
+    @ChannelHandler.Sharable
+    @RequiredArgsConstructor
+    private static class MessageQueueHandler extends SimpleChannelInboundHandler<Message>
+            implements Handler, Saturable {
+        // only for saturation, 0 for none
+        private final int capacity;
+
+        @Override
+        public double getSaturation() {
+            return capacity > 0 ? Math.min(1.0, (double) queue.size() / capacity) : 0;
+        }
+
         @Override
         public JsonObject getStats() {
             return new JsonObject().add("queued", queue.size());
@@ -4,6 +4,7 @@ import com.airbnb.plog.Message;
 import com.airbnb.plog.MessageImpl;
 import com.eclipsesource.json.JsonObject;
 import com.typesafe.config.Config;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 
@@ -14,6 +15,7 @@ public class ReverseBytesProvider implements HandlerProvider {
         return new ReverseBytesHandler();
     }
 
+    @ChannelHandler.Sharable
     private static class ReverseBytesHandler extends SimpleChannelInboundHandler<Message> implements Handler {
         @Override
         protected void channelRead0(ChannelHandlerContext ctx, Message msg) throws Exception {
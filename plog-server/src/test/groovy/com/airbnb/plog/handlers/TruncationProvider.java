@@ -35,7 +35,7 @@ public class TruncationProvider implements HandlerProvider {
                 ctx.fireChannelRead(msg);
             } else {
                 final ByteBuf content = msg.content().slice(0, maxLength);
-                ctx.fireChannelRead(new MessageImpl(content, msg.getTags()));
+                ctx.fireChannelRead(new MessageImpl(content, msg.getTags(), msg.getDelivery()));
             }
         }
 
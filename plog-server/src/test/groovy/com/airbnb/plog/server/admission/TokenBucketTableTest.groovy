@@ -0,0 +1,54 @@
+package com.airbnb.plog.server.admission
+
+import static com.airbnb.plog.server.admission.TokenBucketTable.Admission.*
+
+class TokenBucketTableTest extends GroovyTestCase {
+    private static final long SECOND = 1000000000L
+
+    void testPacketRate() {
+        final table = new TokenBucketTable(16, 2, 0, SECOND)
+        assert table.admit(1, 10, 0) == ADMITTED
+        assert table.admit(1, 10, 0) == ADMITTED
+        assert table.admit(1, 10, 0) == OVER_PACKETS
+        assert table.admit(1, 10, SECOND.intdiv(4)) == OVER_PACKETS
+        assert table.admit(1, 10, SECOND.intdiv(2)) == ADMITTED
+        assert table.admit(1, 10, SECOND.intdiv(2)) == OVER_PACKETS
+    }
+
+    void testByteRateAllowsLargestDatagram() {
+        final table = new TokenBucketTable(16, 0, 1000, SECOND)
+        assert table.admit(1, 65535, 0) == ADMITTED
+        assert table.admit(1, 1, 0) == OVER_BYTES
+        assert table.admit(1, 1000, SECOND) == ADMITTED
+    }
+
+    void testKeysAreIndependent() {
+        final table = new TokenBucketTable(16, 1, 0, SECOND)
+        assert table.admit(1, 10, 0) == ADMITTED
+        assert table.admit(1, 10, 0) == OVER_PACKETS
+        assert table.admit(2, 10, 0) == ADMITTED
+    }
+
+    void testEvictsLeastRecentlySeen() {
+        final table = new TokenBucketTable(1, 1, 0, SECOND)
+        assert table.admit(1, 10, 0) == ADMITTED
+        assert table.admit(2, 10, 1) == ADMITTED
+        assert table.evictions == 1
+        // forgotten, so full again
+        assert table.admit(1, 10, 2) == ADMITTED
+    }
+
+    void testUnlimited() {
+        final table = new TokenBucketTable(1, 0, 0, SECOND)
+        assert table.unlimited
+        1000.times { assert table.admit(it, 65535, 0) == ADMITTED }
+    }
+
+    void testKeyOf() {
+        final v4 = new InetSocketAddress('127.0.0.1', 1234)
+        assert TokenBucketTable.keyOf(v4) == TokenBucketTable.keyOf(new InetSocketAddress('127.0.0.1', 1234))
+        assert TokenBucketTable.keyOf(v4) != TokenBucketTable.keyOf(new InetSocketAddress('127.0.0.1', 1235))
+        assert TokenBucketTable.keyOf(v4) != TokenBucketTable.keyOf(new InetSocketAddress('127.0.0.2', 1234))
+        assert TokenBucketTable.keyOf(v4) != 0
+    }
+}
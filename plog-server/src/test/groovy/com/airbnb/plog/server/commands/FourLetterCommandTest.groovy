@@ -1,6 +1,7 @@
 package com.airbnb.plog.server.commands
 
 import com.airbnb.plog.Utils
+import io.netty.buffer.Unpooled
 
 class FourLetterCommandTest extends GroovyTestCase {
     private final emptyTrail = ''.bytes
@@ -22,6 +23,15 @@ class FourLetterCommandTest extends GroovyTestCase {
         assert new FourLetterCommand('PING', Utils.clientAddr, emptyTrail).trail == emptyTrail
     }
 
+    void testReadsInPlace() {
+        final packet = Unpooled.wrappedBuffer('\0\0pInGfoo'.bytes)
+        final cmd = FourLetterCommand.read(packet, 2, Utils.clientAddr)
+        assert cmd.command.is(FourLetterCommand.PING)
+        assert cmd.trail == shortTrail
+        assert FourLetterCommand.read(Unpooled.wrappedBuffer('\0\0borg'.bytes), 2, Utils.clientAddr).command == 'BORG'
+        assert FourLetterCommand.read(Unpooled.wrappedBuffer('\0\0yo'.bytes), 2, Utils.clientAddr) == null
+    }
+
     void testToString() {
         final repr = new FourLetterCommand('ping', Utils.clientAddr, 'foo'.bytes).toString()
         assert repr == 'FourLetterCommand(command=PING, sender=/192.0.2.1:9, trail=[102, 111, 111])'
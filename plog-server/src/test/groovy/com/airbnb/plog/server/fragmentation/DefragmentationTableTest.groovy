@@ -0,0 +1,92 @@
+package com.airbnb.plog.server.fragmentation
+
+import com.airbnb.plog.server.stats.SimpleStatisticsReporter
+import com.google.common.base.Ticker
+import io.netty.buffer.Unpooled
+
+import java.util.concurrent.TimeUnit
+
+class DefragmentationTableTest extends GroovyTestCase {
+    private static final long EXPIRE_NANOS = TimeUnit.SECONDS.toNanos(10)
+
+    private long now = 0
+    private final stats = new SimpleStatisticsReporter()
+
+    private DefragmentationTable create(long maxWeight) {
+        new DefragmentationTable(stats, maxWeight, EXPIRE_NANOS, [read: { now }] as Ticker)
+    }
+
+    // first of 2 fragments of 5 bytes, weighing 10
+    private static Fragment fragment(long msgId) {
+        new Fragment(2, 0, 5, msgId, 10, 0, Unpooled.wrappedBuffer(new byte[5]), null)
+    }
+
+    void testAddsOnceAndRemoves() {
+        final table = create(1000000)
+        for (id in 0..<1000)
+            assert table.getOrAdd(fragment(id * 0x100000001L)) == null
+        assert table.size() == 1000
+
+        final messages = (0..<1000).collect { table.get(it * 0x100000001L) }
+        assert messages.every { it != null }
+        assert table.getOrAdd(fragment(42 * 0x100000001L)).is(messages[42])
+        assert table.get(-1) == null
+
+        for (id in (0..<1000).step(2))
+            table.remove(id * 0x100000001L)
+        assert table.size() == 500
+        // survived deletions from their probe clusters
+        for (id in 0..<1000)
+            assert table.get(id * 0x100000001L).is(id % 2 == 0 ? null : messages[id])
+
+        final stats = table.stats()
+        assert stats.missCount() == 1000 + 500 + 1
+        assert stats.loadSuccessCount() == 1000
+        assert stats.evictionCount() == 0
+        messages.each { it.release() }
+    }
+
+    void testEvictsLeastRecentlyUsedOverWeight() {
+        // 2 messages per segment
+        final table = create(4 * 25)
+        table.getOrAdd(fragment(-1))
+        final kept = table.get(-1)
+        for (id in 0..<100) {
+            assert table.get(-1).is(kept)
+            table.getOrAdd(fragment(id))
+            assert table.size() <= 8
+        }
+        assert table.get(-1).is(kept)
+        assert table.stats().evictionCount() == 101 - table.size()
+
+        // over the budget of its segment (and of the table) on its own: kept, alone
+        final huge = create(4 * 5)
+        assert huge.getOrAdd(fragment(0)) == null
+        assert huge.size() == 1
+        assert huge.stats().evictionCount() == 0
+        final alone = huge.get(0)
+        assert alone != null
+        // then evicted for the next message of its segment
+        for (id in 1..<100)
+            huge.getOrAdd(fragment(id))
+        assert huge.get(0) == null
+        assert alone.refCnt() == 0
+        assert huge.size() <= 4
+    }
+
+    void testExpiresAfterAccess() {
+        final table = create(1000)
+        table.getOrAdd(fragment(1))
+        final message = table.get(1)
+
+        now += EXPIRE_NANOS - 1
+        assert table.get(1).is(message)
+        now += EXPIRE_NANOS - 1
+        assert table.get(1).is(message)
+        now += EXPIRE_NANOS
+        assert table.get(1) == null
+        assert message.refCnt() == 0
+        assert table.stats().evictionCount() == 1
+        assert stats.missingFragmentInDroppedMessage(1, 2) == 2
+    }
+}
@@ -55,7 +55,7 @@ class FragmentTest extends GroovyTestCase {
 
     void testToString() {
         final fragment = fragmentFromPayload((0..1) + (5..2) + (6..19) + [0, 0, 0, 0] as byte[])
-        final expected = 'Fragment(fragmentCount=1284, fragmentIndex=770, fragmentSize=1543, msgId=38789515787, totalLength=202182159, msgHash=269554195)'
+        final expected = 'Fragment(fragmentCount=1284, fragmentIndex=770, fragmentSize=1543, msgId=38789515787, totalLength=202182159, msgHash=269554195, compression=0)'
         assert fragment.toString() == expected
     }
 
@@ -1,8 +1,10 @@
 package com.airbnb.plog.server.fragmentation
 
+import com.airbnb.plog.common.Murmur3
 import com.airbnb.plog.server.pipeline.ByteBufs
 import com.airbnb.plog.server.stats.SimpleStatisticsReporter
 import com.airbnb.plog.server.stats.StatisticsReporter
+import io.netty.buffer.CompositeByteBuf
 import io.netty.buffer.Unpooled
 
 class FragmentedMessageTest extends GroovyTestCase {
@@ -53,6 +55,44 @@ class FragmentedMessageTest extends GroovyTestCase {
         }
     }
 
+    void testReassemblesWithoutCopies() {
+        for (indices in (0..<4).permutations()) {
+            // 4 fragments of 3 bytes, the last of 1, each from its own packet
+            final packets = indices.collectEntries { [it, Unpooled.wrappedBuffer('0123456789'.substring(it * 3).take(3).bytes)] }
+            final fragment = { int index -> new Fragment(4, index, 3, 0, 10, 0, packets[index], null) }
+
+            final msg = FragmentedMessage.fromFragment(fragment(indices[0]), stats, true)
+            indices[1..-1].each { msg.ingestFragment(fragment(it), stats) }
+            // duplicates are ignored
+            msg.ingestFragment(fragment(indices[0]), stats)
+            assert msg.isComplete()
+            assert msg.payload instanceof CompositeByteBuf
+            assert new String(read(msg)) == '0123456789'
+
+            packets.values().each { it.release() }
+            assert packets.values().every { it.refCnt() == 1 }
+            msg.release()
+            assert packets.values().every { it.refCnt() == 0 }
+        }
+    }
+
+    void testHashesAsFragmentsComeIn() {
+        // fragments of 3 bytes, the last of 1, in every order
+        final payload = '0123456789'.bytes
+        final expected = Murmur3.hash32(Unpooled.wrappedBuffer(payload))
+        for (zeroCopy in [false, true])
+            for (indices in (0..<4).permutations()) {
+                final fragment = { int index ->
+                    final slice = Arrays.copyOfRange(payload, index * 3, Math.min(index * 3 + 3, payload.length))
+                    new Fragment(4, index, 3, 0, payload.length, expected, Unpooled.wrappedBuffer(slice), null)
+                }
+                final msg = FragmentedMessage.fromFragment(fragment(indices[0]), stats, zeroCopy)
+                indices[1..-1].each { msg.ingestFragment(fragment(it), stats) }
+                assert msg.payloadHash == expected
+                msg.release()
+            }
+    }
+
     void testCatchesInvalidLengthForLast() {
         // last can come first, how convenient :)
         final long initial = stats.receivedV0InvalidMultipartFragment(4, 5)
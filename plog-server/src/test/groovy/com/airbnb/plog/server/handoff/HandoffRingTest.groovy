@@ -0,0 +1,167 @@
+package com.airbnb.plog.server.handoff
+
+import com.airbnb.plog.server.stats.SimpleStatisticsReporter
+import groovy.json.JsonSlurper
+import io.netty.buffer.DefaultByteBufHolder
+import io.netty.buffer.Unpooled
+
+class HandoffRingTest extends GroovyTestCase {
+    private static holder(int size) {
+        new DefaultByteBufHolder(Unpooled.buffer(size, size))
+    }
+
+    private static ring(Map args) {
+        new HandoffRing(args.capacity ?: 4,
+                args.maxBytes ?: 1024,
+                args.waitStrategy ?: WaitStrategy.BLOCKING,
+                args.policy ?: DropPolicy.DROP_NEWEST,
+                args.stats ?: new SimpleStatisticsReporter())
+    }
+
+    void testCapacityRoundedUp() {
+        assert ring(capacity: 3).capacity == 4
+        assert ring(capacity: 4).capacity == 4
+        assert ring(capacity: 5).capacity == 8
+    }
+
+    void testFifo() {
+        final ring = ring([:])
+        final items = (1..3).collect { holder(it) }
+        for (item in items)
+            assert ring.offer(item)
+        assert ring.size() == 3
+        assert ring.retainedBytes == 6
+        for (item in items)
+            assert ring.poll().is(item)
+        assert ring.poll() == null
+        assert ring.retainedBytes == 0
+    }
+
+    void testWrapsAround() {
+        final ring = ring([:])
+        10.times {
+            final item = holder(1)
+            assert ring.offer(item)
+            assert ring.poll().is(item)
+        }
+    }
+
+    void testDropNewestOverCapacity() {
+        final stats = new SimpleStatisticsReporter()
+        final ring = ring(stats: stats)
+        final items = (1..4).collect { holder(1) }
+        for (item in items)
+            assert ring.offer(item)
+
+        final rejected = holder(1)
+        assert !ring.offer(rejected)
+        assert rejected.refCnt() == 0
+        assert stats.droppedPacketOverHandoffCapacity() == 2
+        assert ring.poll().is(items[0])
+    }
+
+    void testDropNewestOverMemory() {
+        final stats = new SimpleStatisticsReporter()
+        final ring = ring(maxBytes: 10, stats: stats)
+        assert ring.offer(holder(6))
+        assert !ring.offer(holder(6))
+        assert ring.offer(holder(4))
+        assert stats.droppedPacketOverHandoffMemory() == 2
+    }
+
+    void testWeighsSharedBuffers() {
+        final stats = new SimpleStatisticsReporter()
+        final ring = ring(maxBytes: 100, stats: stats)
+        final shared = Unpooled.buffer(64, 64).writeZero(64)
+        final first = new DefaultByteBufHolder(shared.retainedSlice(0, 8))
+        final second = new DefaultByteBufHolder(shared.retainedSlice(8, 8))
+        shared.release()
+
+        assert ring.offer(first)
+        assert ring.retainedBytes == 64
+        assert !ring.offer(second)
+        assert stats.droppedPacketOverHandoffMemory() == 2
+        assert ring.poll().is(first)
+        assert ring.retainedBytes == 0
+        first.release()
+        assert shared.refCnt() == 0
+    }
+
+    void testDropOldest() {
+        final stats = new SimpleStatisticsReporter()
+        final ring = ring(policy: DropPolicy.DROP_OLDEST, maxBytes: 10, stats: stats)
+        final first = holder(6)
+        final second = holder(6)
+        assert ring.offer(first)
+        assert ring.offer(second)
+        assert first.refCnt() == 0
+        assert ring.poll().is(second)
+        assert stats.droppedPacketOverHandoffMemory() == 2
+    }
+
+    void testCloseReleasesAndWakesConsumers() {
+        final ring = ring([:])
+        final item = holder(1)
+        ring.offer(item)
+
+        def taken = 'nothing'
+        final consumer = Thread.start {
+            ring.take().release()
+            taken = ring.take()
+        }
+        Thread.sleep(50)
+        ring.close()
+        consumer.join(1000)
+
+        assert !consumer.alive
+        assert taken == null
+        assert item.refCnt() == 0
+    }
+
+    void testReportsWakeups() {
+        final stats = new SimpleStatisticsReporter()
+        final ring = ring(waitStrategy: WaitStrategy.SLEEPING, stats: stats)
+
+        // no wait, no wakeup
+        ring.offer(holder(1))
+        ring.take().release()
+
+        final consumer = Thread.start { ring.take().release() }
+        Thread.sleep(50)
+        ring.offer(holder(1))
+        consumer.join(1000)
+
+        final wakeups = new JsonSlurper().parseText(stats.toJSON())['handoff_wakeup_micros']
+        assert wakeups.sum() == 1
+    }
+
+    void testConcurrentConsumers() {
+        final ring = ring(capacity: 64, maxBytes: 1 << 20)
+        final count = 10000
+        final consumed = Collections.synchronizedList([])
+        final consumers = (1..4).collect {
+            Thread.start {
+                def item
+                while ((item = ring.take()) != null) {
+                    consumed << item.content().getInt(0)
+                    item.release()
+                }
+            }
+        }
+
+        for (i in 0..<count) {
+            final item = holder(4)
+            item.content().writeInt(i)
+            while (!ring.offer(item.retain()))
+                Thread.yield()
+            item.release()
+        }
+        while (ring.size() > 0)
+            Thread.sleep(1)
+        ring.close()
+        consumers*.join()
+
+        assert consumed.size() == count
+        assert consumed.toSet().size() == count
+    }
+}
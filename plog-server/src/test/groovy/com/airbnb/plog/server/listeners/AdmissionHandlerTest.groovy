@@ -0,0 +1,29 @@
+package com.airbnb.plog.server.listeners
+
+import com.airbnb.plog.server.stats.SimpleStatisticsReporter
+import com.typesafe.config.ConfigFactory
+import groovy.json.JsonSlurper
+import io.netty.buffer.Unpooled
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.channel.socket.DatagramPacket
+
+class AdmissionHandlerTest extends GroovyTestCase {
+    private static final defaults = ConfigFactory.defaultReference().getConfig('plog.server.udp.defaults.admission')
+
+    private static packet(int senderPort) {
+        new DatagramPacket(Unpooled.wrappedBuffer('hello'.bytes),
+                new InetSocketAddress('127.0.0.1', 1), new InetSocketAddress('127.0.0.1', senderPort))
+    }
+
+    void testReportsEvictedSources() {
+        final stats = new SimpleStatisticsReporter()
+        final config = ConfigFactory.parseMap([sources: 1, packets_per_second: 1000]).withFallback(defaults)
+        final channel = new EmbeddedChannel(new AdmissionHandler(config, 1.0, stats))
+
+        for (port in [1000, 1000, 1001, 1000])
+            channel.writeInbound(packet(port))
+        assert channel.inboundMessages().size() == 4
+        assert new JsonSlurper().parseText(stats.toJSON())['admission_evicted_sources'] == 2
+        channel.finishAndReleaseAll()
+    }
+}
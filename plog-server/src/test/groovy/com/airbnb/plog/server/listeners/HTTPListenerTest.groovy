@@ -0,0 +1,109 @@
+package com.airbnb.plog.server.listeners
+
+import com.airbnb.plog.handlers.MessageQueueProvider
+import com.typesafe.config.ConfigFactory
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.Unpooled
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.handler.codec.compression.SnappyFrameEncoder
+
+import java.util.zip.GZIPOutputStream
+
+class HTTPListenerTest extends GroovyTestCase {
+    public static final int PORT = 23459
+
+    final refConfig = ConfigFactory.defaultReference().getConfig('plog.server')
+    final defaultHTTPConfig = refConfig.getConfig('http.defaults')
+            .withFallback(refConfig.getConfig('tcp.defaults'))
+            .withFallback(refConfig.getConfig('defaults'))
+
+    private HTTPListener listener
+
+    @Override
+    protected void setUp() {
+        final config = ConfigFactory.parseMap([
+                port    : PORT,
+                max_line: 10,
+                handlers: [[provider: 'com.airbnb.plog.handlers.MessageQueueProvider']]
+        ]).withFallback(defaultHTTPConfig)
+        listener = new HTTPListener(config)
+        listener.startAsync().awaitRunning()
+    }
+
+    @Override
+    protected void tearDown() {
+        listener.stopAsync().awaitTerminated()
+        MessageQueueProvider.queue.clear()
+    }
+
+    private static HttpURLConnection post(String query, byte[] body, Map<String, String> headers = [:]) {
+        final connection = (HttpURLConnection) new URL("http://127.0.0.1:$PORT/$query").openConnection()
+        connection.requestMethod = 'POST'
+        connection.doOutput = true
+        headers.each { name, value -> connection.setRequestProperty(name, value) }
+        connection.outputStream.withStream { it.write(body) }
+        connection
+    }
+
+    private static Map<String, List<String>> received() {
+        final messages = [:]
+        def message
+        while ((message = MessageQueueProvider.queue.poll()) != null) {
+            messages[new String(message.asBytes())] = message.tags as List
+            message.release()
+        }
+        messages
+    }
+
+    void testLines() {
+        final connection = post('?tag=kt:topic', 'hello\r\nworld\nway too long\nlast'.bytes,
+                ['X-Plog-Tags': 'pk:key, other'])
+        assert connection.responseCode == 204
+        assert connection.getHeaderField('X-Plog-Messages') == '3'
+        assert connection.getHeaderField('X-Plog-Dropped') == '1'
+        final tags = ['kt:topic', 'pk:key', 'other']
+        assert received() == [hello: tags, world: tags, last: tags]
+    }
+
+    void testLengthPrefixed() {
+        final body = new ByteArrayOutputStream()
+        final out = new DataOutputStream(body)
+        for (frame in [[tags: 'kt:topic', payload: 'one\ntwo'], [tags: '', payload: 'three']]) {
+            out.writeInt(2 + frame.tags.length() + frame.payload.length())
+            out.writeShort(frame.tags.length())
+            out.write(frame.tags.bytes)
+            out.write(frame.payload.bytes)
+        }
+        assert post('?framing=length_prefixed&tag=pk:key', body.toByteArray()).responseCode == 204
+        assert received() == ['one\ntwo': ['pk:key', 'kt:topic'], three: ['pk:key']]
+
+        assert post('?framing=length_prefixed', [0, 0, 0, 42, 0, 0] as byte[]).responseCode == 400
+    }
+
+    void testGzip() {
+        final body = new ByteArrayOutputStream()
+        new GZIPOutputStream(body).withStream { it.write('hello\nworld\n'.bytes) }
+        assert post('', body.toByteArray(), ['Content-Encoding': 'gzip']).responseCode == 204
+        assert received() == [hello: [], world: []]
+    }
+
+    void testSnappy() {
+        final encoder = new EmbeddedChannel(new SnappyFrameEncoder())
+        encoder.writeOutbound(Unpooled.wrappedBuffer('hello\nworld\n'.bytes))
+        final body = new ByteArrayOutputStream()
+        ByteBuf chunk
+        while ((chunk = encoder.readOutbound()) != null) {
+            final bytes = new byte[chunk.readableBytes()]
+            chunk.readBytes(bytes)
+            body.write(bytes)
+            chunk.release()
+        }
+        assert post('', body.toByteArray(), ['Content-Encoding': 'snappy']).responseCode == 204
+        assert received() == [hello: [], world: []]
+    }
+
+    void testOnlyPost() {
+        final connection = (HttpURLConnection) new URL("http://127.0.0.1:$PORT/").openConnection()
+        assert connection.responseCode == 405
+    }
+}
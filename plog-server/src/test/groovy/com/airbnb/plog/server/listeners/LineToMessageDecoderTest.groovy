@@ -0,0 +1,69 @@
+package com.airbnb.plog.server.listeners
+
+import com.airbnb.plog.MessageImpl
+import com.google.common.base.Charsets
+import io.netty.buffer.Unpooled
+import io.netty.channel.ChannelHandlerContext
+import io.netty.channel.ChannelInboundHandlerAdapter
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.handler.codec.TooLongFrameException
+
+class LineToMessageDecoderTest extends GroovyTestCase {
+    private static List<String> decode(EmbeddedChannel channel, String... chunks) {
+        for (chunk in chunks)
+            channel.writeInbound(Unpooled.copiedBuffer(chunk, Charsets.UTF_8))
+        final lines = []
+        MessageImpl message
+        while ((message = channel.readInbound()) != null) {
+            lines << new String(message.asBytes(), Charsets.UTF_8)
+            message.release()
+        }
+        lines
+    }
+
+    void testIndexOfNewline() {
+        for (length in 0..20) {
+            final bytes = ('x' * length).bytes
+            assert LineToMessageDecoder.indexOfNewline(Unpooled.wrappedBuffer(bytes), 0, length) == -1
+            for (position in 0..<length) {
+                final withNewline = ('x' * length).bytes
+                withNewline[position] = 0x0a
+                // a \v next to the newline is where the SWAR borrow can produce a false match
+                if (position > 0)
+                    withNewline[position - 1] = 0x0b
+                if (position < length - 1)
+                    withNewline[position + 1] = 0x0b
+                assert LineToMessageDecoder.indexOfNewline(Unpooled.wrappedBuffer(withNewline), 0, length) == position
+            }
+        }
+    }
+
+    void testLines() {
+        final channel = new EmbeddedChannel(new LineToMessageDecoder(100))
+        assert decode(channel, 'foo\nbar\r\n\nhello world, this is a longer line\nbaz') ==
+                ['foo', 'bar', '', 'hello world, this is a longer line']
+        assert decode(channel, '\n') == ['baz']
+        assert !channel.finish()
+    }
+
+    void testSplitAcrossReads() {
+        final channel = new EmbeddedChannel(new LineToMessageDecoder(100))
+        assert decode(channel, 'hello ', 'wonderful ', 'world\r', '\nfoo') == ['hello wonderful world']
+        assert decode(channel, '\n') == ['foo']
+    }
+
+    void testTooLong() {
+        final errors = []
+        final channel = new EmbeddedChannel(new LineToMessageDecoder(10), new ChannelInboundHandlerAdapter() {
+            @Override
+            void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+                errors << cause
+            }
+        })
+        assert decode(channel, 'way too long for sure\nok\n') == ['ok']
+        assert decode(channel, 'still too long, ', 'and longer', ' and longer\nok again\n') == ['ok again']
+        assert errors.size() == 2
+        assert errors.every { it instanceof TooLongFrameException }
+        assert channel.open
+    }
+}
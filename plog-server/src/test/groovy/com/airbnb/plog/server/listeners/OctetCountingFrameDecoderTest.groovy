@@ -0,0 +1,50 @@
+package com.airbnb.plog.server.listeners
+
+import com.google.common.base.Charsets
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.Unpooled
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.handler.codec.DecoderException
+
+class OctetCountingFrameDecoderTest extends GroovyTestCase {
+    private static List<String> decode(EmbeddedChannel channel, String... chunks) {
+        for (chunk in chunks)
+            channel.writeInbound(Unpooled.copiedBuffer(chunk, Charsets.UTF_8))
+        final frames = []
+        ByteBuf frame
+        while ((frame = channel.readInbound()) != null) {
+            frames << frame.toString(Charsets.UTF_8)
+            frame.release()
+        }
+        frames
+    }
+
+    void testFrames() {
+        final channel = new EmbeddedChannel(new OctetCountingFrameDecoder(100))
+        assert decode(channel, '5 hello11 hello\nworld0 ') == ['hello', 'hello\nworld', '']
+        assert !channel.finish()
+    }
+
+    void testSplitAcrossReads() {
+        final channel = new EmbeddedChannel(new OctetCountingFrameDecoder(100))
+        assert decode(channel, '1', '1 hello', ' world3') == ['hello world']
+        assert decode(channel, ' foo') == ['foo']
+    }
+
+    void testInvalidLengthClosesConnection() {
+        final channel = new EmbeddedChannel(new OctetCountingFrameDecoder(100))
+        shouldFail(DecoderException) { decode(channel, 'x5 hello') }
+        assert !channel.open
+    }
+
+    void testTooLong() {
+        final channel = new EmbeddedChannel(new OctetCountingFrameDecoder(100))
+        shouldFail(DecoderException) { decode(channel, '101 ') }
+        assert !channel.open
+    }
+
+    void testMissingLength() {
+        final channel = new EmbeddedChannel(new OctetCountingFrameDecoder(100))
+        shouldFail(DecoderException) { decode(channel, 'hello world') }
+    }
+}
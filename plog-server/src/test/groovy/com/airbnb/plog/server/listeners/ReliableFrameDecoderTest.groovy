@@ -0,0 +1,99 @@
+package com.airbnb.plog.server.listeners
+
+import com.airbnb.plog.Delivery
+import com.airbnb.plog.Message
+import com.airbnb.plog.server.stats.SimpleStatisticsReporter
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.Unpooled
+import io.netty.channel.ChannelHandlerContext
+import io.netty.channel.SimpleChannelInboundHandler
+import io.netty.channel.embedded.EmbeddedChannel
+
+class ReliableFrameDecoderTest extends GroovyTestCase {
+    private final holds = [:]
+
+    private EmbeddedChannel newChannel() {
+        final decoder = new ReliableFrameDecoder(new SimpleStatisticsReporter(), 1, 60000)
+        new EmbeddedChannel(decoder,
+                new SimpleChannelInboundHandler<Message>() {
+                    @Override
+                    protected void channelRead0(ChannelHandlerContext ctx, Message msg) throws Exception {
+                        final payload = new String(msg.asBytes())
+                        if (payload.startsWith('held'))
+                            holds[payload] = msg.delivery.hold()
+                        if (payload.startsWith('boom'))
+                            throw new IllegalStateException(payload)
+                    }
+                },
+                decoder.handlerFailures())
+    }
+
+    private static ByteBuf frame(long sequence, String payload) {
+        Unpooled.buffer().writeLong(sequence).writeShort(0).writeBytes(payload.bytes)
+    }
+
+    private static List<Long> acks(EmbeddedChannel channel) {
+        final acks = []
+        ByteBuf ack
+        while ((ack = channel.readOutbound()) != null) {
+            acks << ack.readLong()
+            ack.release()
+        }
+        acks
+    }
+
+    void testAcknowledgesOnceDelivered() {
+        final channel = newChannel()
+        channel.writeInbound(frame(5, 'held5'), frame(6, 'held6'))
+        assert acks(channel) == []
+
+        ((Delivery) holds.held6).complete()
+        channel.writeInbound(frame(7, 'seven'))
+        assert acks(channel) == []
+
+        ((Delivery) holds.held5).complete()
+        channel.writeInbound(frame(8, 'eight'))
+        assert acks(channel) == [8L]
+        assert !channel.finish()
+    }
+
+    void testClosesOnFailedDelivery() {
+        final channel = newChannel()
+        channel.writeInbound(frame(1, 'one'), frame(2, 'held2'))
+        assert acks(channel) == [1L]
+
+        ((Delivery) holds.held2).fail(new IOException('nope'))
+        channel.writeInbound(frame(3, 'three'))
+        assert acks(channel) == []
+        assert !channel.open
+    }
+
+    void testClosesOnHandlerThrowing() {
+        final channel = newChannel()
+        channel.writeInbound(frame(1, 'one'))
+        assert acks(channel) == [1L]
+
+        shouldFail(IllegalStateException) { channel.writeInbound(frame(2, 'boom2')) }
+        assert acks(channel) == []
+        assert !channel.open
+    }
+
+    void testHandlerThrowingWhileHolding() {
+        final channel = newChannel()
+        channel.writeInbound(frame(1, 'held1'))
+        shouldFail(IllegalStateException) { channel.writeInbound(frame(2, 'boom2')) }
+        assert channel.open
+
+        ((Delivery) holds.held1).complete()
+        channel.writeInbound(frame(3, 'three'))
+        assert acks(channel) == []
+        assert !channel.open
+    }
+
+    void testClosesOnSequenceGoingBack() {
+        final channel = newChannel()
+        channel.writeInbound(frame(2, 'two'))
+        shouldFail { channel.writeInbound(frame(2, 'two again')) }
+        assert !channel.open
+    }
+}
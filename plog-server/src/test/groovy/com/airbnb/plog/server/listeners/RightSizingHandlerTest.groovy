@@ -0,0 +1,61 @@
+package com.airbnb.plog.server.listeners
+
+import com.airbnb.plog.Utils
+import com.airbnb.plog.server.stats.SimpleStatisticsReporter
+import com.typesafe.config.ConfigFactory
+import io.netty.buffer.Unpooled
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.channel.socket.DatagramPacket
+
+class RightSizingHandlerTest extends GroovyTestCase {
+    private static handler(Map config) {
+        new RightSizingHandler(ConfigFactory.parseMap([max_copy: 1024, percentile: 0.5, sample: 4] + config),
+                new SimpleStatisticsReporter())
+    }
+
+    private static packet(int size, int capacity) {
+        final buf = Unpooled.buffer(capacity, capacity)
+        buf.writeZero(size)
+        new DatagramPacket(buf, Utils.localAddr, Utils.clientAddr)
+    }
+
+    void testCopiesSmallDatagrams() {
+        final channel = new EmbeddedChannel(handler([:]))
+        final original = packet(100, 65536)
+        channel.writeInbound(original)
+
+        final DatagramPacket copied = channel.readInbound()
+        assert original.refCnt() == 0
+        assert copied.content().capacity() == 100
+        assert copied.content().readableBytes() == 100
+        assert copied.sender() == Utils.clientAddr
+        copied.release()
+    }
+
+    void testPassesLargeDatagrams() {
+        final channel = new EmbeddedChannel(handler([:]))
+        final original = packet(2000, 65536)
+        channel.writeInbound(original)
+
+        assert channel.readInbound().is(original)
+        original.release()
+    }
+
+    void testThresholdFollowsPercentile() {
+        final handler = handler([:])
+        final channel = new EmbeddedChannel(handler)
+        assert handler.threshold == 1024
+
+        for (size in [10, 20, 30, 500]) {
+            channel.writeInbound(packet(size, 4096))
+            channel.readInbound().release()
+        }
+        assert handler.threshold == 32
+
+        for (size in [10, 600, 600, 600]) {
+            channel.writeInbound(packet(size, 4096))
+            channel.readInbound().release()
+        }
+        assert handler.threshold == 1024
+    }
+}
@@ -0,0 +1,190 @@
+package com.airbnb.plog.server.listeners
+
+import com.airbnb.plog.handlers.MessageQueueProvider
+import com.typesafe.config.ConfigFactory
+import groovy.json.JsonSlurper
+
+class TCPListenerTest extends GroovyTestCase {
+    public static final int PORT = 23457
+
+    final refConfig = ConfigFactory.defaultReference().getConfig('plog.server')
+    final defaultTCPConfig = refConfig.getConfig('tcp.defaults')
+            .withFallback(refConfig.getConfig('defaults'))
+
+    private static List<String> handlerNames(Listener listener) {
+        new JsonSlurper().parseText(listener.stats.toJSON())['handlers']*.name
+    }
+
+    private static awaitMessages(int count) {
+        final messages = []
+        final start = System.currentTimeMillis()
+        while (messages.size() < count && System.currentTimeMillis() - start < 5000) {
+            final message = MessageQueueProvider.queue.poll()
+            if (message == null) {
+                Thread.sleep(10)
+            } else {
+                messages << new String(message.asBytes())
+                message.release()
+            }
+        }
+        messages
+    }
+
+    private static Map<String, List<String>> awaitTaggedMessages(int count) {
+        final messages = [:]
+        final start = System.currentTimeMillis()
+        while (messages.size() < count && System.currentTimeMillis() - start < 5000) {
+            final message = MessageQueueProvider.queue.poll()
+            if (message == null) {
+                Thread.sleep(10)
+            } else {
+                messages[new String(message.asBytes())] = message.tags as List
+                message.release()
+            }
+        }
+        messages
+    }
+
+    void testLengthPrefixedFraming() {
+        final config = ConfigFactory.parseMap([
+                port    : PORT,
+                framing : 'length_prefixed',
+                handlers: [[provider: 'com.airbnb.plog.handlers.MessageQueueProvider']]
+        ]).withFallback(defaultTCPConfig)
+        final listener = new TCPListener(config)
+        listener.startAsync().awaitRunning()
+
+        final socket = new Socket('127.0.0.1', PORT)
+        final out = new DataOutputStream(socket.outputStream)
+        for (frame in [[tags: 'kt:topic\0pk:key', payload: 'hello\nworld'], [tags: '', payload: 'bye']]) {
+            out.writeInt(2 + frame.tags.length() + frame.payload.length())
+            out.writeShort(frame.tags.length())
+            out.write(frame.tags.bytes)
+            out.write(frame.payload.bytes)
+        }
+        out.flush()
+
+        assert awaitTaggedMessages(2) == ['hello\nworld': ['kt:topic', 'pk:key'], bye: []]
+
+        socket.close()
+        listener.stopAsync().awaitTerminated()
+    }
+
+    void testOctetCountingFraming() {
+        final config = ConfigFactory.parseMap([
+                port    : PORT,
+                framing : 'octet_counting',
+                handlers: [[provider: 'com.airbnb.plog.handlers.MessageQueueProvider']]
+        ]).withFallback(defaultTCPConfig)
+        final listener = new TCPListener(config)
+        listener.startAsync().awaitRunning()
+
+        final socket = new Socket('127.0.0.1', PORT)
+        socket.outputStream.write('11 hello\nworld'.bytes)
+        socket.outputStream.flush()
+        assert awaitMessages(1) == ['hello\nworld']
+
+        socket.close()
+        listener.stopAsync().awaitTerminated()
+    }
+
+    void testHandlersSharedAcrossConnections() {
+        final config = ConfigFactory.parseMap([
+                port    : PORT,
+                handlers: [[provider: 'com.airbnb.plog.handlers.TruncationProvider', max_length: 3],
+                           [provider: 'com.airbnb.plog.handlers.MessageQueueProvider']]
+        ]).withFallback(defaultTCPConfig)
+        final listener = new TCPListener(config)
+        listener.startAsync().awaitRunning()
+
+        final sockets = (1..2).collect { new Socket('127.0.0.1', PORT) }
+        sockets.eachWithIndex { socket, i ->
+            socket.outputStream.write("hello$i\n".bytes)
+            socket.outputStream.flush()
+        }
+        assert awaitMessages(2) == ['hel', 'hel']
+
+        // sharable handlers are provided once, others once per connection
+        assert handlerNames(listener).sort() == ['mqueue', 'truncate', 'truncate']
+
+        sockets*.close()
+        final start = System.currentTimeMillis()
+        while (handlerNames(listener).size() > 1 && System.currentTimeMillis() - start < 5000)
+            Thread.sleep(10)
+        assert handlerNames(listener) == ['mqueue']
+
+        listener.stopAsync().awaitTerminated()
+    }
+
+    void testBackpressure() {
+        final config = ConfigFactory.parseMap([
+                port        : PORT,
+                backpressure: [enabled: true, high_water_mark: 1.0, low_water_mark: 0.0, interval: '1ms'],
+                handlers    : [[provider: 'com.airbnb.plog.handlers.MessageQueueProvider', capacity: 2]]
+        ]).withFallback(defaultTCPConfig)
+        final listener = new TCPListener(config)
+        listener.startAsync().awaitRunning()
+
+        final socket = new Socket('127.0.0.1', PORT)
+        socket.outputStream.write('a\nb\n'.bytes)
+        socket.outputStream.flush()
+        final start = System.currentTimeMillis()
+        while (MessageQueueProvider.queue.size() < 2 && System.currentTimeMillis() - start < 5000)
+            Thread.sleep(10)
+        Thread.sleep(100)
+
+        // the queue is full, further lines wait in the socket
+        // (with epoll, a read already requested can still go through)
+        socket.outputStream.write('c\n'.bytes)
+        socket.outputStream.flush()
+        Thread.sleep(100)
+        socket.outputStream.write('d\n'.bytes)
+        socket.outputStream.flush()
+        Thread.sleep(100)
+        assert !(MessageQueueProvider.queue*.asBytes().collect { new String(it) }.contains('d'))
+        final paused = new JsonSlurper().parseText(listener.stats.toJSON())['backpressure']
+        assert paused.paused
+        assert paused.paused_connections == 1
+
+        // and are read once it is drained
+        assert awaitMessages(4) == ['a', 'b', 'c', 'd']
+        final resumed = new JsonSlurper().parseText(listener.stats.toJSON())['backpressure']
+        assert resumed.pauses >= 1
+        assert resumed.pause_millis.sum() == resumed.pauses
+
+        socket.close()
+        listener.stopAsync().awaitTerminated()
+    }
+
+    void testSharedEventLoops() {
+        final eventLoops = new TCPEventLoops(refConfig.getConfig('event_loops')
+                .withFallback(ConfigFactory.parseMap([worker_threads: 2])))
+        final listeners = [PORT, PORT + 1].collect { port ->
+            new TCPListener(ConfigFactory.parseMap([
+                    port        : port,
+                    event_loops : [shared: true],
+                    backpressure: [enabled: true],
+                    handlers    : [[provider: 'com.airbnb.plog.handlers.MessageQueueProvider']]
+            ]).withFallback(defaultTCPConfig), eventLoops)
+        }
+        listeners*.startAsync()*.awaitRunning()
+
+        final stats = new JsonSlurper().parseText(listeners[0].stats.toJSON())['event_loops']
+        assert stats.boss.pending_tasks.size() == 1
+        assert stats.worker.pending_tasks.size() == 2
+
+        // stopping a listener leaves the shared event loops to the others
+        listeners[0].stopAsync().awaitTerminated()
+        final polling = ConnectionListener.getDeclaredField('backpressurePolling')
+        polling.accessible = true
+        assert polling.get(listeners[0]).cancelled
+        final socket = new Socket('127.0.0.1', PORT + 1)
+        socket.outputStream.write('hello\n'.bytes)
+        socket.outputStream.flush()
+        assert awaitMessages(1) == ['hello']
+
+        socket.close()
+        listeners[1].stopAsync().awaitTerminated()
+        assert eventLoops.shutdownGracefully().await(5000)
+    }
+}
@@ -1,12 +1,38 @@
 package com.airbnb.plog.server.listeners
 
+import com.airbnb.plog.common.Murmur3
 import com.airbnb.plog.handlers.MessageQueueProvider
 import com.typesafe.config.ConfigFactory
+import io.netty.buffer.Unpooled
 
 class UDPListenerTest extends GroovyTestCase {
     final static LOOPBACK_ADDR = Inet4Address.getByAddress([127, 0, 0, 1] as byte[])
     public static final int PORT = 23456
 
+    static final MULTI_FRAGMENT_1 = [
+            0, // version
+            1, // type
+            0, 2, // fragment count
+            0, 0, // fragment index
+            0, 3, // fragment length
+            0, 0, 0, 0, // identifier
+            0, 0, 0, 5, // message length
+            0x24, 0x8b, 0xfa, 0x47, // checksum
+            0, 0, 0, 0, // zeroes
+            104, 101, 108] as byte[]
+
+    static final MULTI_FRAGMENT_2 = [
+            0, // version
+            1, // type
+            0, 2, // fragment count
+            0, 1, // fragment index
+            0, 3, // fragment length
+            0, 0, 0, 0, // identifier
+            0, 0, 0, 5, // message length
+            0x24, 0x8b, 0xfa, 0x47, // checksum
+            0, 0, 0, 0, // zeroes
+            108, 111] as byte[]
+
     final refConfig = ConfigFactory.defaultReference().getConfig('plog.server')
     final defaultUDPConfig = refConfig.getConfig('udp.defaults')
             .withFallback(refConfig.getConfig('defaults'))
@@ -45,6 +71,94 @@ class UDPListenerTest extends GroovyTestCase {
         }, 'dlrow'.bytes)
     }
 
+    void testReusePort() {
+        final config = [handlers  : [[provider: 'com.airbnb.plog.handlers.MessageQueueProvider']],
+                        reuse_port: [enabled: true, sockets: 2]]
+        runTest(config, {
+            final socket = new DatagramSocket()
+            sendPacket(socket, 'hello'.bytes)
+            socket.close()
+        }, 'hello'.bytes)
+    }
+
+    void testRecvBatch() {
+        final config = [handlers  : [[provider: 'com.airbnb.plog.handlers.MessageQueueProvider']],
+                        RECV_BATCH: 8,
+                        RECV_SIZE : 2048]
+        runTest(config, {
+            final socket = new DatagramSocket()
+            sendPacket(socket, 'hello'.bytes)
+            socket.close()
+        }, 'hello'.bytes)
+    }
+
+    void testRingHandoff() {
+        final config = [handlers: [[provider: 'com.airbnb.plog.handlers.ReverseBytesProvider'],
+                                   [provider: 'com.airbnb.plog.handlers.MessageQueueProvider']],
+                        handoff : [type: 'ring']]
+        runTest(config, {
+            final socket = new DatagramSocket()
+            sendPacket(socket, 'hello'.bytes)
+            socket.close()
+        }, 'olleh'.bytes)
+    }
+
+    void testAffinityDispatch() {
+        final config = [handlers: [[provider: 'com.airbnb.plog.handlers.MessageQueueProvider']],
+                        handoff : [type: 'ring', ring: [dispatch: 'affinity']]]
+        runTest(config, {
+            final socket = new DatagramSocket()
+            sendPacket(socket, MULTI_FRAGMENT_1)
+            sendPacket(socket, MULTI_FRAGMENT_2)
+            socket.close()
+        }, 'hello'.bytes)
+    }
+
+    void testLowLatency() {
+        final config = [handlers   : [[provider: 'com.airbnb.plog.handlers.MessageQueueProvider']],
+                        low_latency: [enabled: true]]
+        runTest(config, {
+            final socket = new DatagramSocket()
+            sendPacket(socket, 'hello'.bytes)
+            socket.close()
+        }, 'hello'.bytes)
+    }
+
+    void testLowLatencyHandoffDefaults() {
+        final handoff = { Map config ->
+            UDPListener.handoffConfig(ConfigFactory.parseMap(config).withFallback(defaultUDPConfig))
+        }
+
+        assert handoff([:]).getString('type') == 'executor'
+        assert handoff([:]).getString('ring.wait_strategy') == 'blocking'
+
+        final lowLatency = handoff([low_latency: [enabled: true]])
+        assert lowLatency.getString('type') == 'ring'
+        assert lowLatency.getString('ring.wait_strategy') == 'sleeping'
+        assert lowLatency.getString('ring.drop_policy') == 'drop_newest'
+
+        // explicit settings win
+        final explicit = handoff([low_latency: [enabled: true],
+                                  handoff    : [ring: [wait_strategy: 'yielding']]])
+        assert explicit.getString('type') == 'ring'
+        assert explicit.getString('ring.wait_strategy') == 'yielding'
+        assert handoff([low_latency: [enabled: true], handoff: [type: 'executor']]).getString('type') == 'executor'
+    }
+
+    void testAdmission() {
+        final config = [handlers : [[provider: 'com.airbnb.plog.handlers.MessageQueueProvider']],
+                        admission: [enabled: true, packets_per_second: 1, burst: '1s']]
+        runTest(config, {
+            final socket = new DatagramSocket()
+            sendPacket(socket, 'hello'.bytes)
+            sendPacket(socket, 'world'.bytes)
+            socket.close()
+        }, 'hello'.bytes)
+
+        Thread.sleep(100)
+        assert MessageQueueProvider.queue.poll() == null
+    }
+
     void testSingleFragment() {
         final config = [handlers: [[provider: 'com.airbnb.plog.handlers.MessageQueueProvider']]]
         final fragment = [
@@ -91,38 +205,53 @@ class UDPListenerTest extends GroovyTestCase {
 
     void testMultiFragment() {
         final config = [handlers: [[provider: 'com.airbnb.plog.handlers.MessageQueueProvider']]]
-        final fragment1 = [
-                0, // version
-                1, // type
-                0, 2, // fragment count
-                0, 0, // fragment index
-                0, 3, // fragment length
-                0, 0, 0, 0, // identifier
-                0, 0, 0, 5, // message length
-                0x24, 0x8b, 0xfa, 0x47, // checksum
-                0, 0, 0, 0, // zeroes
-                104, 101, 108] as byte[]
-
-        final fragment2 = [
-                0, // version
-                1, // type
-                0, 2, // fragment count
-                0, 1, // fragment index
-                0, 3, // fragment length
-                0, 0, 0, 0, // identifier
-                0, 0, 0, 5, // message length
-                0x24, 0x8b, 0xfa, 0x47, // checksum
-                0, 0, 0, 0, // zeroes
-                108, 111] as byte[]
 
         runTest(config, {
             final socket = new DatagramSocket()
-            sendPacket(socket, fragment1)
-            sendPacket(socket, fragment2)
+            sendPacket(socket, MULTI_FRAGMENT_1)
+            sendPacket(socket, MULTI_FRAGMENT_2)
             socket.close()
         }, 'hello'.bytes)
     }
 
+    /**
+     * v0 multipart fragments of a payload, without tags
+     */
+    static List<byte[]> fragments(byte[] payload, int fragmentSize, int msgId) {
+        final count = (int) ((payload.length + fragmentSize - 1) / fragmentSize)
+        final hash = Murmur3.hash32(Unpooled.wrappedBuffer(payload))
+        (0..<count).collect { index ->
+            final length = Math.min(fragmentSize, payload.length - index * fragmentSize)
+            final packet = Unpooled.buffer(24 + length)
+                    .writeByte(0).writeByte(1)
+                    .writeShort(count).writeShort(index).writeShort(fragmentSize)
+                    .writeInt(msgId).writeInt(payload.length).writeInt(hash)
+                    .writeInt(0)
+                    .writeBytes(payload, index * fragmentSize, length)
+            packet.array()
+        }
+    }
+
+    private void checkLargeMessage(Map config) {
+        // over a quarter of the share of defrag.max_size of each defragmenter
+        final payload = new byte[100 * 1024]
+        new Random(42).nextBytes(payload)
+        runTest(config + [handlers: [[provider: 'com.airbnb.plog.handlers.MessageQueueProvider']]], {
+            final socket = new DatagramSocket()
+            for (fragment in fragments(payload, 50000, 1))
+                sendPacket(socket, fragment)
+            socket.close()
+        }, payload)
+    }
+
+    void testLargeMessageWithAffinityDispatch() {
+        checkLargeMessage([handoff: [type: 'ring', ring: [dispatch: 'affinity']]])
+    }
+
+    void testLargeMessageWithReusePort() {
+        checkLargeMessage([reuse_port: [enabled: true, sockets: 4]])
+    }
+
     static void sendPacket(DatagramSocket socket, byte[] payload) {
         final packet = new DatagramPacket(payload, payload.length, LOOPBACK_ADDR, PORT)
         Thread.sleep(10)
@@ -0,0 +1,177 @@
+package com.airbnb.plog.server.listeners
+
+import com.airbnb.plog.handlers.MessageQueueProvider
+import com.google.common.base.Charsets
+import com.typesafe.config.ConfigFactory
+import groovy.json.JsonSlurper
+import io.netty.bootstrap.Bootstrap
+import io.netty.buffer.Unpooled
+import io.netty.channel.Channel
+import io.netty.channel.ChannelHandlerContext
+import io.netty.channel.ChannelInboundHandlerAdapter
+import io.netty.channel.SimpleChannelInboundHandler
+import io.netty.channel.epoll.Epoll
+import io.netty.channel.epoll.EpollDomainDatagramChannel
+import io.netty.channel.epoll.EpollEventLoopGroup
+import io.netty.channel.unix.DomainDatagramPacket
+import io.netty.channel.unix.DomainSocketAddress
+
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+class UnixListenerTest extends GroovyTestCase {
+    final refConfig = ConfigFactory.defaultReference().getConfig('plog.server')
+    final defaultUnixConfig = refConfig.getConfig('unix.defaults')
+            .withFallback(refConfig.getConfig('udp.defaults'))
+            .withFallback(refConfig.getConfig('defaults'))
+
+    private File socketPath(String name) {
+        final file = File.createTempFile("plog-$name", '.sock')
+        file.delete()
+        file
+    }
+
+    private UnixListener newListener(File path) {
+        new UnixListener(ConfigFactory.parseMap([path    : path.path,
+                                                 handlers: [[provider: 'com.airbnb.plog.handlers.MessageQueueProvider']]])
+                .withFallback(defaultUnixConfig))
+    }
+
+    private void withListener(Closure test) {
+        withListener(socketPath('server'), true, test)
+    }
+
+    private void withListener(File path, boolean bindClient, Closure test) {
+        if (!Epoll.isAvailable())
+            return
+
+        final listener = newListener(path)
+        listener.startAsync().awaitRunning()
+
+        final replies = new LinkedBlockingQueue<String>()
+        final group = new EpollEventLoopGroup(1)
+        final clientPath = socketPath('client')
+        final Channel client = new Bootstrap()
+                .group(group)
+                .channel(EpollDomainDatagramChannel)
+                .handler(new SimpleChannelInboundHandler<DomainDatagramPacket>() {
+                    @Override
+                    protected void channelRead0(ChannelHandlerContext ctx, DomainDatagramPacket msg) {
+                        replies.add(msg.content().toString(Charsets.UTF_8))
+                    }
+                })
+                .bind(new DomainSocketAddress(bindClient ? clientPath.path : '')).sync().channel()
+
+        try {
+            test.call({ byte[] payload ->
+                client.writeAndFlush(new DomainDatagramPacket(Unpooled.wrappedBuffer(payload),
+                        new DomainSocketAddress(path))).sync()
+            }, replies, listener)
+        } finally {
+            client.close().sync()
+            group.shutdownGracefully().sync()
+            clientPath.delete()
+            listener.stopAsync().awaitTerminated()
+        }
+        assert !path.exists()
+    }
+
+    private static pollMessage() {
+        def grabbed = null
+        final start = System.currentTimeMillis()
+        while (System.currentTimeMillis() - start < 5000 && grabbed == null) {
+            Thread.sleep(10)
+            grabbed = MessageQueueProvider.queue.poll()
+        }
+        assert grabbed != null
+        final bytes = grabbed.asBytes()
+        grabbed.release()
+        bytes
+    }
+
+    void testUnboxed() {
+        withListener { send, replies, listener ->
+            send('hello'.bytes)
+            assert pollMessage() == 'hello'.bytes
+        }
+    }
+
+    void testMultiFragment() {
+        withListener { send, replies, listener ->
+            send(UDPListenerTest.MULTI_FRAGMENT_1)
+            send(UDPListenerTest.MULTI_FRAGMENT_2)
+            assert pollMessage() == 'hello'.bytes
+        }
+    }
+
+    void testPing() {
+        withListener { send, replies, listener ->
+            send(([0, 0] + ('PINGfoo'.bytes as List)) as byte[])
+            assert replies.poll(5, TimeUnit.SECONDS) == 'PONGfoo'
+        }
+    }
+
+    void testUnboundClientMultiFragment() {
+        withListener(socketPath('server'), false) { send, replies, listener ->
+            send(UDPListenerTest.MULTI_FRAGMENT_1)
+            send(UDPListenerTest.MULTI_FRAGMENT_2)
+            send('hello'.bytes)
+            assert pollMessage() == 'hello'.bytes
+            assert MessageQueueProvider.queue.isEmpty()
+            final stats = new JsonSlurper().parseText(listener.stats.toJSON())
+            assert stats.v0_invalid_multipart_header == 2
+        }
+    }
+
+    void testRemovesStaleSocket() {
+        if (!Epoll.isAvailable())
+            return
+
+        final path = socketPath('stale')
+        final group = new EpollEventLoopGroup(1)
+        try {
+            new Bootstrap()
+                    .group(group)
+                    .channel(EpollDomainDatagramChannel)
+                    .handler(new ChannelInboundHandlerAdapter())
+                    .bind(new DomainSocketAddress(path)).sync().channel()
+                    .close().sync()
+        } finally {
+            group.shutdownGracefully().sync()
+        }
+        assert path.exists()
+
+        withListener(path, true) { send, replies, listener ->
+            send('hello'.bytes)
+            assert pollMessage() == 'hello'.bytes
+        }
+    }
+
+    void testKeepsRegularFile() {
+        if (!Epoll.isAvailable())
+            return
+
+        final path = File.createTempFile('plog-file', '.sock')
+        path.text = 'precious'
+        try {
+            final listener = newListener(path)
+            shouldFail(IllegalStateException) {
+                listener.startAsync().awaitRunning()
+            }
+            assert path.text == 'precious'
+        } finally {
+            path.delete()
+        }
+    }
+
+    void testKeepsLiveSocket() {
+        withListener { send, replies, listener ->
+            final other = newListener(new File(listener.config.getString('path')))
+            shouldFail(IllegalStateException) {
+                other.startAsync().awaitRunning()
+            }
+            send('hello'.bytes)
+            assert pollMessage() == 'hello'.bytes
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.airbnb.plog.server.packetloss
+
+import com.google.common.base.Ticker
+
+import java.nio.ByteOrder
+
+class KernelDropSamplerTest extends GroovyTestCase {
+    // as printed by little-endian hosts
+    private static final TABLE = '''\
+   sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode ref pointer drops
+  123: 0100007F:5BA0 00000000:0000 07 00000000:00000200 00:00000000 00000000  1000        0 4242 2 0000000000000000 17
+  124: 0100007F:5BA0 00000000:0000 07 00000000:00000010 00:00000000 00000000  1000        0 4243 2 0000000000000000 3
+  125: 00000000:0035 00000000:0000 07 00000000:00000000 00:00000000 00000000     0        0 4244 2 0000000000000000 99
+  126: 0200007F:5BA0 00000000:0000 07 00000000:00000400 00:00000000 00000000  1000        0 4246 2 0000000000000000 1000
+'''
+    private static final TABLE6 = '''\
+  sl  local_address                         remote_address                        st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode ref pointer drops
+   7: 00000000000000000000000001000000:5BA0 00000000000000000000000000000000:0000 07 00000000:00000001 00:00000000 00000000  1000        0 4245 2 0000000000000000 1
+   8: 0000000000000000FFFF00000100007F:5BA0 00000000000000000000000000000000:0000 07 00000000:00000004 00:00000000 00000000  1000        0 4247 2 0000000000000000 5
+   9: 00000000000000000000000000000000:0035 00000000000000000000000000000000:0000 07 00000000:00000000 00:00000000 00000000     0        0 4248 2 0000000000000000 1
+'''
+
+    private long now = 0
+    private final ticker = [read: { now }] as Ticker
+
+    @Override
+    protected void setUp() {
+        assert ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN
+    }
+
+    private static File tempTable(String content) {
+        final file = File.createTempFile('plog', 'udp')
+        file.deleteOnExit()
+        file.text = content
+        file
+    }
+
+    private KernelDropSampler sampler(String host, int port, List<File> tables) {
+        new KernelDropSampler(new InetSocketAddress(host, port), tables, ticker)
+    }
+
+    void testSumsSocketsBoundToAddressAndPort() {
+        // including IPv4-mapped addresses of dual-stack sockets, but not other addresses on the same port
+        final sample = sampler('127.0.0.1', 23456, [tempTable(TABLE), tempTable(TABLE6)]).sample()
+        assert sample.sockets == 3
+        assert sample.rxQueueBytes == 0x214
+        assert sample.drops == 25
+
+        assert sampler('::1', 23456, [tempTable(TABLE), tempTable(TABLE6)]).sample().drops == 1
+    }
+
+    void testMatchesWildcardsAcrossFamilies() {
+        final sample = sampler('0.0.0.0', 53, [tempTable(TABLE), tempTable(TABLE6)]).sample()
+        assert sample.sockets == 2
+        assert sample.drops == 100
+    }
+
+    void testIgnoresMissingTables() {
+        final sample = sampler('0.0.0.0', 53, [tempTable(TABLE), new File('/does/not/exist')]).sample()
+        assert sample.sockets == 1
+        assert sample.drops == 99
+    }
+
+    void testNoSocket() {
+        final sample = sampler('127.0.0.1', 1, [tempTable(TABLE)]).sample()
+        assert sample.sockets == 0
+        assert sample.drops == 0
+    }
+
+    void testReusesRecentSamples() {
+        final table = tempTable(TABLE)
+        final sampler = sampler('0.0.0.0', 53, [table])
+        final first = sampler.sample()
+        table.text = ''
+
+        now += KernelDropSampler.MIN_INTERVAL_NANOS - 1
+        assert sampler.sample().is(first)
+        now += 1
+        assert sampler.sample().sockets == 0
+    }
+}
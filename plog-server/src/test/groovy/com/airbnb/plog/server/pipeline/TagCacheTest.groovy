@@ -0,0 +1,46 @@
+package com.airbnb.plog.server.pipeline
+
+import com.airbnb.plog.TagSet
+import io.netty.buffer.Unpooled
+
+class TagCacheTest extends GroovyTestCase {
+    private static TagSet decode(String tags) {
+        TagCache.decode(Unpooled.wrappedBuffer(tags.bytes))
+    }
+
+    void testDecodes() {
+        assert decode('') == []
+        assert decode('') == TagSet.EMPTY
+        assert decode('foo\0\0bar\0') == ['foo', 'bar']
+        assert decode('kt:topic\0pk:key:with:colons\0kt:other') == ['kt:topic', 'pk:key:with:colons', 'kt:other']
+    }
+
+    void testIndexesValues() {
+        final tags = decode('kt:topic\0pk:key:with:colons\0plain\0kt:other\0pk:')
+        assert tags.getValue('kt') == 'other'
+        assert tags.getValue('pk') == ''
+        assert tags.getValue('plain') == null
+        assert decode('foo').getValue('kt') == null
+    }
+
+    void testSharesInstancesForSameBytes() {
+        final first = decode('kt:topic\0pk:key')
+        final packet = Unpooled.wrappedBuffer('xxkt:topic\0pk:keyxx'.bytes)
+        assert TagCache.decode(packet, 2, 15).is(first)
+        assert !decode('kt:topic\0pk:kez').is(first)
+    }
+
+    void testDecodesLongTags() {
+        final tag = 'kt:' + 'x' * 1000
+        assert decode(tag) == [tag]
+        assert decode(tag).getValue('kt') == 'x' * 1000
+    }
+
+    void testCopiesOtherCollections() {
+        final tags = TagSet.copyOf(['kt:topic'])
+        assert tags == ['kt:topic']
+        assert tags.getValue('kt') == 'topic'
+        assert TagSet.copyOf(tags).is(tags)
+        assert TagSet.copyOf([]).is(TagSet.EMPTY)
+    }
+}
@@ -100,6 +100,19 @@ class SimpleStatisticsReporterTest extends GroovyTestCase {
         }
     }
 
+    void testReceivedDatagramReadLoop() {
+        final stats = new SimpleStatisticsReporter()
+        assert stats.receivedDatagramReadLoop(1) == 1
+        assert stats.receivedDatagramReadLoop(2) == 1
+        assert stats.receivedDatagramReadLoop(3) == 1
+        assert stats.receivedDatagramReadLoop(4) == 2
+        assert stats.receivedDatagramReadLoop(1 << 20) == 1
+
+        final loops = slurper.parseText(stats.toJSON())['datagrams_per_read_loop']
+        assert loops[0..2] == [1, 1, 2]
+        assert loops[Short.SIZE] == 1
+    }
+
     void testCantProvideTwoDefragmenters() {
         final stats = new SimpleStatisticsReporter()
         stats.withDefrag(new Defragmenter(stats, defragConfig))
@@ -5,6 +5,7 @@ import com.airbnb.plog.handlers.Handler;
 import com.airbnb.plog.handlers.HandlerProvider;
 import com.eclipsesource.json.JsonObject;
 import com.typesafe.config.Config;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 
@@ -17,6 +18,7 @@ public final class EaterProvider implements HandlerProvider {
         return new Eater();
     }
 
+    @ChannelHandler.Sharable
     private static class Eater extends SimpleChannelInboundHandler<Message> implements Handler {
         private final AtomicLong counter = new AtomicLong();
 
@@ -2,6 +2,7 @@ package com.airbnb.plog.stress;
 
 import com.airbnb.plog.client.fragmentation.Fragmenter;
 import com.airbnb.plog.common.Murmur3;
+import com.airbnb.plog.common.PayloadCompression;
 import com.codahale.metrics.ConsoleReporter;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
@@ -66,7 +67,9 @@ public final class PlogStress {
         final int packetSize = stressConfig.getInt("udp.size");
         final int bufferSize = stressConfig.getInt("udp.SO_SNDBUF");
 
-        final Fragmenter fragmenter = new Fragmenter(packetSize);
+        final int parityGroupSize = stressConfig.getInt("udp.parity_group_size");
+
+        final Fragmenter fragmenter = new Fragmenter(packetSize, PayloadCompression.NONE, parityGroupSize);
 
         final Random random = new Random(stressConfig.getLong("seed"));
         final byte[] randomBytes = new byte[maxSize];